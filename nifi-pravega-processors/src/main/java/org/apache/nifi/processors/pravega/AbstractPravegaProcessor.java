@@ -24,6 +24,7 @@ import org.apache.nifi.processor.util.StandardValidators;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -314,4 +315,12 @@ public abstract class AbstractPravegaProcessor extends AbstractSessionFactoryPro
             sb.append(String.format("%02x ", b));
         return sb.toString();
     }
+
+    public static String dumpByteBuffer(ByteBuffer buffer) {
+        final ByteBuffer b = buffer.duplicate();
+        StringBuilder sb = new StringBuilder(b.remaining() * 3);
+        while (b.hasRemaining())
+            sb.append(String.format("%02x ", b.get()));
+        return sb.toString();
+    }
 }
@@ -12,16 +12,39 @@ package org.apache.nifi.processors.pravega;
 
 import io.pravega.client.ClientConfig;
 import io.pravega.client.EventStreamClientFactory;
+import io.pravega.client.admin.StreamInfo;
 import io.pravega.client.admin.StreamManager;
+import io.pravega.client.segment.impl.Segment;
 import io.pravega.client.stream.*;
-import io.pravega.client.stream.impl.ByteArraySerializer;
 import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.queue.QueueSize;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.FlowFileFilter;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.FlowFileFilters;
+import org.apache.nifi.processor.util.StandardValidators;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractPravegaPublisher extends AbstractPravegaProcessor {
     static final Set<Relationship> relationships;
@@ -35,8 +58,215 @@ public abstract class AbstractPravegaPublisher extends AbstractPravegaProcessor
             .description("Any FlowFile that cannot be sent to Pravega will be routed to this Relationship.")
             .build();
 
+    static final AllowableValue DELIVERY_MODE_TRANSACTIONAL = new AllowableValue(
+            "transactional",
+            "transactional",
+            "Each batch of FlowFiles is written in a Pravega transaction. "
+                    + "FlowFiles are routed to success only after the transaction has been committed.");
+    static final AllowableValue DELIVERY_MODE_NON_TRANSACTIONAL = new AllowableValue(
+            "non-transactional",
+            "non-transactional (at-least-once)",
+            "Events are written with a non-transactional writer without any controller round trips per batch. "
+                    + "Each FlowFile is routed to success as soon as its own event has been acknowledged. "
+                    + "Events of a batch are not atomically visible and retried FlowFiles may produce duplicate events.");
+
+    static final PropertyDescriptor PROP_DELIVERY_MODE = new PropertyDescriptor.Builder()
+            .name("delivery.mode")
+            .displayName("Delivery Mode")
+            .description("Controls whether events are written in Pravega transactions.")
+            .required(true)
+            .allowableValues(DELIVERY_MODE_TRANSACTIONAL, DELIVERY_MODE_NON_TRANSACTIONAL)
+            .defaultValue(DELIVERY_MODE_TRANSACTIONAL.getValue())
+            .build();
+
+    static final PropertyDescriptor PROP_MAX_IN_FLIGHT_EVENTS = new PropertyDescriptor.Builder()
+            .name("max.in.flight.events")
+            .displayName("Maximum In-Flight Events")
+            .description("The maximum number of events that may be written but not yet acknowledged by Pravega. "
+                    + "This limit is shared by all concurrent tasks of the processor. "
+                    + "Used only by the non-transactional delivery mode.")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("100")
+            .build();
+
+    static final PropertyDescriptor PROP_MAX_FLOWFILES_PER_TRANSACTION = new PropertyDescriptor.Builder()
+            .name("transaction.max.flowfiles")
+            .displayName("Maximum FlowFiles per Transaction")
+            .description("The maximum number of FlowFiles that will be written in a single transaction. "
+                    + "In the non-transactional delivery mode, this limits the number of FlowFiles per onTrigger.")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1000")
+            .build();
+
+    static final PropertyDescriptor PROP_MAX_TRANSACTION_SIZE = new PropertyDescriptor.Builder()
+            .name("transaction.max.size")
+            .displayName("Maximum Transaction Size")
+            .description("The maximum total size of the FlowFiles that will be written in a single transaction. "
+                    + "A single FlowFile larger than this will still be sent in its own transaction. "
+                    + "In the non-transactional delivery mode, this limits the size of the FlowFiles per onTrigger.")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .defaultValue("1 MB")
+            .build();
+
+    static final PropertyDescriptor PROP_LINGER_TIME = new PropertyDescriptor.Builder()
+            .name("linger.time")
+            .displayName("Linger Time")
+            .description("If fewer FlowFiles are queued than the transaction limits allow, wait up to this long "
+                    + "for more FlowFiles to arrive before starting the transaction. "
+                    + "While lingering, the processor yields, so FlowFiles may wait up to the Yield Duration longer than this. "
+                    + "If 0, whatever is queued is sent immediately.")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .defaultValue("0 ms")
+            .build();
+
+    static final PropertyDescriptor PROP_ADAPTIVE_TRANSACTION_SIZE = new PropertyDescriptor.Builder()
+            .name("transaction.adaptive.size")
+            .displayName("Adaptive Transaction Size")
+            .description("If true, the transaction limits will be reduced when flushing and committing takes longer than "
+                    + "the Target Commit Latency, and gradually increased back up to the configured maximums when it does not "
+                    + "(additive-increase/multiplicative-decrease).")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .build();
+
+    static final PropertyDescriptor PROP_TARGET_COMMIT_LATENCY = new PropertyDescriptor.Builder()
+            .name("transaction.target.commit.latency")
+            .displayName("Target Commit Latency")
+            .description("When Adaptive Transaction Size is enabled, transactions that take longer than this "
+                    + "to flush and commit will cause the transaction limits to be reduced.")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .defaultValue("1 sec")
+            .build();
+
+    static final PropertyDescriptor PROP_MAX_PENDING_TRANSACTIONS = new PropertyDescriptor.Builder()
+            .name("max.pending.transactions")
+            .displayName("Maximum Pending Transactions")
+            .description("The maximum number of transactions that may be flushing or committing in the background "
+                    + "while onTrigger fills the next transaction. "
+                    + "The FlowFiles of each transaction are routed only after Pravega confirms that the transaction has been committed. "
+                    + "Transactions are flushed concurrently but committed in the order they were filled. "
+                    + "If 0, each transaction is flushed and committed before onTrigger returns. "
+                    + "Used only by the transactional delivery mode.")
+            .required(true)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .defaultValue("0")
+            .build();
+
+    static final PropertyDescriptor PROP_TRANSACTION_POOL_SIZE = new PropertyDescriptor.Builder()
+            .name("transaction.pool.size")
+            .displayName("Transaction Pool Size")
+            .description("The number of transactions that will be opened in the background ahead of time "
+                    + "so that onTrigger does not need to wait for the controller to begin a transaction. "
+                    + "Pooled transactions that have used half of their lease are aborted and replaced. "
+                    + "If 0, a transaction is opened at the beginning of each onTrigger. "
+                    + "Used only by the transactional delivery mode.")
+            .required(true)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .defaultValue("0")
+            .build();
+
+    static final PropertyDescriptor PROP_GROUP_COMMIT = new PropertyDescriptor.Builder()
+            .name("group.commit")
+            .displayName("Group Commit")
+            .description("If true, concurrent tasks on this node write their events to a shared transaction "
+                    + "that is committed once for all of them. Each task commits its session only after the shared transaction "
+                    + "has been committed. If the events of any task cannot be written, all tasks sharing the transaction will "
+                    + "route their FlowFiles to failure. If the shared transaction is not committed within the transaction timeout, "
+                    + "the FlowFiles are returned to the queue and penalized because the transaction may still be committed. "
+                    + "When enabled, Maximum Pending Transactions is ignored. "
+                    + "Used only by the transactional delivery mode.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .build();
+
+    static final PropertyDescriptor PROP_GROUP_COMMIT_WINDOW = new PropertyDescriptor.Builder()
+            .name("group.commit.window")
+            .displayName("Group Commit Window")
+            .description("When Group Commit is enabled, tasks that start within this time of the first task "
+                    + "will share its transaction.")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .defaultValue("10 ms")
+            .build();
+
+    static final PropertyDescriptor PROP_HOT_KEY_DETECTION = new PropertyDescriptor.Builder()
+            .name("hot.key.detection")
+            .displayName("Hot Key Detection")
+            .description("If true, the approximate frequency of each routing key is tracked with a sketch of bounded size. "
+                    + "Hot keys and skew between segments are reported with warning bulletins and processor counters. "
+                    + "Only the attribute and record field routing strategies are tracked because the other strategies "
+                    + "already spread their keys across the key space.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .build();
+
+    static final PropertyDescriptor PROP_HOT_KEY_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("hot.key.threshold")
+            .displayName("Hot Key Threshold")
+            .description("A routing key is hot when its share of the recent events is at least this many times its fair share. "
+                    + "The fair share is 1 divided by the smaller of the number of distinct recent keys and the number of segments, "
+                    + "so events that are spread evenly over their keys or over the segments never make a key hot.")
+            .required(true)
+            .addValidator(StandardValidators.createLongValidator(2, 1000, true))
+            .defaultValue("4")
+            .build();
+
+    static final PropertyDescriptor PROP_HOT_KEY_FAN_OUT = new PropertyDescriptor.Builder()
+            .name("hot.key.fan.out")
+            .displayName("Hot Key Fan-Out")
+            .description("When Hot Key Detection is enabled and this is greater than 1, events with a hot routing key "
+                    + "are spread over this many salted routing keys. Events with a salted key are not guaranteed to be read in order.")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1")
+            .build();
+
+    static final long SEGMENT_ROUTING_KEYS_REFRESH_MS = 60000;
+    static final long NOT_LINGERING = Long.MIN_VALUE;
+
     EventStreamClientFactory cachedClientFactory;
-    TransactionalEventStreamWriter<byte[]> cachedWriter;
+    TransactionalEventStreamWriter<ByteBuffer> cachedWriter;
+    EventStreamWriter<ByteBuffer> cachedEventWriter;
+    TransactionPipeline cachedPipeline;
+    TransactionPool cachedTransactionPool;
+    GroupCommitCoordinator cachedGroupCommitCoordinator;
+    AdaptiveTransactionSizer cachedSizer;
+    String[] cachedSegmentRoutingKeys;
+    int cachedSegmentCount;
+    long segmentsGeneration;        // incremented when stopped so that a refresh in progress is discarded
+    final AtomicBoolean segmentRefreshPending = new AtomicBoolean();
+    StreamManager cachedStreamManager;
+    ExecutorService cachedSegmentRefreshExecutor;
+    HotKeyDetector cachedHotKeyDetector;
+    long cachedSegmentRoutingKeysTime;
+    Semaphore cachedInFlightPermits;
+    // System.nanoTime() when lingering started, or NOT_LINGERING. Shared by all tasks because they share the queue.
+    final AtomicLong lingerStartTime = new AtomicLong(NOT_LINGERING);
+
+    /**
+     * Receives the events of a FlowFile. This is usually a transaction.
+     */
+    interface EventSink {
+        void writeEvent(String routingKey, ByteBuffer event) throws TxnFailedException;
+    }
+
+    /**
+     * Writes the events of a single FlowFile to a transaction.
+     */
+    interface TransactionalFlowFileWriter {
+        /**
+         * @return the number of events written
+         */
+        long write(ProcessSession session, FlowFile flowFile, EventSink sink) throws TxnFailedException;
+    }
 
     static {
         final Set<Relationship> innerRelationshipsSet = new HashSet<>();
@@ -54,10 +284,45 @@ public abstract class AbstractPravegaPublisher extends AbstractPravegaProcessor
     public void onStop(final ProcessContext context) {
         synchronized (this) {
             logger.debug("onStop: this={}", new Object[]{this});
+            if (cachedPipeline != null) {
+                // Wait for pending transactions before closing the writer.
+                cachedPipeline.close();
+                cachedPipeline = null;
+            }
+            if (cachedGroupCommitCoordinator != null) {
+                cachedGroupCommitCoordinator.close();
+                cachedGroupCommitCoordinator = null;
+            }
+            if (cachedTransactionPool != null) {
+                // Abort unused transactions before closing the writer.
+                cachedTransactionPool.close();
+                cachedTransactionPool = null;
+            }
+            cachedSizer = null;
+            cachedInFlightPermits = null;
+            lingerStartTime.set(NOT_LINGERING);
+            cachedSegmentRoutingKeys = null;
+            cachedSegmentCount = 0;
+            cachedSegmentRoutingKeysTime = 0;
+            segmentsGeneration++;
+            if (cachedSegmentRefreshExecutor != null) {
+                // A refresh in progress will fail when the stream manager is closed and its result is discarded.
+                cachedSegmentRefreshExecutor.shutdownNow();
+                cachedSegmentRefreshExecutor = null;
+            }
+            if (cachedStreamManager != null) {
+                cachedStreamManager.close();
+                cachedStreamManager = null;
+            }
+            cachedHotKeyDetector = null;
             if (cachedWriter != null) {
                 cachedWriter.close();
                 cachedWriter = null;
             }
+            if (cachedEventWriter != null) {
+                cachedEventWriter.close();
+                cachedEventWriter = null;
+            }
             if (cachedClientFactory != null) {
                 cachedClientFactory.close();
                 cachedClientFactory = null;
@@ -65,32 +330,509 @@ public abstract class AbstractPravegaPublisher extends AbstractPravegaProcessor
         }
     }
 
-    protected TransactionalEventStreamWriter<byte[]> getWriter(ProcessContext context) {
+    static boolean isTransactional(final ProcessContext context) {
+        return !DELIVERY_MODE_NON_TRANSACTIONAL.getValue().equals(context.getProperty(PROP_DELIVERY_MODE).getValue());
+    }
+
+    static boolean isGroupCommit(final ProcessContext context) {
+        return isTransactional(context) && context.getProperty(PROP_GROUP_COMMIT).asBoolean();
+    }
+
+    static boolean isPipelined(final ProcessContext context) {
+        return isTransactional(context) && !isGroupCommit(context)
+                && context.getProperty(PROP_MAX_PENDING_TRANSACTIONS).asInteger() > 0;
+    }
+
+    /**
+     * Determines whether to wait for more FlowFiles before starting the next transaction.
+     * Rather than holding a thread while lingering, the caller should yield and let the scheduler trigger again.
+     * The linger time starts when a task first finds fewer FlowFiles queued than the transaction limits allow
+     * and ends for all tasks when one of them finds that it has passed.
+     *
+     * @param session used only to get the size of the queue
+     */
+    boolean isLingering(final ProcessContext context, final ProcessSession session) {
+        final long lingerNanos = context.getProperty(PROP_LINGER_TIME).asTimePeriod(TimeUnit.NANOSECONDS);
+        if (lingerNanos <= 0) {
+            return false;
+        }
+        final QueueSize queueSize = session.getQueueSize();
+        if (queueSize.getObjectCount() == 0
+                || queueSize.getObjectCount() >= getMaxFlowFiles(context)
+                || queueSize.getByteCount() >= getMaxBytes(context)) {
+            lingerStartTime.set(NOT_LINGERING);
+            return false;
+        }
+        final long now = System.nanoTime();
+        lingerStartTime.compareAndSet(NOT_LINGERING, now);
+        final long startTime = lingerStartTime.get();
+        if (startTime == NOT_LINGERING) {
+            // Another task has just ended the linger time.
+            return false;
+        }
+        if (now - startTime < lingerNanos) {
+            return true;
+        }
+        // Only end the linger time that was checked so that a newer one started by another task is kept.
+        lingerStartTime.compareAndSet(startTime, NOT_LINGERING);
+        return false;
+    }
+
+    /**
+     * Obtains the FlowFiles for the next transaction from the session, honoring the transaction limits.
+     */
+    List<FlowFile> getFlowFiles(final ProcessContext context, final ProcessSession session) {
+        return session.get(FlowFileFilters.newSizeBasedFilter(getMaxBytes(context), DataUnit.B, getMaxFlowFiles(context)));
+    }
+
+    private int getMaxFlowFiles(final ProcessContext context) {
+        final AdaptiveTransactionSizer sizer = getSizer(context);
+        return sizer == null ? context.getProperty(PROP_MAX_FLOWFILES_PER_TRANSACTION).asInteger() : sizer.getMaxFlowFiles();
+    }
+
+    private long getMaxBytes(final ProcessContext context) {
+        final AdaptiveTransactionSizer sizer = getSizer(context);
+        return sizer == null ? context.getProperty(PROP_MAX_TRANSACTION_SIZE).asDataSize(DataUnit.B).longValue() : sizer.getMaxBytes();
+    }
+
+    /**
+     * @return the adaptive transaction sizer or null if adaptive transaction size is disabled
+     */
+    AdaptiveTransactionSizer getSizer(final ProcessContext context) {
+        if (!context.getProperty(PROP_ADAPTIVE_TRANSACTION_SIZE).asBoolean()) {
+            return null;
+        }
+        synchronized (this) {
+            if (cachedSizer == null) {
+                cachedSizer = new AdaptiveTransactionSizer(
+                        context.getProperty(PROP_MAX_FLOWFILES_PER_TRANSACTION).asInteger(),
+                        context.getProperty(PROP_MAX_TRANSACTION_SIZE).asDataSize(DataUnit.B).longValue(),
+                        context.getProperty(PROP_TARGET_COMMIT_LATENCY).asTimePeriod(TimeUnit.MILLISECONDS));
+                logger.debug("getSizer: created {}", new Object[]{cachedSizer});
+            }
+            return cachedSizer;
+        }
+    }
+
+    /**
+     * @return the permits for unacknowledged non-transactional events, shared by all concurrent tasks
+     */
+    Semaphore getInFlightPermits(final ProcessContext context) {
+        synchronized (this) {
+            if (cachedInFlightPermits == null) {
+                cachedInFlightPermits = new Semaphore(context.getProperty(PROP_MAX_IN_FLIGHT_EVENTS).asInteger());
+            }
+            return cachedInFlightPermits;
+        }
+    }
+
+    /**
+     * Returns the session that FlowFiles should be obtained from.
+     * When transactions are pipelined, the session may be committed by a later onTrigger once its transaction
+     * has been committed, so a new session is created instead of using the session that is committed when onTrigger returns.
+     */
+    ProcessSession getPublishSession(final ProcessContext context, final ProcessSessionFactory sessionFactory, final ProcessSession session) {
+        return isPipelined(context) ? sessionFactory.createSession() : session;
+    }
+
+    /**
+     * Routes the FlowFiles of pipelined transactions that have completed and commits their sessions on this NiFi thread.
+     * If no FlowFiles are waiting, this processor may not be triggered again, so this waits for all pending transactions.
+     *
+     * @param session the session of onTrigger, which is used only to check for waiting FlowFiles
+     */
+    void finishPipelinedTransactions(final ProcessSession session) {
+        final TransactionPipeline pipeline;
+        synchronized (this) {
+            pipeline = cachedPipeline;
+        }
+        if (pipeline == null) {
+            return;
+        }
+        if (hasAvailableFlowFiles(session)) {
+            pipeline.finishCompleted();
+        } else {
+            pipeline.finishAll();
+        }
+    }
+
+    /**
+     * @return true if a FlowFile can be obtained from the session; the FlowFile is left in the queue
+     */
+    static boolean hasAvailableFlowFiles(final ProcessSession session) {
+        final AtomicBoolean available = new AtomicBoolean();
+        session.get(flowFile -> {
+            available.set(true);
+            return FlowFileFilter.FlowFileFilterResult.REJECT_AND_TERMINATE;
+        });
+        return available.get();
+    }
+
+    /**
+     * Writes the given FlowFiles to Pravega in a single transaction.
+     * If transactions are pipelined, this returns as soon as all events have been written to the transaction
+     * and the flush and commit will complete in the background.
+     * Otherwise, this blocks until the transaction has been committed.
+     * In both cases, the session is committed once the FlowFiles have been routed.
+     */
+    void publishTransactional(final ProcessContext context, final ProcessSession session, final List<FlowFile> flowFiles,
+                              final String transitUri, final TransactionalFlowFileWriter flowFileWriter) {
+        if (isGroupCommit(context)) {
+            publishInGroup(context, session, flowFiles, transitUri, flowFileWriter);
+            return;
+        }
+
+        final long startTime = System.nanoTime();
+        final AdaptiveTransactionSizer sizer = getSizer(context);
+        final Transaction<ByteBuffer> transaction = beginTxn(context);
+        final UUID txnId = transaction.getTxnId();
+
+        logger.info("Sending {} FlowFiles to Pravega stream {} in transaction {}.",
+                new Object[]{flowFiles.size(), transitUri, txnId});
+
+        long eventCount = 0;
+        final EventSink sink = transaction::writeEvent;
+        try {
+            for (final FlowFile flowFile : flowFiles) {
+                if (!isScheduled()) {
+                    // If stopped, abort the transaction and re-queue the FlowFiles instead of sending them.
+                    transaction.abort();
+                    session.transfer(flowFiles);
+                    session.commit();
+                    return;
+                }
+                eventCount += flowFileWriter.write(session, flowFile, sink);
+            }
+        } catch (ProcessException | TxnFailedException e) {
+            new TransactionPipeline.TransactionBatch(logger, transaction, session, flowFiles, transitUri, eventCount, startTime,
+                    sizer).fail(e);
+            return;
+        }
+
+        final TransactionPipeline.TransactionBatch batch = new TransactionPipeline.TransactionBatch(
+                logger, transaction, session, flowFiles, transitUri, eventCount, startTime, sizer);
+        if (isPipelined(context)) {
+            getPipeline(context).submit(batch);
+        } else {
+            batch.complete(false, 0);
+        }
+    }
+
+    /**
+     * Writes the given FlowFiles to a transaction shared with other concurrent tasks and blocks until
+     * the shared transaction has been committed.
+     */
+    private void publishInGroup(final ProcessContext context, final ProcessSession session, final List<FlowFile> flowFiles,
+                                final String transitUri, final TransactionalFlowFileWriter flowFileWriter) {
+        final long startTime = System.nanoTime();
+        final GroupCommitCoordinator.Group group = getGroupCommitCoordinator(context).join();
+        final Transaction<ByteBuffer> transaction = group.getTransaction();
+
+        logger.info("Sending {} FlowFiles to Pravega stream {} in shared transaction {}.",
+                new Object[]{flowFiles.size(), transitUri, transaction.getTxnId()});
+
+        long eventCount = 0;
+        Exception writeFailure = null;
+        try {
+            for (final FlowFile flowFile : flowFiles) {
+                eventCount += flowFileWriter.write(session, flowFile, group::writeEvent);
+            }
+        } catch (final Exception e) {
+            writeFailure = e;
+        } finally {
+            group.leave(writeFailure);
+        }
+        final long commitStartTime = System.nanoTime();
+        final AdaptiveTransactionSizer sizer = getSizer(context);
+
+        final TransactionPipeline.TransactionBatch batch = new TransactionPipeline.TransactionBatch(
+                logger, transaction, session, flowFiles, transitUri, eventCount, startTime, sizer);
+        final boolean committed;
+        try {
+            committed = group.awaitCommit();
+        } catch (final ProcessException e) {
+            if (writeFailure == null && sizer != null) {
+                sizer.onFailed();
+            }
+            batch.routeToFailure(writeFailure != null ? writeFailure : e);
+            return;
+        }
+        if (!committed) {
+            // The shared transaction may still be committed, so the FlowFiles are returned to the queue
+            // to be sent again rather than routed to failure.
+            if (sizer != null) {
+                sizer.onFailed();
+            }
+            logger.warn("Timed out waiting for group commit of transaction {}; returning {} FlowFiles to the queue.",
+                    new Object[]{transaction.getTxnId(), flowFiles.size()});
+            session.rollback(true);
+            return;
+        }
+        if (sizer != null) {
+            sizer.onCommitted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - commitStartTime));
+        }
+        batch.succeed();
+    }
+
+    private GroupCommitCoordinator getGroupCommitCoordinator(final ProcessContext context) {
+        synchronized (this) {
+            if (cachedGroupCommitCoordinator == null) {
+                cachedGroupCommitCoordinator = new GroupCommitCoordinator(
+                        logger,
+                        () -> beginTxn(context),
+                        context.getProperty(PROP_GROUP_COMMIT_WINDOW).asTimePeriod(TimeUnit.MILLISECONDS),
+                        getEventWriterConfig(context).getTransactionTimeoutTime());
+                logger.debug("getGroupCommitCoordinator: created {}", new Object[]{cachedGroupCommitCoordinator});
+            }
+            return cachedGroupCommitCoordinator;
+        }
+    }
+
+    /**
+     * Returns an open transaction, from the transaction pool if it is enabled.
+     */
+    Transaction<ByteBuffer> beginTxn(final ProcessContext context) {
+        final int poolSize = context.getProperty(PROP_TRANSACTION_POOL_SIZE).asInteger();
+        if (poolSize == 0) {
+            return getWriter(context).beginTxn();
+        }
+        final TransactionPool pool;
+        synchronized (this) {
+            if (cachedTransactionPool == null) {
+                cachedTransactionPool = new TransactionPool(
+                        logger,
+                        getWriter(context),
+                        poolSize,
+                        getEventWriterConfig(context).getTransactionTimeoutTime());
+                logger.debug("beginTxn: created {}", new Object[]{cachedTransactionPool});
+            }
+            pool = cachedTransactionPool;
+        }
+        return pool.beginTxn();
+    }
+
+    private TransactionPipeline getPipeline(final ProcessContext context) {
+        synchronized (this) {
+            if (cachedPipeline == null) {
+                cachedPipeline = new TransactionPipeline(
+                        logger,
+                        context.getProperty(PROP_MAX_PENDING_TRANSACTIONS).asInteger(),
+                        getEventWriterConfig(context).getTransactionTimeoutTime());
+                logger.debug("getPipeline: created {}", new Object[]{cachedPipeline});
+            }
+            return cachedPipeline;
+        }
+    }
+
+    /**
+     * Creates the routing key strategy for a single transaction.
+     */
+    RoutingKeyStrategy getRoutingKeyStrategy(final ProcessContext context, final PropertyDescriptor strategyProperty) {
+        final String strategyValue = context.getProperty(strategyProperty).getValue();
+        final RoutingKeyStrategy strategy = RoutingKeyStrategy.create(strategyValue, () -> getSegmentRoutingKeys(context));
+        if (!RoutingKeyStrategy.usesEventKeys(strategyValue)) {
+            return strategy;
+        }
+        final HotKeyDetector detector = getHotKeyDetector(context);
+        if (detector == null) {
+            return strategy;
+        }
+        return new RoutingKeyStrategy.HotKeyStrategy(strategy, detector);
+    }
+
+    /**
+     * Returns the hot key detector, or null if hot key detection is disabled.
+     */
+    HotKeyDetector getHotKeyDetector(final ProcessContext context) {
+        if (!context.getProperty(PROP_HOT_KEY_DETECTION).asBoolean()) {
+            return null;
+        }
+        synchronized (this) {
+            if (cachedHotKeyDetector == null) {
+                cachedHotKeyDetector = new HotKeyDetector(
+                        logger,
+                        context.getProperty(PROP_HOT_KEY_THRESHOLD).asInteger(),
+                        context.getProperty(PROP_HOT_KEY_FAN_OUT).asInteger(),
+                        () -> getSegmentCount(context));
+                logger.debug("getHotKeyDetector: created {}", new Object[]{cachedHotKeyDetector});
+            }
+            return cachedHotKeyDetector;
+        }
+    }
+
+    /**
+     * Adds the hot key counts of previous transactions to the processor counters of the session.
+     */
+    void reportHotKeys(final ProcessContext context, final ProcessSession session) {
+        final HotKeyDetector detector = getHotKeyDetector(context);
+        if (detector != null) {
+            detector.reportCounters(session);
+        }
+    }
+
+    /**
+     * Returns one routing key for each segment of the stream.
+     * The keys hash to evenly spaced ranges of the key space, so they are only returned while the stream
+     * has its initial, evenly split segments. Returns null once the stream has scaled.
+     * This only blocks the first time. Afterwards, the segments are refreshed in the background every minute.
+     */
+    String[] getSegmentRoutingKeys(final ProcessContext context) {
+        final boolean known;
+        synchronized (this) {
+            known = cachedSegmentRoutingKeysTime != 0;
+        }
+        if (known) {
+            refreshSegmentsIfStale(context);
+        } else {
+            refreshSegments(context);
+        }
+        synchronized (this) {
+            return cachedSegmentRoutingKeys;
+        }
+    }
+
+    /**
+     * Returns the number of segments of the stream, or 0 if it is not known yet. This never blocks.
+     * The segments are refreshed in the background every minute.
+     */
+    int getSegmentCount(final ProcessContext context) {
+        refreshSegmentsIfStale(context);
+        synchronized (this) {
+            return cachedSegmentCount;
+        }
+    }
+
+    private void refreshSegmentsIfStale(final ProcessContext context) {
+        synchronized (this) {
+            if (System.currentTimeMillis() - cachedSegmentRoutingKeysTime <= SEGMENT_ROUTING_KEYS_REFRESH_MS) {
+                return;
+            }
+        }
+        if (segmentRefreshPending.compareAndSet(false, true)) {
+            try {
+                getSegmentRefreshExecutor().submit(() -> {
+                    try {
+                        refreshSegments(context);
+                    } catch (final RuntimeException e) {
+                        logger.warn("Unable to refresh the segments of the stream", e);
+                    } finally {
+                        segmentRefreshPending.set(false);
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                // The processor is being stopped.
+                segmentRefreshPending.set(false);
+            }
+        }
+    }
+
+    private ExecutorService getSegmentRefreshExecutor() {
+        synchronized (this) {
+            if (cachedSegmentRefreshExecutor == null) {
+                cachedSegmentRefreshExecutor = Executors.newSingleThreadExecutor();
+            }
+            return cachedSegmentRefreshExecutor;
+        }
+    }
+
+    /**
+     * Gets the current segments from the controller with a stream manager shared by all refreshes.
+     * The controller is called without holding the lock on this.
+     */
+    private void refreshSegments(final ProcessContext context) {
+        final long generation;
+        final StreamManager streamManager;
+        synchronized (this) {
+            generation = segmentsGeneration;
+            if (cachedStreamManager == null) {
+                cachedStreamManager = StreamManager.create(getClientConfig(context));
+            }
+            streamManager = cachedStreamManager;
+        }
+        final Stream stream = getStream(context);
+        final List<Long> segmentIds = new ArrayList<>();
+        final StreamInfo streamInfo = streamManager.getStreamInfo(stream.getScope(), stream.getStreamName());
+        for (final Segment segment : streamInfo.getTailStreamCut().asImpl().getPositions().keySet()) {
+            segmentIds.add(segment.getSegmentId());
+        }
+        final int segmentCount = Math.max(1, segmentIds.size());
+        final boolean evenlySplit = RoutingKeyStrategy.isEvenlySplit(segmentIds);
+        final String[] segmentRoutingKeys = evenlySplit ? RoutingKeyStrategy.findSegmentRoutingKeys(segmentCount) : null;
+        synchronized (this) {
+            if (generation != segmentsGeneration) {
+                // The processor has been stopped since the refresh started.
+                return;
+            }
+            if (!evenlySplit && (cachedSegmentRoutingKeys != null || cachedSegmentRoutingKeysTime == 0)) {
+                logger.warn("Stream {} has scaled so its segments may not be evenly split; "
+                        + "the round-robin routing strategy will use random routing keys", new Object[]{stream});
+            }
+            cachedSegmentRoutingKeys = segmentRoutingKeys;
+            cachedSegmentCount = segmentCount;
+            cachedSegmentRoutingKeysTime = System.currentTimeMillis();
+        }
+        logger.debug("refreshSegments: segmentCount={}, evenlySplit={}", new Object[]{segmentCount, evenlySplit});
+    }
+
+    EventWriterConfig getEventWriterConfig(final ProcessContext context) {
+        return EventWriterConfig.builder().build();
+    }
+
+    protected TransactionalEventStreamWriter<ByteBuffer> getWriter(ProcessContext context) {
         synchronized (this) {
             logger.debug("getWriter: this={}", new Object[]{System.identityHashCode(this)});
             if (cachedWriter == null) {
-                ClientConfig clientConfig = getClientConfig(context);
-
                 final Stream stream = getStream(context);
-                logger.debug("getWriter: stream={}, this={}",
-                        new Object[]{stream, System.identityHashCode(this)});
-                final StreamConfiguration streamConfig = getStreamConfiguration(context);
-                try (final StreamManager streamManager = StreamManager.create(clientConfig)) {
-                    if(new Boolean(context.getProperty(PROP_CREATE_SCOPE).getValue()))
-                        streamManager.createScope(stream.getScope());
-
-                    streamManager.createStream(stream.getScope(), stream.getStreamName(), streamConfig);
-                }
-                final EventStreamClientFactory clientFactory = EventStreamClientFactory.withScope(stream.getScope(), clientConfig);
-                final TransactionalEventStreamWriter<byte[]> writer = clientFactory.createTransactionalEventWriter(
+                final TransactionalEventStreamWriter<ByteBuffer> writer = getClientFactory(context).createTransactionalEventWriter(
                         stream.getStreamName(),
-                        new ByteArraySerializer(),
-                        EventWriterConfig.builder().build());
-
-                cachedClientFactory = clientFactory;
+                        new EventSerializer(),
+                        getEventWriterConfig(context));
                 cachedWriter = writer;
             }
             return cachedWriter;
         }
     }
+
+    /**
+     * Returns the non-transactional writer used by the non-transactional delivery mode.
+     * Each call to writeEvent returns a future that completes when the event has been durably
+     * persisted by Pravega.
+     */
+    protected EventStreamWriter<ByteBuffer> getEventWriter(ProcessContext context) {
+        synchronized (this) {
+            logger.debug("getEventWriter: this={}", new Object[]{System.identityHashCode(this)});
+            if (cachedEventWriter == null) {
+                final Stream stream = getStream(context);
+                final EventStreamWriter<ByteBuffer> writer = getClientFactory(context).createEventWriter(
+                        stream.getStreamName(),
+                        new EventSerializer(),
+                        getEventWriterConfig(context));
+                cachedEventWriter = writer;
+            }
+            return cachedEventWriter;
+        }
+    }
+
+    /**
+     * Creates the stream (if needed) and the client factory on first use.
+     * Must be called while synchronized on this.
+     */
+    private EventStreamClientFactory getClientFactory(ProcessContext context) {
+        if (cachedClientFactory == null) {
+            ClientConfig clientConfig = getClientConfig(context);
+
+            final Stream stream = getStream(context);
+            logger.debug("getClientFactory: stream={}, this={}",
+                    new Object[]{stream, System.identityHashCode(this)});
+            final StreamConfiguration streamConfig = getStreamConfiguration(context);
+            try (final StreamManager streamManager = StreamManager.create(clientConfig)) {
+                if(new Boolean(context.getProperty(PROP_CREATE_SCOPE).getValue()))
+                    streamManager.createScope(stream.getScope());
+
+                streamManager.createStream(stream.getScope(), stream.getStreamName(), streamConfig);
+            }
+            cachedClientFactory = EventStreamClientFactory.withScope(stream.getScope(), clientConfig);
+        }
+        return cachedClientFactory;
+    }
 }
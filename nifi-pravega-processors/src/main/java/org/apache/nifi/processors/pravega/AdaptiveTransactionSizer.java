@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+/**
+ * Adjusts the size of transactions using additive-increase/multiplicative-decrease (AIMD).
+ * <p>
+ * Both limits are scaled by the same fraction of their configured maximums.
+ * Whenever a transaction is flushed and committed within the target latency, the fraction grows by a
+ * fixed step. Whenever it takes longer, or the transaction fails, the fraction is halved.
+ * This keeps transactions as large as possible while staying clear of transaction timeouts
+ * on slow segment stores.
+ */
+public class AdaptiveTransactionSizer {
+
+    static final double INCREASE_STEP = 0.05;
+    static final double DECREASE_FACTOR = 0.5;
+
+    private final int maxFlowFiles;
+    private final long maxBytes;
+    private final long targetLatencyMs;
+    private final double minFraction;
+    private double fraction = 1.0;      // must have lock on this to access
+
+    /**
+     * @param maxFlowFiles    the configured maximum number of FlowFiles per transaction
+     * @param maxBytes        the configured maximum number of bytes per transaction
+     * @param targetLatencyMs the flush and commit latency above which transactions will be made smaller
+     */
+    public AdaptiveTransactionSizer(final int maxFlowFiles, final long maxBytes, final long targetLatencyMs) {
+        this.maxFlowFiles = maxFlowFiles;
+        this.maxBytes = maxBytes;
+        this.targetLatencyMs = targetLatencyMs;
+        this.minFraction = 1.0 / maxFlowFiles;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveTransactionSizer{" +
+                "maxFlowFiles=" + maxFlowFiles +
+                ", maxBytes=" + maxBytes +
+                ", targetLatencyMs=" + targetLatencyMs +
+                ", fraction=" + fraction +
+                '}';
+    }
+
+    public synchronized int getMaxFlowFiles() {
+        return (int) Math.max(1, Math.round(maxFlowFiles * fraction));
+    }
+
+    public synchronized long getMaxBytes() {
+        return Math.max(1, Math.round(maxBytes * fraction));
+    }
+
+    /**
+     * Records the time taken to flush and commit a transaction.
+     */
+    public synchronized void onCommitted(final long latencyMs) {
+        if (latencyMs > targetLatencyMs) {
+            decrease();
+        } else {
+            fraction = Math.min(1.0, fraction + INCREASE_STEP);
+        }
+    }
+
+    /**
+     * Records that a transaction could not be flushed or committed.
+     */
+    public synchronized void onFailed() {
+        decrease();
+    }
+
+    private void decrease() {
+        fraction = Math.max(minFraction, fraction * DECREASE_FACTOR);
+    }
+}
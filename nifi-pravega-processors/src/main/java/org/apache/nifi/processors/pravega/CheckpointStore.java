@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.ClientConfig;
+import io.pravega.client.SynchronizerClientFactory;
+import io.pravega.client.admin.StreamManager;
+import io.pravega.client.state.InitialUpdate;
+import io.pravega.client.state.Revision;
+import io.pravega.client.state.Revisioned;
+import io.pravega.client.state.StateSynchronizer;
+import io.pravega.client.state.SynchronizerConfig;
+import io.pravega.client.state.Update;
+import io.pravega.client.stream.ScalingPolicy;
+import io.pravega.client.stream.StreamConfiguration;
+import io.pravega.client.stream.impl.JavaSerializer;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+import org.apache.nifi.logging.ComponentLog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+/**
+ * Stores the state of a ConsumerPool: the reader group name and its checkpoints or stream cuts.
+ * <p>
+ * The methods have the semantics of the cluster scope of the NiFi StateManager. The version of a StateMap
+ * is -1 if nothing has been stored yet. replace only succeeds if the state has not changed since oldState was read.
+ */
+public abstract class CheckpointStore implements Closeable {
+
+    static final AllowableValue CHECKPOINT_STORE_CLUSTER_STATE = new AllowableValue(
+            "cluster-state",
+            "Cluster State",
+            "The state is stored in the NiFi cluster state (ZooKeeper in a cluster).");
+    static final AllowableValue CHECKPOINT_STORE_LOCAL_FILE = new AllowableValue(
+            "local-file",
+            "Local File",
+            "The state is stored in a file in the Checkpoint Store Directory. "
+                    + "This must only be used on a standalone NiFi node because other nodes cannot read it.");
+    static final AllowableValue CHECKPOINT_STORE_PRAVEGA = new AllowableValue(
+            "pravega",
+            "Pravega State Synchronizer",
+            "The state is stored in a Pravega stream in the scope of the first stream, using a state synchronizer. "
+                    + "The stream is named after the processor so that all nodes of the cluster share it.");
+
+    abstract StateMap getState() throws IOException;
+
+    abstract void setState(Map<String, String> state) throws IOException;
+
+    abstract boolean replace(StateMap oldState, Map<String, String> newState) throws IOException;
+
+    @Override
+    public void close() {
+    }
+
+    static class SimpleStateMap implements StateMap {
+        private final long version;
+        private final Map<String, String> values;
+
+        SimpleStateMap(final long version, final Map<String, String> values) {
+            this.version = version;
+            this.values = Collections.unmodifiableMap(values);
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+
+        @Override
+        public String get(final String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public Map<String, String> toMap() {
+            return values;
+        }
+    }
+
+    /**
+     * Uses the NiFi cluster state.
+     */
+    static class ClusterStateStore extends CheckpointStore {
+        private final StateManager stateManager;
+
+        ClusterStateStore(final StateManager stateManager) {
+            this.stateManager = stateManager;
+        }
+
+        @Override
+        StateMap getState() throws IOException {
+            return stateManager.getState(Scope.CLUSTER);
+        }
+
+        @Override
+        void setState(final Map<String, String> state) throws IOException {
+            stateManager.setState(state, Scope.CLUSTER);
+        }
+
+        @Override
+        boolean replace(final StateMap oldState, final Map<String, String> newState) throws IOException {
+            return stateManager.replace(oldState, newState, Scope.CLUSTER);
+        }
+    }
+
+    /**
+     * Stores the state in a properties file on the local disk.
+     * Each write replaces the file with a new file that has been synced to disk.
+     */
+    static class LocalFileStore extends CheckpointStore {
+        private final File file;
+        private StateMap state;     // must have lock on this to access
+
+        LocalFileStore(final File file) throws IOException {
+            this.file = file;
+            if (file.exists()) {
+                final Properties properties = new Properties();
+                try (final InputStream in = new FileInputStream(file)) {
+                    properties.load(in);
+                }
+                final Map<String, String> values = new HashMap<>();
+                for (final String key : properties.stringPropertyNames()) {
+                    values.put(key, properties.getProperty(key));
+                }
+                state = new SimpleStateMap(0, values);
+            } else {
+                state = new SimpleStateMap(-1, Collections.emptyMap());
+            }
+        }
+
+        @Override
+        synchronized StateMap getState() {
+            return state;
+        }
+
+        @Override
+        synchronized void setState(final Map<String, String> newState) throws IOException {
+            final Properties properties = new Properties();
+            properties.putAll(newState);
+            final File tempFile = new File(file.getPath() + ".tmp");
+            try (final FileOutputStream out = new FileOutputStream(tempFile)) {
+                properties.store(out, null);
+                out.getFD().sync();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            state = new SimpleStateMap(state.getVersion() + 1, new HashMap<>(newState));
+        }
+
+        @Override
+        synchronized boolean replace(final StateMap oldState, final Map<String, String> newState) throws IOException {
+            if (oldState.getVersion() != state.getVersion()) {
+                return false;
+            }
+            setState(newState);
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "LocalFileStore{file=" + file + "}";
+        }
+    }
+
+    /**
+     * Stores the state in a Pravega stream with a StateSynchronizer.
+     * setState and replace write the whole state, while put only writes one entry.
+     * The stream is compacted when it has grown past COMPACTION_BYTES. Only the entries accepted by retainKey are kept.
+     */
+    static class SynchronizerStore extends CheckpointStore {
+        static final long COMPACTION_BYTES = 1024 * 1024;
+
+        private final ComponentLog logger;
+        private final String scope;
+        private final String streamName;
+        private final SynchronizerClientFactory clientFactory;
+        private final StateSynchronizer<SynchronizedState> synchronizer;
+        private final Predicate<String> retainKey;
+
+        SynchronizerStore(final ComponentLog logger, final ClientConfig clientConfig, final String scope, final String streamName,
+                          final boolean createScope) {
+            this(logger, clientConfig, scope, streamName, createScope, key -> true);
+        }
+
+        SynchronizerStore(final ComponentLog logger, final ClientConfig clientConfig, final String scope, final String streamName,
+                          final boolean createScope, final Predicate<String> retainKey) {
+            this.logger = logger;
+            this.retainKey = retainKey;
+            this.scope = scope;
+            this.streamName = streamName;
+            try (final StreamManager streamManager = StreamManager.create(clientConfig)) {
+                if (createScope) {
+                    streamManager.createScope(scope);
+                }
+                streamManager.createStream(scope, streamName, StreamConfiguration.builder()
+                        .scalingPolicy(ScalingPolicy.fixed(1))
+                        .build());
+            }
+            clientFactory = SynchronizerClientFactory.withScope(scope, clientConfig);
+            try {
+                synchronizer = clientFactory.createStateSynchronizer(streamName,
+                        new JavaSerializer<StoreUpdate>(), new JavaSerializer<StateUpdate>(), SynchronizerConfig.builder().build());
+                synchronizer.initialize(new StateUpdate(Collections.emptyMap(), -1));
+            } catch (final RuntimeException e) {
+                clientFactory.close();
+                throw e;
+            }
+            logger.debug("SynchronizerStore: using stream {}/{}", new Object[]{scope, streamName});
+        }
+
+        @Override
+        synchronized StateMap getState() {
+            synchronizer.fetchUpdates();
+            return synchronizer.getState().toStateMap();
+        }
+
+        @Override
+        synchronized void setState(final Map<String, String> newState) {
+            synchronizer.updateState((state, updates) -> {
+                updates.add(new StateUpdate(newState, state.version + 1));
+            });
+            compactIfNeeded();
+        }
+
+        @Override
+        synchronized boolean replace(final StateMap oldState, final Map<String, String> newState) {
+            final boolean replaced = synchronizer.updateState((state, updates) -> {
+                if (state.version != oldState.getVersion()) {
+                    return false;
+                }
+                updates.add(new StateUpdate(newState, state.version + 1));
+                return true;
+            });
+            compactIfNeeded();
+            return replaced;
+        }
+
+        /**
+         * Adds or replaces one entry without writing the rest of the state.
+         */
+        synchronized void put(final String key, final String value) {
+            synchronizer.updateState((state, updates) -> {
+                updates.add(new PutUpdate(key, value, state.version + 1));
+            });
+            compactIfNeeded();
+        }
+
+        private void compactIfNeeded() {
+            if (synchronizer.bytesWrittenSinceCompaction() > COMPACTION_BYTES) {
+                logger.debug("SynchronizerStore: compacting stream {}/{}", new Object[]{scope, streamName});
+                synchronizer.compact(state -> {
+                    final Map<String, String> retained = new HashMap<>();
+                    for (final Map.Entry<String, String> entry : state.values.entrySet()) {
+                        if (retainKey.test(entry.getKey())) {
+                            retained.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    return new StateUpdate(retained, state.version);
+                });
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            synchronizer.close();
+            clientFactory.close();
+        }
+
+        @Override
+        public String toString() {
+            return "SynchronizerStore{stream=" + scope + "/" + streamName + "}";
+        }
+    }
+
+    static class SynchronizedState implements Revisioned {
+        private final String scopedStreamName;
+        private final Revision revision;
+        private final long version;
+        private final Map<String, String> values;
+
+        SynchronizedState(final String scopedStreamName, final Revision revision, final long version, final Map<String, String> values) {
+            this.scopedStreamName = scopedStreamName;
+            this.revision = revision;
+            this.version = version;
+            this.values = values;
+        }
+
+        @Override
+        public String getScopedStreamName() {
+            return scopedStreamName;
+        }
+
+        @Override
+        public Revision getRevision() {
+            return revision;
+        }
+
+        StateMap toStateMap() {
+            return new SimpleStateMap(version, values);
+        }
+    }
+
+    /**
+     * An update that is written to the stream of a SynchronizerStore.
+     */
+    interface StoreUpdate extends Update<SynchronizedState>, Serializable {
+    }
+
+    /**
+     * Replaces the whole state. This is also the initial update and the result of compaction.
+     */
+    static class StateUpdate implements InitialUpdate<SynchronizedState>, StoreUpdate {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, String> values;
+        private final long version;
+
+        StateUpdate(final Map<String, String> values, final long version) {
+            this.values = new HashMap<>(values);
+            this.version = version;
+        }
+
+        @Override
+        public SynchronizedState create(final String scopedStreamName, final Revision revision) {
+            return new SynchronizedState(scopedStreamName, revision, version, Collections.unmodifiableMap(values));
+        }
+    }
+
+    /**
+     * Adds or replaces one entry.
+     */
+    static class PutUpdate implements StoreUpdate {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final String value;
+        private final long version;
+
+        PutUpdate(final String key, final String value, final long version) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+        }
+
+        @Override
+        public SynchronizedState applyTo(final SynchronizedState oldState, final Revision newRevision) {
+            final Map<String, String> values = new HashMap<>(oldState.values);
+            values.put(key, value);
+            return new SynchronizedState(oldState.getScopedStreamName(), newRevision, version, Collections.unmodifiableMap(values));
+        }
+    }
+}
@@ -24,31 +24,56 @@ import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.annotation.lifecycle.OnUnscheduled;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
 import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
 import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.*;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Tags({"Pravega", "Nautilus", "Get", "Ingest", "Ingress", "Receive", "Consume", "Subscribe", "Stream"})
 @CapabilityDescription("Consumes events from Pravega.")
 @WritesAttributes({
-        @WritesAttribute(attribute = ConsumePravega.ATTR_EVENT_POINTER, description = "A string identifying the location of the event in the stream"),
+        @WritesAttribute(attribute = ConsumePravega.ATTR_EVENT_POINTER, description = "A string identifying the location of the event in the stream. "
+                + "In batch output mode, this is the location of the first event in the FlowFile."),
+        @WritesAttribute(attribute = ConsumePravega.ATTR_EVENT_COUNT, description = "The number of events in the FlowFile. Only written in batch output mode."),
 })
 @InputRequirement(InputRequirement.Requirement.INPUT_FORBIDDEN)
-@Stateful(scopes = Scope.CLUSTER, description =
+@Stateful(scopes = {Scope.CLUSTER, Scope.LOCAL}, description =
         "This processor stores the most recent successful checkpoint in the cluster state to allow it to resume when restarting the processor or node."
         + "It also stores the Pravega reader group name to allow other readers to join the reader group. "
+        + "In stream cut progress mode, it stores the most recent stream cuts and the acknowledgements of each node instead. "
+        + "The Checkpoint Store property can move this state to a local file or a Pravega stream. "
+        + "The local state of each node stores a generated identifier of the node. "
         + "The state must be cleared in order for any change in the set of streams to become effective.")
 @SeeAlso({PublishPravega.class})
 public class ConsumePravega extends AbstractPravegaProcessor {
 
     static final String ATTR_EVENT_POINTER = "pravega.event.pointer";
+    static final String LOCAL_STATE_KEY_NODE_ID = "node.id";
+    static final String ATTR_EVENT_COUNT = "pravega.event.count";
 
     static final AllowableValue STREAM_CUT_EARLIEST = new AllowableValue(
             "earliest",
@@ -58,16 +83,158 @@ public class ConsumePravega extends AbstractPravegaProcessor {
             "latest",
             "latest",
             "Start at the latest event (tail)");
+    static final AllowableValue STREAM_CUT_TIMESTAMP = new AllowableValue(
+            "timestamp",
+            "timestamp",
+            "Start at the latest stream cut in the stream cut catalog that was sampled at or before the Start Time. "
+                    + "If the catalog has no such stream cut, start at the earliest available event.");
     static final PropertyDescriptor PROP_STREAM_CUT_METHOD = new PropertyDescriptor.Builder()
             .name("stream.cut.method")
             .displayName("Start From")
             .description("If there is not a checkpoint saved in the state of this processor, then this specifies where to start from. "
                     + "You must clear the state for changes to this property to take effect.")
             .required(true)
-            .allowableValues(STREAM_CUT_EARLIEST, STREAM_CUT_LATEST)
+            .allowableValues(STREAM_CUT_EARLIEST, STREAM_CUT_LATEST, STREAM_CUT_TIMESTAMP)
             .defaultValue(STREAM_CUT_LATEST.getValue())
             .build();
 
+    static final Validator START_TIME_VALIDATOR = new Validator() {
+        @Override
+        public ValidationResult validate(String subject, String input, ValidationContext context) {
+            try {
+                parseStartTime(input);
+            } catch (RuntimeException e) {
+                return new ValidationResult.Builder().subject(subject).input(input).valid(false)
+                        .explanation("it is not an ISO 8601 instant or a number of milliseconds since the epoch.").build();
+            }
+            return new ValidationResult.Builder().subject(subject).input(input).valid(true).build();
+        }
+    };
+
+    static final PropertyDescriptor PROP_START_TIME = new PropertyDescriptor.Builder()
+            .name("stream.cut.start.time")
+            .displayName("Start Time")
+            .description("If Start From is timestamp, the time at which to start, as an ISO 8601 instant (e.g. 2020-01-31T14:00:00Z) "
+                    + "or a number of milliseconds since the epoch. "
+                    + "Events written up to one Stream Cut Catalog Interval before this time may also be read.")
+            .required(false)
+            .addValidator(START_TIME_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor PROP_STREAM_CUT_CATALOG_INTERVAL = new PropertyDescriptor.Builder()
+            .name("stream.cut.catalog.interval")
+            .displayName("Stream Cut Catalog Interval")
+            .description("If greater than 0, the primary node adds the tail stream cut of each stream to a stream cut catalog at this interval. "
+                    + "The catalog is stored in a stream named after the indexed stream with the suffix " + StreamCutCatalog.STREAM_NAME_SUFFIX
+                    + " and is shared by all processors that read the stream. "
+                    + "It allows a processor to start at a given time with Start From set to timestamp.")
+            .required(true)
+            .defaultValue("0 secs")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor PROP_STREAM_CUT_CATALOG_MAX_AGE = new PropertyDescriptor.Builder()
+            .name("stream.cut.catalog.max.age")
+            .displayName("Stream Cut Catalog Max Age")
+            .description("Stream cuts older than this are removed from the stream cut catalog when its stream is compacted.")
+            .required(true)
+            .defaultValue("7 days")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    static final AllowableValue DELIVERY_MODE_CHECKPOINT = new AllowableValue(
+            "checkpoint",
+            "Checkpoint",
+            "Sessions are committed when the reader group reaches a checkpoint. "
+                    + "FlowFiles are delayed by up to the Checkpoint Period.");
+    static final AllowableValue DELIVERY_MODE_LOW_LATENCY = new AllowableValue(
+            "low-latency",
+            "Low Latency",
+            "Sessions are also committed when they reach the Commit Max Events or Commit Max Latency, "
+                    + "without waiting for a checkpoint. After a crash, the events committed since the last checkpoint are read again; "
+                    + "those that are read again on the same node are skipped using the event pointer log.");
+    static final PropertyDescriptor PROP_DELIVERY_MODE = new PropertyDescriptor.Builder()
+            .name("delivery.mode")
+            .displayName("Delivery Mode")
+            .description("Specifies when FlowFiles are committed and become visible to the success relationship.")
+            .required(true)
+            .allowableValues(DELIVERY_MODE_CHECKPOINT, DELIVERY_MODE_LOW_LATENCY)
+            .defaultValue(DELIVERY_MODE_CHECKPOINT.getValue())
+            .build();
+
+    static final AllowableValue PROGRESS_MODE_CHECKPOINT = new AllowableValue(
+            "checkpoint",
+            "Checkpoint",
+            "The primary node periodically starts a reader group checkpoint. Each reader commits its session when it reaches "
+                    + "the checkpoint, so the checkpoint completes when the slowest reader has committed.");
+    static final AllowableValue PROGRESS_MODE_STREAM_CUT = new AllowableValue(
+            "stream-cut",
+            "Stream Cut",
+            "The primary node periodically generates stream cuts, which readers answer without stopping. "
+                    + "Sessions are committed according to Commit Max Events and Commit Max Latency. "
+                    + "The stream cuts are saved in the state once every node has committed the events read before them. "
+                    + "When a node starts, the reader group is reset to the saved stream cuts, so events may be read again by every node. "
+                    + "Prefetch Events is ignored and the Delivery Mode only determines whether the event pointer log is used. "
+                    + "A checkpoint is still used when the processor is stopped.");
+    static final PropertyDescriptor PROP_PROGRESS_MODE = new PropertyDescriptor.Builder()
+            .name("progress.mode")
+            .displayName("Progress Mode")
+            .description("Specifies how the position of the reader group is saved in the state.")
+            .required(true)
+            .allowableValues(PROGRESS_MODE_CHECKPOINT, PROGRESS_MODE_STREAM_CUT)
+            .defaultValue(PROGRESS_MODE_CHECKPOINT.getValue())
+            .build();
+
+    static final PropertyDescriptor PROP_COMMIT_MAX_EVENTS = new PropertyDescriptor.Builder()
+            .name("commit.max.events")
+            .displayName("Commit Max Events")
+            .description("In low-latency delivery mode or stream cut progress mode, the session is committed when it has this many events.")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1000")
+            .build();
+
+    static final PropertyDescriptor PROP_COMMIT_MAX_LATENCY = new PropertyDescriptor.Builder()
+            .name("commit.max.latency")
+            .displayName("Commit Max Latency")
+            .description("In low-latency delivery mode or stream cut progress mode, the session is committed when its first event was read this long ago.")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .defaultValue("20 ms")
+            .build();
+
+    static final PropertyDescriptor PROP_POINTER_LOG_DIRECTORY = new PropertyDescriptor.Builder()
+            .name("event.pointer.log.directory")
+            .displayName("Event Pointer Log Directory")
+            .description("In low-latency delivery mode, the pointers of the events committed since the last checkpoint "
+                    + "are logged to a file in this directory on each node. The file is named after the processor identifier. "
+                    + "It is truncated when a checkpoint is saved and deleted when a new reader group is created.")
+            .required(true)
+            .addValidator(StandardValidators.createDirectoryExistsValidator(false, true))
+            .defaultValue("./state/pravega")
+            .build();
+
+    static final PropertyDescriptor PROP_CHECKPOINT_STORE = new PropertyDescriptor.Builder()
+            .name("checkpoint.store")
+            .displayName("Checkpoint Store")
+            .description("Where the reader group name and its checkpoints or stream cuts are stored. "
+                    + "The stores other than the cluster state are not cleared when the state of the processor is cleared.")
+            .required(true)
+            .allowableValues(CheckpointStore.CHECKPOINT_STORE_CLUSTER_STATE, CheckpointStore.CHECKPOINT_STORE_LOCAL_FILE,
+                    CheckpointStore.CHECKPOINT_STORE_PRAVEGA)
+            .defaultValue(CheckpointStore.CHECKPOINT_STORE_CLUSTER_STATE.getValue())
+            .build();
+
+    static final PropertyDescriptor PROP_CHECKPOINT_STORE_DIRECTORY = new PropertyDescriptor.Builder()
+            .name("checkpoint.store.directory")
+            .displayName("Checkpoint Store Directory")
+            .description("If the Checkpoint Store is a local file, the state is stored in a file in this directory. "
+                    + "The file is named after the processor identifier.")
+            .required(true)
+            .addValidator(StandardValidators.createDirectoryExistsValidator(false, true))
+            .defaultValue("./state/pravega")
+            .build();
+
     static final PropertyDescriptor PROP_CHECKPOINT_PERIOD = new PropertyDescriptor.Builder()
             .name("checkpoint.period")
             .displayName("Checkpoint Period")
@@ -79,6 +246,37 @@ public class ConsumePravega extends AbstractPravegaProcessor {
             .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
             .build();
 
+    static final PropertyDescriptor PROP_CHECKPOINT_PERIOD_ADAPTIVE = new PropertyDescriptor.Builder()
+            .name("checkpoint.period.adaptive")
+            .displayName("Adaptive Checkpoint Period")
+            .description("If true, the checkpoint period is adapted to the load of the primary node. "
+                    + "It is shortened when the uncommitted events approach the Session Max Events or Session Max Size, "
+                    + "lengthened when no events are read, and otherwise moved back toward the Checkpoint Period. "
+                    + "It is kept between the Minimum and Maximum Checkpoint Period and at least twice the latency of the last checkpoint. "
+                    + "The latency and period are reported in the processor counters and the state.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .build();
+
+    static final PropertyDescriptor PROP_CHECKPOINT_PERIOD_MIN = new PropertyDescriptor.Builder()
+            .name("checkpoint.period.min")
+            .displayName("Minimum Checkpoint Period")
+            .description("The shortest checkpoint period when Adaptive Checkpoint Period is true.")
+            .required(true)
+            .defaultValue("200 millis")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor PROP_CHECKPOINT_PERIOD_MAX = new PropertyDescriptor.Builder()
+            .name("checkpoint.period.max")
+            .displayName("Maximum Checkpoint Period")
+            .description("The longest checkpoint period when Adaptive Checkpoint Period is true.")
+            .required(true)
+            .defaultValue("10 secs")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
     static final PropertyDescriptor PROP_CHECKPOINT_TIMEOUT = new PropertyDescriptor.Builder()
             .name("checkpoint.timeout")
             .displayName("Checkpoint Timeout")
@@ -89,6 +287,30 @@ public class ConsumePravega extends AbstractPravegaProcessor {
             .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
             .build();
 
+    static final PropertyDescriptor PROP_STATE_CHUNK_SIZE = new PropertyDescriptor.Builder()
+            .name("checkpoint.state.chunk.size")
+            .displayName("Checkpoint State Chunk Size")
+            .description("Checkpoints are compressed before they are written to the state, and they are only written when the position "
+                    + "of a reader has changed. If this is greater than 0 B, the compressed checkpoint is split into state values of at most this size. "
+                    + "This can be used to remain within the value size limits of the state provider for streams with many segments.")
+            .required(true)
+            .defaultValue("0 B")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor PROP_TIMEOUT_REPLAY_EVENTS = new PropertyDescriptor.Builder()
+            .name("checkpoint.timeout.replay.events")
+            .displayName("Checkpoint Timeout Replay Events")
+            .description("When a reader does not receive a checkpoint within the Checkpoint Timeout, its session is rolled back. "
+                    + "If the session has at most this many events, they are kept in memory and added to the next session "
+                    + "so that the reader can continue from its current position. Otherwise, the reader is closed and a new "
+                    + "reader is created, which causes the segments of the reader group to be reassigned. "
+                    + "Readers are always recreated when the reader group requires it. Set to 0 to always recreate the reader.")
+            .required(true)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .defaultValue("10000")
+            .build();
+
     static final PropertyDescriptor PROP_STOP_TIMEOUT = new PropertyDescriptor.Builder()
             .name("stop.timeout")
             .displayName("Stop Timeout")
@@ -112,6 +334,128 @@ public class ConsumePravega extends AbstractPravegaProcessor {
             .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
             .build();
 
+    static final PropertyDescriptor PROP_SESSION_MAX_EVENTS = new PropertyDescriptor.Builder()
+            .name("session.max.events")
+            .displayName("Max Uncommitted Events")
+            .description("The maximum number of events that each concurrent task adds to its session before the session is committed. "
+                    + "When this is reached, the task stops reading until the next checkpoint (or commits immediately in low-latency "
+                    + "delivery mode). The number of times this happens is reported in the '" + ConsumerLease.COUNTER_SESSION_FULL
+                    + "' counter. If the task reads as many events again before the checkpoint, it rolls back the session and releases "
+                    + "its segments so that these events are read again. The current number of uncommitted events and bytes are reported "
+                    + "in the '" + ConsumerPool.COUNTER_UNCOMMITTED_EVENTS + "' and '" + ConsumerPool.COUNTER_UNCOMMITTED_BYTES
+                    + "' counters. Set to 0 for no limit.")
+            .required(true)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .defaultValue("100000")
+            .build();
+
+    static final PropertyDescriptor PROP_SESSION_MAX_SIZE = new PropertyDescriptor.Builder()
+            .name("session.max.size")
+            .displayName("Max Uncommitted Size")
+            .description("The maximum number of event bytes that each concurrent task adds to its session before the session is committed. "
+                    + "This behaves like Max Uncommitted Events. Set to 0 B for no limit.")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .defaultValue("1 GB")
+            .build();
+
+    static final PropertyDescriptor PROP_PREFETCH_EVENTS = new PropertyDescriptor.Builder()
+            .name("prefetch.events")
+            .displayName("Prefetch Events")
+            .description("If greater than 0, each Pravega reader reads events on a dedicated thread into a buffer of this many events. "
+                    + "The processor then only waits for events when it must reach a checkpoint, "
+                    + "instead of blocking the NiFi thread while the stream is idle. "
+                    + "A reader stops at each checkpoint until the preceding events have been committed.")
+            .required(true)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .defaultValue("0")
+            .build();
+
+    static final PropertyDescriptor PROP_DYNAMIC_READER_COUNT = new PropertyDescriptor.Builder()
+            .name("reader.count.dynamic")
+            .displayName("Dynamic Reader Count")
+            .description("If true, each node will not use more readers than its share of the stream segments. "
+                    + "This share is scaled by the unread bytes of the reader group relative to the Reader Lag Threshold. "
+                    + "Idle readers above this number are closed and new readers are created when the lag grows. "
+                    + "If false, a reader is created for each concurrent task.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .build();
+
+    static final PropertyDescriptor PROP_READER_LAG_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("reader.lag.threshold")
+            .displayName("Reader Lag Threshold")
+            .description("When Dynamic Reader Count is enabled, the number of unread bytes in the reader group "
+                    + "at which each node will use its full share of readers.")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .defaultValue("10 MB")
+            .build();
+
+    static final PropertyDescriptor PROP_IDLE_HELD_EVENTS = new PropertyDescriptor.Builder()
+            .name("idle.held.events")
+            .displayName("Idle Reader Held Events")
+            .description("When the success relationship is backpressured, onTrigger is not called and the readers of this node "
+                    + "would not acknowledge checkpoints, causing the checkpoints of the whole reader group to time out. "
+                    + "If greater than 0, idle readers answer checkpoints on a background thread without writing FlowFiles. "
+                    + "Events read while looking for a checkpoint are held in memory, up to this many per reader, until onTrigger "
+                    + "is called again. A checkpoint behind held events cannot be acknowledged, so the reader then releases its "
+                    + "segments at its last committed position and the held events are read again by other readers. "
+                    + "The same happens when the limit is reached and a checkpoint may be pending. Set to 0 to disable.")
+            .required(true)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .defaultValue("1000")
+            .build();
+
+    static final PropertyDescriptor PROP_OUTPUT_MODE = new PropertyDescriptor.Builder()
+            .name("output.mode")
+            .displayName("Output Mode")
+            .description("Specifies whether each event is written to its own FlowFile or multiple events are written to a single FlowFile. "
+                    + "Batching avoids the per-FlowFile overhead of NiFi for small events.")
+            .required(true)
+            .allowableValues(EventOutput.OUTPUT_MODE_FLOWFILE_PER_EVENT, EventOutput.OUTPUT_MODE_BATCH)
+            .defaultValue(EventOutput.OUTPUT_MODE_FLOWFILE_PER_EVENT.getValue())
+            .build();
+
+    static final PropertyDescriptor PROP_MAX_EVENTS_PER_FLOWFILE = new PropertyDescriptor.Builder()
+            .name("batch.max.events")
+            .displayName("Max Events per FlowFile")
+            .description("In batch output mode, the maximum number of events that will be written to a single FlowFile.")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("10000")
+            .build();
+
+    static final PropertyDescriptor PROP_MAX_FLOWFILE_SIZE = new PropertyDescriptor.Builder()
+            .name("batch.max.size")
+            .displayName("Max FlowFile Size")
+            .description("In batch output mode, a FlowFile will not exceed this size unless it contains a single event that is larger. "
+                    + "Events are buffered in memory until the FlowFile is written.")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .defaultValue("10 MB")
+            .build();
+
+    static final PropertyDescriptor PROP_FRAMING = new PropertyDescriptor.Builder()
+            .name("batch.framing")
+            .displayName("Framing")
+            .description("In batch output mode, specifies how events are separated within a FlowFile.")
+            .required(true)
+            .allowableValues(EventOutput.FRAMING_DEMARCATOR, EventOutput.FRAMING_LENGTH_PREFIXED)
+            .defaultValue(EventOutput.FRAMING_DEMARCATOR.getValue())
+            .build();
+
+    static final PropertyDescriptor PROP_DEMARCATOR = new PropertyDescriptor.Builder()
+            .name("batch.demarcator")
+            .displayName("Demarcator")
+            .description("In batch output mode with the demarcator framing, this is placed between events. "
+                    + "The escape sequences \\n, \\r and \\t may be used for a new line, carriage return and tab.")
+            .required(true)
+            .addValidator(Validator.VALID)
+            .defaultValue("\\n")
+            .build();
+
     static final Relationship REL_SUCCESS = new Relationship.Builder()
             .name("success")
             .description("FlowFiles received from Pravega.")
@@ -125,14 +469,51 @@ public class ConsumePravega extends AbstractPravegaProcessor {
     static {
         final List<PropertyDescriptor> descriptors = getAbstractPropertyDescriptors();
         descriptors.add(PROP_STREAM_CUT_METHOD);
+        descriptors.add(PROP_START_TIME);
+        descriptors.add(PROP_STREAM_CUT_CATALOG_INTERVAL);
+        descriptors.add(PROP_STREAM_CUT_CATALOG_MAX_AGE);
         descriptors.add(PROP_CHECKPOINT_PERIOD);
+        descriptors.add(PROP_CHECKPOINT_PERIOD_ADAPTIVE);
+        descriptors.add(PROP_CHECKPOINT_PERIOD_MIN);
+        descriptors.add(PROP_CHECKPOINT_PERIOD_MAX);
         descriptors.add(PROP_CHECKPOINT_TIMEOUT);
+        descriptors.add(PROP_STATE_CHUNK_SIZE);
+        descriptors.add(PROP_CHECKPOINT_STORE);
+        descriptors.add(PROP_CHECKPOINT_STORE_DIRECTORY);
+        descriptors.add(PROP_TIMEOUT_REPLAY_EVENTS);
         descriptors.add(PROP_STOP_TIMEOUT);
         descriptors.add(PROP_MINIMUM_PROCESSING_TIME);
+        descriptors.add(PROP_DELIVERY_MODE);
+        descriptors.add(PROP_PROGRESS_MODE);
+        descriptors.add(PROP_COMMIT_MAX_EVENTS);
+        descriptors.add(PROP_COMMIT_MAX_LATENCY);
+        descriptors.add(PROP_POINTER_LOG_DIRECTORY);
+        descriptors.add(PROP_SESSION_MAX_EVENTS);
+        descriptors.add(PROP_SESSION_MAX_SIZE);
+        descriptors.add(PROP_PREFETCH_EVENTS);
+        descriptors.add(PROP_DYNAMIC_READER_COUNT);
+        descriptors.add(PROP_READER_LAG_THRESHOLD);
+        descriptors.add(PROP_IDLE_HELD_EVENTS);
+        descriptors.add(PROP_OUTPUT_MODE);
+        descriptors.add(PROP_MAX_EVENTS_PER_FLOWFILE);
+        descriptors.add(PROP_MAX_FLOWFILE_SIZE);
+        descriptors.add(PROP_FRAMING);
+        descriptors.add(PROP_DEMARCATOR);
         DESCRIPTORS = Collections.unmodifiableList(descriptors);
         RELATIONSHIPS = Collections.singleton(REL_SUCCESS);
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        final List<ValidationResult> results = new ArrayList<>();
+        if (STREAM_CUT_TIMESTAMP.getValue().equals(validationContext.getProperty(PROP_STREAM_CUT_METHOD).getValue())
+                && !validationContext.getProperty(PROP_START_TIME).isSet()) {
+            results.add(new ValidationResult.Builder().subject(PROP_START_TIME.getDisplayName()).valid(false)
+                    .explanation("it is required when Start From is timestamp.").build());
+        }
+        return results;
+    }
+
     @Override
     public Set<Relationship> getRelationships() {
         return RELATIONSHIPS;
@@ -190,28 +571,145 @@ public class ConsumePravega extends AbstractPravegaProcessor {
         final StreamConfiguration streamConfig = getStreamConfiguration(context);
         final int maxConcurrentLeases = context.getMaxConcurrentTasks();
         final long checkpointPeriodMs = context.getProperty(PROP_CHECKPOINT_PERIOD).asTimePeriod(TimeUnit.MILLISECONDS);
+        final boolean adaptiveCheckpointPeriod = context.getProperty(PROP_CHECKPOINT_PERIOD_ADAPTIVE).asBoolean();
+        final long minCheckpointPeriodMs = context.getProperty(PROP_CHECKPOINT_PERIOD_MIN).asTimePeriod(TimeUnit.MILLISECONDS);
+        final long maxCheckpointPeriodMs = Math.max(minCheckpointPeriodMs, context.getProperty(PROP_CHECKPOINT_PERIOD_MAX).asTimePeriod(TimeUnit.MILLISECONDS));
         final long checkpointTimeoutMs = context.getProperty(PROP_CHECKPOINT_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+        final int stateChunkSize = context.getProperty(PROP_STATE_CHUNK_SIZE).asDataSize(DataUnit.B).intValue();
+        final int maxReplayEvents = context.getProperty(PROP_TIMEOUT_REPLAY_EVENTS).asInteger();
         final long gracefulShutdownTimeoutMs = context.getProperty(PROP_STOP_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
         final long minimumProcessingTimeMs = context.getProperty(PROP_MINIMUM_PROCESSING_TIME).asTimePeriod(TimeUnit.MILLISECONDS);
         final String streamCutMethod = context.getProperty(PROP_STREAM_CUT_METHOD).getValue();
+        final long startTimeMs = context.getProperty(PROP_START_TIME).isSet() ? parseStartTime(context.getProperty(PROP_START_TIME).getValue()) : -1;
+        final long streamCutCatalogIntervalMs = context.getProperty(PROP_STREAM_CUT_CATALOG_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+        final long streamCutCatalogMaxAgeMs = context.getProperty(PROP_STREAM_CUT_CATALOG_MAX_AGE).asTimePeriod(TimeUnit.MILLISECONDS);
+        final int prefetchCapacity = context.getProperty(PROP_PREFETCH_EVENTS).asInteger();
+        final boolean dynamicReaderCount = context.getProperty(PROP_DYNAMIC_READER_COUNT).asBoolean();
+        final long readerLagThresholdBytes = context.getProperty(PROP_READER_LAG_THRESHOLD).asDataSize(DataUnit.B).longValue();
+        final int idleHeldEvents = context.getProperty(PROP_IDLE_HELD_EVENTS).asInteger();
+        final boolean lowLatency = DELIVERY_MODE_LOW_LATENCY.getValue().equals(context.getProperty(PROP_DELIVERY_MODE).getValue());
+        final File pointerLogFile = lowLatency
+                ? new File(context.getProperty(PROP_POINTER_LOG_DIRECTORY).getValue(), getIdentifier() + ".pointers")
+                : null;
+        final int commitMaxEvents = context.getProperty(PROP_COMMIT_MAX_EVENTS).asInteger();
+        final long commitMaxLatencyMs = context.getProperty(PROP_COMMIT_MAX_LATENCY).asTimePeriod(TimeUnit.MILLISECONDS);
+        final int maxSessionEvents = context.getProperty(PROP_SESSION_MAX_EVENTS).asInteger();
+        final long maxSessionBytes = context.getProperty(PROP_SESSION_MAX_SIZE).asDataSize(DataUnit.B).longValue();
+        final boolean useStreamCuts = PROGRESS_MODE_STREAM_CUT.getValue().equals(context.getProperty(PROP_PROGRESS_MODE).getValue());
         final boolean createScope = new Boolean(context.getProperty(PROP_CREATE_SCOPE).getValue()).booleanValue();
-        return new ConsumerPool(
-                log,
-                context.getStateManager(),
-                sessionFactory,
-                this::isPrimaryNode,
-                maxConcurrentLeases,
-                checkpointPeriodMs,
-                checkpointTimeoutMs,
-                gracefulShutdownTimeoutMs,
-                minimumProcessingTimeMs,
-                clientConfig,
-                streams,
-                streamConfig,
-                streamCutMethod,
-                null,
-                null,
-                createScope);
+        final String nodeId = getNodeId(context.getStateManager());
+        final CheckpointStore checkpointStore = createCheckpointStore(context, log, clientConfig, streams, createScope);
+        try {
+            return new ConsumerPool(
+                    log,
+                    checkpointStore,
+                    sessionFactory,
+                    this::isPrimaryNode,
+                    nodeId,
+                    maxConcurrentLeases,
+                    checkpointPeriodMs,
+                    checkpointTimeoutMs,
+                    maxReplayEvents,
+                    gracefulShutdownTimeoutMs,
+                    minimumProcessingTimeMs,
+                    clientConfig,
+                    streams,
+                    streamConfig,
+                    streamCutMethod,
+                    getRecordReaderFactory(context),
+                    getRecordSetWriterFactory(context),
+                    getOutputFactory(context, log, clientConfig),
+                    prefetchCapacity,
+                    dynamicReaderCount,
+                    readerLagThresholdBytes,
+                    idleHeldEvents,
+                    pointerLogFile,
+                    commitMaxEvents,
+                    commitMaxLatencyMs,
+                    maxSessionEvents,
+                    maxSessionBytes,
+                    useStreamCuts,
+                    stateChunkSize,
+                    startTimeMs,
+                    streamCutCatalogIntervalMs,
+                    streamCutCatalogMaxAgeMs,
+                    adaptiveCheckpointPeriod,
+                    minCheckpointPeriodMs,
+                    maxCheckpointPeriodMs,
+                    createScope);
+        } catch (final Exception e) {
+            checkpointStore.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the identifier of this NiFi node. It is generated when the processor first starts on the node
+     * and kept in the local state, so that it is unique in the cluster and stable across restarts.
+     */
+    static String getNodeId(final StateManager stateManager) throws IOException {
+        final StateMap localState = stateManager.getState(Scope.LOCAL);
+        final String storedNodeId = localState.get(LOCAL_STATE_KEY_NODE_ID);
+        if (storedNodeId != null) {
+            return storedNodeId;
+        }
+        final String nodeId = UUID.randomUUID().toString().replace("-", "");
+        final Map<String, String> newState = new HashMap<>(localState.toMap());
+        newState.put(LOCAL_STATE_KEY_NODE_ID, nodeId);
+        stateManager.setState(newState, Scope.LOCAL);
+        return nodeId;
+    }
+
+    protected CheckpointStore createCheckpointStore(final ProcessContext context, final ComponentLog log, final ClientConfig clientConfig,
+                                                    final List<Stream> streams, final boolean createScope) throws Exception {
+        final String store = context.getProperty(PROP_CHECKPOINT_STORE).getValue();
+        if (CheckpointStore.CHECKPOINT_STORE_LOCAL_FILE.getValue().equals(store)) {
+            if (getNodeTypeProvider().isClustered()) {
+                throw new ProcessException("The local file checkpoint store cannot be used in a cluster.");
+            }
+            return new CheckpointStore.LocalFileStore(
+                    new File(context.getProperty(PROP_CHECKPOINT_STORE_DIRECTORY).getValue(), getIdentifier() + ".checkpoint"));
+        } else if (CheckpointStore.CHECKPOINT_STORE_PRAVEGA.getValue().equals(store)) {
+            return new CheckpointStore.SynchronizerStore(log, clientConfig, streams.get(0).getScope(),
+                    "nifi-checkpoint-" + getIdentifier(), createScope);
+        } else {
+            return new CheckpointStore.ClusterStateStore(context.getStateManager());
+        }
+    }
+
+    protected RecordReaderFactory getRecordReaderFactory(final ProcessContext context) {
+        return null;
+    }
+
+    protected RecordSetWriterFactory getRecordSetWriterFactory(final ProcessContext context) {
+        return null;
+    }
+
+    /**
+     * Returns a factory for the EventOutput of each lease.
+     */
+    protected Supplier<EventOutput> getOutputFactory(final ProcessContext context, final ComponentLog log, final ClientConfig clientConfig) {
+        final URI controllerURI = clientConfig.getControllerURI();
+        if (!EventOutput.OUTPUT_MODE_BATCH.getValue().equals(context.getProperty(PROP_OUTPUT_MODE).getValue())) {
+            return () -> new EventOutput.FlowFilePerEventOutput(log, controllerURI);
+        }
+        final int maxEvents = context.getProperty(PROP_MAX_EVENTS_PER_FLOWFILE).asInteger();
+        final long maxBytes = context.getProperty(PROP_MAX_FLOWFILE_SIZE).asDataSize(DataUnit.B).longValue();
+        final boolean lengthPrefixed = EventOutput.FRAMING_LENGTH_PREFIXED.getValue().equals(context.getProperty(PROP_FRAMING).getValue());
+        final byte[] demarcator = parseDemarcator(context.getProperty(PROP_DEMARCATOR).getValue());
+        return () -> new EventOutput.BatchOutput(log, controllerURI, maxEvents, maxBytes, lengthPrefixed, demarcator);
+    }
+
+    static long parseStartTime(final String value) {
+        final String trimmed = value.trim();
+        return !trimmed.isEmpty() && trimmed.chars().allMatch(Character::isDigit)
+                ? Long.parseLong(trimmed)
+                : Instant.parse(trimmed).toEpochMilli();
+    }
+
+    static byte[] parseDemarcator(final String value) {
+        return value.replace("\\n", "\n").replace("\\r", "\r").replace("\\t", "\t")
+                .getBytes(StandardCharsets.UTF_8);
     }
 
     @Override
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.ClientConfig;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.Stateful;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+@Tags({"Pravega", "Nautilus", "Get", "Ingest", "Ingress", "Receive", "Consume", "Subscribe", "Stream", "Record"})
+@CapabilityDescription("Consumes events from Pravega and parses each event with the configured Record Reader. "
+        + "The records read between two checkpoints are written to a single FlowFile for each schema using the configured Record Writer.")
+@WritesAttributes({
+        @WritesAttribute(attribute = ConsumePravega.ATTR_EVENT_POINTER, description = "A string identifying the location of the first event in the FlowFile"),
+        @WritesAttribute(attribute = ConsumePravega.ATTR_EVENT_COUNT, description = "The number of events in the FlowFile"),
+        @WritesAttribute(attribute = ConsumePravegaRecord.ATTR_RECORD_COUNT, description = "The number of records in the FlowFile"),
+        @WritesAttribute(attribute = "mime.type", description = "The MIME Type that is provided by the configured Record Writer"),
+})
+@InputRequirement(InputRequirement.Requirement.INPUT_FORBIDDEN)
+@Stateful(scopes = Scope.CLUSTER, description =
+        "This processor stores the most recent successful checkpoint in the cluster state to allow it to resume when restarting the processor or node."
+        + "It also stores the Pravega reader group name to allow other readers to join the reader group. "
+        + "The Checkpoint Store property can move this state to a local file or a Pravega stream. "
+        + "The state must be cleared in order for any change in the set of streams to become effective.")
+@SeeAlso({ConsumePravega.class, PublishPravegaRecord.class})
+public class ConsumePravegaRecord extends ConsumePravega {
+
+    static final String ATTR_RECORD_COUNT = "record.count";
+
+    static final PropertyDescriptor RECORD_READER = new PropertyDescriptor.Builder()
+            .name("record-reader")
+            .displayName("Record Reader")
+            .description("The Record Reader to use for parsing each event")
+            .identifiesControllerService(RecordReaderFactory.class)
+            .required(true)
+            .build();
+
+    static final PropertyDescriptor RECORD_WRITER = new PropertyDescriptor.Builder()
+            .name("record-writer")
+            .displayName("Record Writer")
+            .description("The Record Writer to use in order to serialize the records to the outgoing FlowFiles")
+            .identifiesControllerService(RecordSetWriterFactory.class)
+            .required(true)
+            .build();
+
+    static final Relationship REL_PARSE_FAILURE = new Relationship.Builder()
+            .name("parse.failure")
+            .description("Events that could not be parsed with the Record Reader. Each event is written to its own FlowFile as it was received.")
+            .build();
+
+    static final List<PropertyDescriptor> RECORD_DESCRIPTORS;
+    static final Set<Relationship> RECORD_RELATIONSHIPS;
+
+    static {
+        final List<PropertyDescriptor> descriptors = getAbstractPropertyDescriptors();
+        descriptors.add(RECORD_READER);
+        descriptors.add(RECORD_WRITER);
+        descriptors.add(PROP_STREAM_CUT_METHOD);
+        descriptors.add(PROP_START_TIME);
+        descriptors.add(PROP_STREAM_CUT_CATALOG_INTERVAL);
+        descriptors.add(PROP_STREAM_CUT_CATALOG_MAX_AGE);
+        descriptors.add(PROP_CHECKPOINT_PERIOD);
+        descriptors.add(PROP_CHECKPOINT_PERIOD_ADAPTIVE);
+        descriptors.add(PROP_CHECKPOINT_PERIOD_MIN);
+        descriptors.add(PROP_CHECKPOINT_PERIOD_MAX);
+        descriptors.add(PROP_CHECKPOINT_TIMEOUT);
+        descriptors.add(PROP_STATE_CHUNK_SIZE);
+        descriptors.add(PROP_CHECKPOINT_STORE);
+        descriptors.add(PROP_CHECKPOINT_STORE_DIRECTORY);
+        descriptors.add(PROP_TIMEOUT_REPLAY_EVENTS);
+        descriptors.add(PROP_STOP_TIMEOUT);
+        descriptors.add(PROP_MINIMUM_PROCESSING_TIME);
+        descriptors.add(PROP_DELIVERY_MODE);
+        descriptors.add(PROP_PROGRESS_MODE);
+        descriptors.add(PROP_COMMIT_MAX_EVENTS);
+        descriptors.add(PROP_COMMIT_MAX_LATENCY);
+        descriptors.add(PROP_POINTER_LOG_DIRECTORY);
+        descriptors.add(PROP_SESSION_MAX_EVENTS);
+        descriptors.add(PROP_SESSION_MAX_SIZE);
+        descriptors.add(PROP_PREFETCH_EVENTS);
+        descriptors.add(PROP_DYNAMIC_READER_COUNT);
+        descriptors.add(PROP_READER_LAG_THRESHOLD);
+        descriptors.add(PROP_IDLE_HELD_EVENTS);
+        RECORD_DESCRIPTORS = Collections.unmodifiableList(descriptors);
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(REL_SUCCESS);
+        relationships.add(REL_PARSE_FAILURE);
+        RECORD_RELATIONSHIPS = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return RECORD_RELATIONSHIPS;
+    }
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return RECORD_DESCRIPTORS;
+    }
+
+    @Override
+    protected RecordReaderFactory getRecordReaderFactory(final ProcessContext context) {
+        return context.getProperty(RECORD_READER).asControllerService(RecordReaderFactory.class);
+    }
+
+    @Override
+    protected RecordSetWriterFactory getRecordSetWriterFactory(final ProcessContext context) {
+        return context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+    }
+
+    @Override
+    protected Supplier<EventOutput> getOutputFactory(final ProcessContext context, final ComponentLog log, final ClientConfig clientConfig) {
+        final URI controllerURI = clientConfig.getControllerURI();
+        final RecordReaderFactory readerFactory = getRecordReaderFactory(context);
+        final RecordSetWriterFactory writerFactory = getRecordSetWriterFactory(context);
+        return () -> new RecordEventOutput(log, controllerURI, readerFactory, writerFactory);
+    }
+
+}
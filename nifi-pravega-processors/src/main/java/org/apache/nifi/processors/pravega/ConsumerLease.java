@@ -13,8 +13,8 @@ package org.apache.nifi.processors.pravega;
 import io.pravega.client.ClientConfig;
 import io.pravega.client.stream.EventRead;
 import io.pravega.client.stream.EventStreamReader;
+import io.pravega.client.stream.Position;
 import io.pravega.client.stream.ReinitializationRequiredException;
-import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.exception.ProcessException;
@@ -22,12 +22,13 @@ import org.apache.nifi.serialization.RecordReaderFactory;
 import org.apache.nifi.serialization.RecordSetWriterFactory;
 
 import java.io.Closeable;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
-import static org.apache.nifi.processors.pravega.ConsumePravega.ATTR_EVENT_POINTER;
-import static org.apache.nifi.processors.pravega.ConsumePravega.REL_SUCCESS;
 import static org.apache.nifi.processors.pravega.ConsumerPool.CHECKPOINT_NAME_FINAL_PREFIX;
 
 /**
@@ -39,34 +40,70 @@ import static org.apache.nifi.processors.pravega.ConsumerPool.CHECKPOINT_NAME_FI
  */
 public abstract class ConsumerLease implements Closeable {
 
+    /**
+     * When the session is full, the reader is polled at this interval until it returns a checkpoint.
+     */
+    static final long SESSION_FULL_POLL_INTERVAL_MS = 50;
+
+    static final String COUNTER_SESSION_FULL = "Full sessions";
+    static final String COUNTER_SESSION_FULL_WAIT_MS = "Full session wait time (ms)";
+
     private final ClientConfig clientConfig;
     protected final EventStreamReader<byte[]> reader;
     protected final String readerId;
+    protected final EventPrefetcher prefetcher;
     private final long checkpointTimeoutMs;// = 10000;
+    private final int maxReplayEvents;
     private final long minimumProcessingTimeMs;// = 100;
     private final ComponentLog logger;
     private final RecordSetWriterFactory writerFactory;
     private final RecordReaderFactory readerFactory;
+    private final EventOutput output;
+    private final boolean independentCommits;
+    private final EventPointerLog pointerLog;
+    private final int commitMaxEvents;
+    private final long commitMaxLatencyMs;
+    private final int maxSessionEvents;
+    private final long maxSessionBytes;
 
     private boolean poisoned = false;
     private boolean lastCheckpointIsFinal = false;
+    private boolean draining = false;
 
     ConsumerLease(
             final ClientConfig clientConfig,
             final EventStreamReader<byte[]> reader,
+            final EventPrefetcher prefetcher,
             final String readerId,
             final long checkpointTimeoutMs,
+            final int maxReplayEvents,
             final long minimumProcessingTimeMs,
             final RecordReaderFactory readerFactory,
             final RecordSetWriterFactory writerFactory,
+            final EventOutput output,
+            final boolean independentCommits,
+            final EventPointerLog pointerLog,
+            final int commitMaxEvents,
+            final long commitMaxLatencyMs,
+            final int maxSessionEvents,
+            final long maxSessionBytes,
             final ComponentLog logger) {
         this.clientConfig = clientConfig;
         this.reader = reader;
+        this.prefetcher = prefetcher;
         this.readerId = readerId;
         this.checkpointTimeoutMs = checkpointTimeoutMs;
+        this.maxReplayEvents = maxReplayEvents;
         this.minimumProcessingTimeMs = minimumProcessingTimeMs;
         this.readerFactory = readerFactory;
         this.writerFactory = writerFactory;
+        this.output = output;
+        this.independentCommits = independentCommits;
+        this.pointerLog = pointerLog;
+        this.commitMaxEvents = commitMaxEvents;
+        this.commitMaxLatencyMs = commitMaxLatencyMs;
+        this.maxSessionEvents = maxSessionEvents;
+        this.maxSessionBytes = maxSessionBytes;
         this.logger = logger;
 
         logger.debug("Created {}", new Object[]{this.getConfigAsString()});
@@ -81,12 +118,49 @@ public abstract class ConsumerLease implements Closeable {
         return "ConsumerLease{" +
                 "clientConfig=" + clientConfig +
                 ", readerId='" + readerId + '\'' +
+                ", prefetch=" + (prefetcher != null) +
                 ", checkpointTimeoutMs=" + checkpointTimeoutMs +
+                ", maxReplayEvents=" + maxReplayEvents +
                 ", minimumProcessingTimeMs=" + minimumProcessingTimeMs +
+                ", independentCommits=" + independentCommits +
+                ", pointerLog=" + (pointerLog != null) +
+                ", commitMaxEvents=" + commitMaxEvents +
+                ", commitMaxLatencyMs=" + commitMaxLatencyMs +
+                ", maxSessionEvents=" + maxSessionEvents +
+                ", maxSessionBytes=" + maxSessionBytes +
                 '}';
     }
 
-    private EventRead<byte[]> nextEventToRead = null;
+    /**
+     * Events or a checkpoint that have been read from the reader but not added to the session yet.
+     * These are returned before reading the next event.
+     */
+    private final Deque<EventRead<byte[]>> heldEvents = new ArrayDeque<>();
+
+    /**
+     * The events added to the session since the last commit, as long as there are at most maxReplayEvents.
+     */
+    private final List<EventRead<byte[]>> sessionEvents = new ArrayList<>();
+
+    /**
+     * In low-latency delivery mode, the pointers of the events added to the session since the last commit.
+     */
+    private final List<String> sessionPointers = new ArrayList<>();
+
+    /**
+     * The last event added to the session that has not been committed, or null if all events have been committed.
+     */
+    private EventRead<byte[]> lastUncommittedEvent = null;
+
+    /**
+     * The position of the reader after the last event that was committed or the last checkpoint that was acknowledged,
+     * or null if there has been neither.
+     */
+    private volatile Position committedPosition = null;
+
+    private volatile long oldestUncommittedTime = 0;
+    private volatile long uncommittedEventCount = 0;
+    private volatile long uncommittedBytes = 0;
 
     /**
      * Reads events from the Pravega reader and creates FlowFiles.
@@ -100,45 +174,120 @@ public abstract class ConsumerLease implements Closeable {
      * If this method has read and processed data up to a checkpoint, it will return successfully.
      * Otherwise, it will throw an exception.
      *
+     * If independentCommits is true (low-latency delivery mode or stream cut progress mode), the session is also
+     * committed whenever it has commitMaxEvents events or its first event was read commitMaxLatencyMs ago,
+     * and this method may return after such a commit.
+     *
+     * The session is full when it has maxSessionEvents events or maxSessionBytes bytes. A full session is committed
+     * immediately if independentCommits is true. Otherwise, the reader is only polled every SESSION_FULL_POLL_INTERVAL_MS
+     * until it returns the next checkpoint. Events returned in the meantime are held instead of being added to the session.
+     * The checkpoint includes their positions, so the full session is committed early and they are added to the next session,
+     * which is committed before the checkpoint is acknowledged. A session never exceeds the limits.
+     * The held events are limited in the same way. When they would fill another session, the lease is poisoned, so the
+     * session is rolled back and the pool takes the reader offline at its last committed position. The reader group then
+     * reads these events again instead of this lease holding more of them in memory.
+     *
      * @return false if calling onTrigger should yield; otherwise true
      *
      */
     boolean readEvents() {
-        logger.debug("readEvents: BEGIN: {}", new Object[]{this.toString()});
+        final boolean debugEnabled = logger.isDebugEnabled();
+        if (debugEnabled) {
+            logger.debug("readEvents: BEGIN: {}", new Object[]{this.toString()});
+        }
         long eventCount = 0;
+        long committedCount = 0;
+        long firstEventTime = 0;
+        long sessionBytes = 0;
+        long sessionFullTime = 0;
         final long startTime = System.currentTimeMillis();
         final long minStopTime = startTime + minimumProcessingTimeMs;
         final long timeoutTime = startTime + checkpointTimeoutMs;
+        sessionEvents.clear();
+        sessionPointers.clear();
         try {
             while (true) {
-                EventRead<byte[]> eventRead = nextEventToRead;
-                nextEventToRead = null;
+                EventRead<byte[]> eventRead = null;
+                if (!heldEvents.isEmpty()) {
+                    if (!isSessionFull(eventCount, sessionBytes) || heldEvents.peekFirst().isCheckpoint()) {
+                        eventRead = heldEvents.poll();
+                    } else if (heldEvents.peekLast().isCheckpoint()) {
+                        // The held events precede this checkpoint, so they must be committed before it is acknowledged.
+                        // Committing early only means that the full session is not atomic with the checkpoint.
+                        logger.debug("readEvents: {}: committing full session early; {} events are held before a checkpoint",
+                                new Object[]{this, heldEvents.size() - 1});
+                        commitSession();
+                        committedCount += eventCount;
+                        eventCount = 0;
+                        sessionBytes = 0;
+                        continue;
+                    }
+                }
                 if (eventRead == null) {
-                    final long readTimeoutTime = Math.max(0, timeoutTime - System.currentTimeMillis());
-                    logger.debug("readEvents: {}:  Calling readNextEvent with readTimeoutTime={}", new Object[]{this, readTimeoutTime});
-                    eventRead = reader.readNextEvent(readTimeoutTime);
-                    logger.debug("readEvents: eventRead={}", new Object[]{eventRead});
-                } else {
+                    long readTimeoutTime = Math.max(0, timeoutTime - System.currentTimeMillis());
+                    if (independentCommits && eventCount > 0) {
+                        // Do not wait past the time at which the session must be committed.
+                        readTimeoutTime = Math.min(readTimeoutTime, Math.max(0, firstEventTime + commitMaxLatencyMs - System.currentTimeMillis()));
+                    }
+                    final boolean sessionFull = isSessionFull(eventCount, sessionBytes);
+                    if (sessionFull) {
+                        if (sessionFullTime == 0) {
+                            sessionFullTime = System.currentTimeMillis();
+                            logger.debug("readEvents: {}: session is full with {} events and {} bytes; waiting for checkpoint",
+                                    new Object[]{this, eventCount, sessionBytes});
+                        }
+                        if (isHoldingFullSession()) {
+                            logger.info("Reader {} has read another {} events without reaching a checkpoint after its session was full; "
+                                            + "releasing its segments so that the events are read again.",
+                                    new Object[]{readerId, heldEvents.size()});
+                            this.poison();
+                            return false;
+                        }
+                        // A pending checkpoint is returned before any event, so poll slowly instead of filling the session.
+                        Thread.sleep(Math.min(SESSION_FULL_POLL_INTERVAL_MS, readTimeoutTime));
+                        readTimeoutTime = 0;
+                    }
+                    if (prefetcher == null) {
+                        if (debugEnabled) {
+                            logger.debug("readEvents: {}:  Calling readNextEvent with readTimeoutTime={}", new Object[]{this, readTimeoutTime});
+                        }
+                        eventRead = readNextEvent(readTimeoutTime);
+                    } else {
+                        // Only wait for the prefetcher when events have been added to the session
+                        // (these must be committed at the next checkpoint) or when waiting for the final checkpoint.
+                        eventRead = prefetcher.poll(eventCount == 0 && !draining ? 0 : readTimeoutTime);
+                    }
+                    if (debugEnabled) {
+                        logger.debug("readEvents: eventRead={}", new Object[]{eventRead});
+                    }
+                    if (sessionFull && eventRead != null
+                            && (eventRead.getEvent() != null || (eventRead.isCheckpoint() && !heldEvents.isEmpty()))) {
+                        // Hold the event until the session has been committed. A checkpoint behind held events is held as well,
+                        // because calling the reader again would acknowledge it.
+                        heldEvents.add(eventRead);
+                        continue;
+                    }
+                } else if (debugEnabled) {
                     logger.debug("readEvents: (saved) eventRead={}", new Object[]{eventRead});
                 }
-                if (eventRead.isCheckpoint()) {
+                if (eventRead != null && eventRead.isCheckpoint()) {
                     // If a checkpoint was in the queue, it will be the first event returned.
                     // If this case, we want to continue to read until the 2nd checkpoint.
+                    if (sessionFullTime > 0) {
+                        getProcessSession().adjustCounter(COUNTER_SESSION_FULL, 1, false);
+                        getProcessSession().adjustCounter(COUNTER_SESSION_FULL_WAIT_MS, System.currentTimeMillis() - sessionFullTime, false);
+                        sessionFullTime = 0;
+                    }
                     if (eventCount > 0) {
-                        getProcessSession().commit();
+                        commitSession();
+                        committedCount += eventCount;
+                    }
+                    if (committedCount > 0) {
                         final long transmissionMillis = System.currentTimeMillis() - startTime;
                         logger.info("Received and committed {} events in {} milliseconds from readerId {}.",
-                                new Object[]{eventCount, transmissionMillis, readerId});
-                    }
-                    // Call readNextEvent to indicate to Pravega that we are done with the checkpoint.
-                    // A non-timeout result will be stored and used at the next iteration;
-                    nextEventToRead = reader.readNextEvent(0);
-                    if (nextEventToRead.getEvent() == null && !nextEventToRead.isCheckpoint()) {
-                        nextEventToRead = null;
+                                new Object[]{committedCount, transmissionMillis, readerId});
                     }
-                    boolean isFinalCheckpoint = eventRead.getCheckpointName().startsWith(CHECKPOINT_NAME_FINAL_PREFIX);
-                    lastCheckpointIsFinal = isFinalCheckpoint;
-                    if (isFinalCheckpoint) {
+                    if (acknowledgeCheckpoint(eventRead)) {
                         logger.debug("readEvents: got final checkpoint");
                         return false;
                     }
@@ -146,17 +295,60 @@ public abstract class ConsumerLease implements Closeable {
                         return true;
                     }
                     eventCount = 0;
-                } else if (eventRead.getEvent() == null) {
-                    if (eventCount > 0) {
+                    committedCount = 0;
+                    sessionBytes = 0;
+                } else if (eventRead == null || eventRead.getEvent() == null) {
+                    if (sessionFullTime > 0 && System.currentTimeMillis() < timeoutTime) {
+                        continue;
+                    } else if (independentCommits && eventCount > 0) {
+                        // Commit without waiting for the checkpoint.
+                        commitSession();
+                        committedCount += eventCount;
+                        eventCount = 0;
+                        sessionBytes = 0;
+                        if (System.currentTimeMillis() < timeoutTime) {
+                            continue;
+                        }
+                        return false;
+                    } else if (eventCount > 0 && eventCount <= maxReplayEvents && !draining) {
+                        // The reader has already returned these events, so it is kept and the events
+                        // will be added to the next session, as if the reader had been reset to the last checkpoint.
+                        logger.warn("timeout waiting for event or checkpoint; session with {} events will be rolled back and the events will be replayed from memory",
+                                new Object[]{eventCount});
+                        replaySessionEvents();
+                        return false;
+                    } else if (eventCount > 0) {
                         logger.warn("timeout waiting for event or checkpoint; session with {} events will be rolled back", new Object[]{eventCount});
                         throw new TimeoutException("timeout waiting for event or checkpoint");
                     } else {
                         logger.info("timeout waiting for event checkpoint; session has no events");
                         return false;
                     }
-                } else {
+                } else if (addEvent(eventRead)) {
+                    lastUncommittedEvent = eventRead;
                     eventCount++;
-                    processEvent(eventRead);
+                    sessionBytes += eventRead.getEvent().length;
+                    uncommittedEventCount = eventCount;
+                    uncommittedBytes = sessionBytes;
+                    if (eventCount <= maxReplayEvents) {
+                        sessionEvents.add(eventRead);
+                    }
+                    if (independentCommits) {
+                        final long now = System.currentTimeMillis();
+                        if (eventCount == 1) {
+                            firstEventTime = now;
+                        }
+                        if (eventCount >= commitMaxEvents || now - firstEventTime >= commitMaxLatencyMs
+                                || isSessionFull(eventCount, sessionBytes)) {
+                            commitSession();
+                            committedCount += eventCount;
+                            eventCount = 0;
+                            sessionBytes = 0;
+                            if (now > minStopTime) {
+                                return true;
+                            }
+                        }
+                    }
                 }
             }
         }
@@ -164,6 +356,10 @@ public abstract class ConsumerLease implements Closeable {
         // Otherwise, the processor will be administratively yielded for 10 seconds.
         catch (final ProcessException e) {
             throw e;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.poison();
+            throw new ProcessException(e);
         } catch (final ReinitializationRequiredException e) {
             this.poison();
             throw new ProcessException(e);
@@ -176,7 +372,220 @@ public abstract class ConsumerLease implements Closeable {
         }
     }
 
+    /**
+     * Reads the next event from the reader and records the time of the oldest event that has not been committed.
+     */
+    private EventRead<byte[]> readNextEvent(final long timeout) throws ReinitializationRequiredException {
+        final EventRead<byte[]> eventRead = reader.readNextEvent(timeout);
+        if (eventRead.getEvent() != null && oldestUncommittedTime == 0) {
+            oldestUncommittedTime = System.currentTimeMillis();
+        }
+        return eventRead;
+    }
+
+    /**
+     * Returns the time at which the oldest event that has been read from the reader but not committed was read,
+     * or 0 if all events have been committed. This is used by the stream cut progress mode, which disables prefetching.
+     */
+    long getOldestUncommittedTime() {
+        return oldestUncommittedTime;
+    }
+
+    /**
+     * @return the number of events in the session that have not been committed; used to adapt the checkpoint period
+     */
+    long getUncommittedEventCount() {
+        return uncommittedEventCount;
+    }
+
+    long getUncommittedBytes() {
+        return uncommittedBytes;
+    }
+
+    /**
+     * @return true if the session has reached the maximum number of events or bytes; a limit of 0 is unlimited
+     */
+    private boolean isSessionFull(final long eventCount, final long sessionBytes) {
+        return (maxSessionEvents > 0 && eventCount >= maxSessionEvents)
+                || (maxSessionBytes > 0 && sessionBytes >= maxSessionBytes);
+    }
+
+    /**
+     * @return true if the held events would fill a session on their own
+     */
+    private boolean isHoldingFullSession() {
+        long eventCount = 0;
+        long bytes = 0;
+        for (final EventRead<byte[]> eventRead : heldEvents) {
+            if (eventRead.getEvent() != null) {
+                eventCount++;
+                bytes += eventRead.getEvent().length;
+            }
+        }
+        return isSessionFull(eventCount, bytes);
+    }
+
+    /**
+     * Holds the events of the session that will be rolled back so that they are returned again by readEvents.
+     * <p>
+     * Held events exist only in memory. They are never dropped: hasUncommittedEvents returns true while any are held,
+     * so the pool does not retire this lease, and when the lease is closed for any other reason (poisoned on the next error,
+     * answering an idle checkpoint, or closing the pool) the reader is taken offline at its last committed position
+     * and the events are read again by the reader group.
+     */
+    private void replaySessionEvents() {
+        for (int i = sessionEvents.size() - 1; i >= 0; i--) {
+            heldEvents.addFirst(sessionEvents.get(i));
+        }
+        sessionEvents.clear();
+        sessionPointers.clear();
+    }
+
+    /**
+     * Adds an event to the session.
+     * In low-latency delivery mode, events that were committed before the last restart are skipped.
+     *
+     * @return false if the event was skipped
+     */
+    private boolean addEvent(final EventRead<byte[]> eventRead) {
+        if (pointerLog != null) {
+            final String eventPointer = eventRead.getEventPointer().toString();
+            if (pointerLog.isReplayed(eventPointer)) {
+                logger.debug("addEvent: skipping event {} that was committed before the last restart", new Object[]{eventPointer});
+                return false;
+            }
+            sessionPointers.add(eventPointer);
+        }
+        processEvent(eventRead);
+        return true;
+    }
+
+    /**
+     * Commits the session. In low-latency delivery mode, the pointers of the committed events are then logged.
+     */
+    private void commitSession() {
+        output.flush(getProcessSession());
+        getProcessSession().commit();
+        if (lastUncommittedEvent != null) {
+            committedPosition = lastUncommittedEvent.getPosition();
+            lastUncommittedEvent = null;
+        }
+        sessionEvents.clear();
+        uncommittedEventCount = 0;
+        uncommittedBytes = 0;
+        if (heldEvents.isEmpty()) {
+            oldestUncommittedTime = 0;
+        }
+        if (pointerLog != null) {
+            try {
+                pointerLog.append(sessionPointers);
+            } catch (final IOException e) {
+                // The events have been committed, so this can only cause duplicates after a restart.
+                logger.warn("Failed to log committed event pointers", e);
+            }
+            sessionPointers.clear();
+        }
+    }
+
+    /**
+     * Indicates to Pravega that all events before the checkpoint have been committed.
+     *
+     * @return true if this is a final checkpoint
+     */
+    private boolean acknowledgeCheckpoint(final EventRead<byte[]> checkpoint) throws ReinitializationRequiredException {
+        if (prefetcher == null) {
+            // Call readNextEvent to indicate to Pravega that we are done with the checkpoint.
+            // A non-timeout result will be held and used at the next iteration;
+            final EventRead<byte[]> eventRead = readNextEvent(0);
+            if (eventRead.getEvent() != null || eventRead.isCheckpoint()) {
+                heldEvents.add(eventRead);
+            }
+        } else {
+            // Allow the prefetcher to call readNextEvent.
+            prefetcher.releaseCheckpoint();
+        }
+        committedPosition = checkpoint.getPosition();
+        lastCheckpointIsFinal = checkpoint.getCheckpointName().startsWith(CHECKPOINT_NAME_FINAL_PREFIX);
+        return lastCheckpointIsFinal;
+    }
+
+    /**
+     * Returns true if the reader has returned events that have not been committed: events of a session that was
+     * rolled back, held events, or events in the prefetch buffer.
+     * Closing the reader would release its segments after these events, so they would not be read again.
+     * The prefetcher must have been closed before calling this.
+     */
+    boolean hasUncommittedEvents() {
+        return lastUncommittedEvent != null
+                || heldEvents.stream().anyMatch(eventRead -> eventRead.getEvent() != null)
+                || (prefetcher != null && prefetcher.hasBufferedEvents());
+    }
+
+    /**
+     * @return the position of the reader after the last committed event or acknowledged checkpoint, or null if there is none
+     */
+    Position getCommittedPosition() {
+        return committedPosition;
+    }
+
+    /**
+     * Answers a pending checkpoint for a lease that is not being used by onTrigger.
+     * This is called periodically by the pool when the processor is not scheduled, usually because the success
+     * relationship is backpressured. Otherwise, this reader would hold up the checkpoints of the whole reader group.
+     * <p>
+     * No FlowFiles are created here. A checkpoint includes the position of every event that the reader has returned,
+     * so it can only be acknowledged if no event that has not been committed precedes it. Events read while looking
+     * for the checkpoint are held, up to maxHeldEvents, and are returned first by readEvents.
+     * If the checkpoint is behind held events, or the limit is reached, this reader cannot answer the checkpoint
+     * and the lease must be closed. The pool then takes the reader offline at its last committed position,
+     * so that the checkpoint no longer waits for it and the held events are read again by other readers.
+     *
+     * @return false if the lease must be closed
+     */
+    boolean readCheckpointWhileIdle(final int maxHeldEvents) {
+        try {
+            while (true) {
+                if (!heldEvents.isEmpty() && heldEvents.peekFirst().isCheckpoint() && lastUncommittedEvent == null) {
+                    final EventRead<byte[]> checkpoint = heldEvents.poll();
+                    acknowledgeCheckpoint(checkpoint);
+                    logger.info("Idle reader {} acknowledged checkpoint {}.", new Object[]{readerId, checkpoint.getCheckpointName()});
+                    return true;
+                }
+                if (heldEvents.size() >= maxHeldEvents) {
+                    // A checkpoint could be pending behind the events that have not been read yet.
+                    // Only the prefetcher can tell without reading them.
+                    final boolean mayBeBlocking = prefetcher == null || prefetcher.hasBufferedCheckpoint();
+                    logger.debug("readCheckpointWhileIdle: {} is holding {} events; mayBeBlocking={}",
+                            new Object[]{this, heldEvents.size(), mayBeBlocking});
+                    return !mayBeBlocking;
+                }
+                final EventRead<byte[]> eventRead = prefetcher == null ? readNextEvent(0) : prefetcher.poll(0);
+                if (eventRead == null || (eventRead.getEvent() == null && !eventRead.isCheckpoint())) {
+                    return true;
+                }
+                heldEvents.add(eventRead);
+                if (eventRead.isCheckpoint() && heldEvents.size() > 1) {
+                    logger.info("Idle reader {} cannot acknowledge checkpoint {} behind {} events that have not been committed; "
+                                    + "releasing its segments.",
+                            new Object[]{readerId, eventRead.getCheckpointName(), heldEvents.size() - 1});
+                    return false;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.poison();
+            throw new ProcessException(e);
+        } catch (final ReinitializationRequiredException e) {
+            this.poison();
+            throw new ProcessException(e);
+        } catch (final Throwable e) {
+            this.poison();
+            throw e;
+        }
+    }
+
     void readEventsUntilFinalCheckpoint() {
+        draining = true;
         while (!lastCheckpointIsFinal) {
             readEvents();
         }
@@ -200,8 +609,19 @@ public abstract class ConsumerLease implements Closeable {
         return poisoned;
     }
 
+    /**
+     * Discards any events that have not been written to the session.
+     * The caller must roll back the session.
+     */
     @Override
     public void close() {
+        output.reset();
+        uncommittedEventCount = 0;
+        uncommittedBytes = 0;
+        // Events in the rolled back session are read again when they are held or when the pool closes the reader.
+        if (heldEvents.isEmpty()) {
+            oldestUncommittedTime = 0;
+        }
     }
 
     public abstract ProcessSession getProcessSession();
@@ -209,28 +629,7 @@ public abstract class ConsumerLease implements Closeable {
     public abstract void yield();
 
     private void processEvent(final EventRead<byte[]> eventRead) {
-        writeData(getProcessSession(), eventRead);
-    }
-
-    private void writeData(final ProcessSession session, final EventRead<byte[]> eventRead) {
-        logger.debug("writeData: size={}, eventRead={}", new Object[]{eventRead.getEvent().length, eventRead});
-        FlowFile flowFile = session.create();
-        final byte[] value = eventRead.getEvent();
-        if (value != null) {
-            flowFile = session.write(flowFile, out -> {
-                out.write(value);
-            });
-        }
-        flowFile = session.putAllAttributes(flowFile, getAttributes(eventRead));
-        final String transitUri = String.format("%s/%s", clientConfig.getControllerURI(), eventRead.getEventPointer());
-        session.getProvenanceReporter().receive(flowFile, transitUri);
-        session.transfer(flowFile, REL_SUCCESS);
-    }
-
-    private Map<String, String> getAttributes(final EventRead<byte[]> eventRead) {
-        final Map<String, String> attributes = new HashMap<>();
-        attributes.put(ATTR_EVENT_POINTER, eventRead.getEventPointer().toString());
-        return attributes;
+        output.write(getProcessSession(), eventRead);
     }
 
 }
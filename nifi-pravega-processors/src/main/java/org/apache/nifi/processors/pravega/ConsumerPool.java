@@ -17,8 +17,6 @@ import io.pravega.client.admin.StreamInfo;
 import io.pravega.client.admin.StreamManager;
 import io.pravega.client.stream.*;
 import io.pravega.client.stream.impl.ByteArraySerializer;
-import org.apache.nifi.components.state.Scope;
-import org.apache.nifi.components.state.StateManager;
 import org.apache.nifi.components.state.StateMap;
 import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.ProcessContext;
@@ -27,7 +25,12 @@ import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.serialization.RecordReaderFactory;
 import org.apache.nifi.serialization.RecordSetWriterFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -35,9 +38,12 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.apache.nifi.processors.pravega.ConsumePravega.STREAM_CUT_EARLIEST;
 import static org.apache.nifi.processors.pravega.ConsumePravega.STREAM_CUT_LATEST;
+import static org.apache.nifi.processors.pravega.ConsumePravega.STREAM_CUT_TIMESTAMP;
 
 /**
  * A pool of Pravega Readers for a given stream.
@@ -51,6 +57,32 @@ public class ConsumerPool implements AutoCloseable {
     static private final String STATE_KEY_CHECKPOINT_NAME = "reader.group.checkpoint.name";
     static private final String STATE_KEY_CHECKPOINT_BASE64 = "reader.group.checkpoint.base64";
     static private final String STATE_KEY_CHECKPOINT_TIME = "reader.group.checkpoint.time";
+    // The checkpoint is compressed with gzip, encoded with base64, and split into this number of chunks.
+    static private final String STATE_KEY_CHECKPOINT_CHUNKS = "reader.group.checkpoint.chunks";
+    static private final String STATE_KEY_CHECKPOINT_GZIP_BASE64_PREFIX = "reader.group.checkpoint.gzip.base64.";
+    static private final String STATE_KEY_STREAM_CUTS_BASE64 = "reader.group.stream.cuts.base64";
+    static private final String STATE_KEY_STREAM_CUTS_GENERATION = "reader.group.stream.cuts.generation";
+    static private final String STATE_KEY_STREAM_CUTS_TIME = "reader.group.stream.cuts.time";
+    static private final String STATE_KEY_PENDING_STREAM_CUTS_BASE64 = "reader.group.stream.cuts.pending.base64";
+    static private final String STATE_KEY_PENDING_STREAM_CUTS_GENERATION = "reader.group.stream.cuts.pending.generation";
+    static private final String STATE_KEY_NODE_ACK_PREFIX = "reader.group.stream.cuts.ack.";
+    static private final int STATE_REPLACE_ATTEMPTS = 10;
+    static private final String STATE_KEY_CHECKPOINT_LATENCY_MS = "reader.group.checkpoint.latency.ms";
+    static private final String STATE_KEY_CHECKPOINT_PERIOD_MS = "reader.group.checkpoint.period.ms";
+    static final String COUNTER_CHECKPOINTS = "Checkpoints";
+    static final String COUNTER_CHECKPOINT_LATENCY_MS = "Checkpoint latency (ms)";
+    static final String COUNTER_CHECKPOINT_PERIOD_MS = "Checkpoint period (ms)";
+    static final String COUNTER_UNCOMMITTED_EVENTS = "Uncommitted events";
+    static final String COUNTER_UNCOMMITTED_BYTES = "Uncommitted bytes";
+
+    /**
+     * With an adaptive checkpoint period, the period is halved when a session is more than this fraction
+     * of the session limits, and only moved back toward the configured period below a quarter of this.
+     */
+    static final double ADAPTIVE_HIGH_FILL = 0.5;
+    static final long READER_SIZING_INTERVAL_MS = 10000;
+    static final long UNCOMMITTED_REPORT_INTERVAL_MS = 1000;
+    static private final String READER_ID_SEPARATOR = "-";
     final StreamConfiguration streamConfig;
     private final BlockingQueue<SimpleConsumerLease> pooledLeases;      // must have lock on activeLeases to access
     private final Set<SimpleConsumerLease> activeLeases = new HashSet<>();
@@ -60,20 +92,57 @@ public class ConsumerPool implements AutoCloseable {
     private final int maxConcurrentLeases;
     private final long checkpointPeriodMs;
     private final long checkpointTimeoutMs;
+    private final int maxReplayEvents;
     private final long gracefulShutdownTimeoutMs;
     private final long minimumProcessingTimeMs;
     private final ComponentLog logger;
     private final RecordReaderFactory readerFactory;
     private final RecordSetWriterFactory writerFactory;
+    private final Supplier<EventOutput> outputFactory;
+    private final int prefetchCapacity;
+    private final ExecutorService prefetchExecutor;
+    private final boolean dynamicReaderCount;
+    private final long readerLagThresholdBytes;
+    private final int idleHeldEvents;
+    private final long idleCheckpointIntervalMs;
+    private final ScheduledExecutorService idleCheckpointExecutor;
+    private final ScheduledExecutorService streamCutCatalogExecutor;
+    private final EventPointerLog pointerLog;
+    private final int commitMaxEvents;
+    private final long commitMaxLatencyMs;
+    private final int maxSessionEvents;
+    private final long maxSessionBytes;
+    private final boolean useStreamCuts;
+    private long observedGeneration = 0;        // must have lock on checkpointMutex to access
+    private long observedGenerationTime = 0;    // must have lock on checkpointMutex to access
+    private long acknowledgedGeneration = 0;    // must have lock on checkpointMutex to access
+    private long pendingGenerationTime = 0;     // must have lock on checkpointMutex to access
+    private Map<Stream, StreamCut> savedPositions = null;   // must have lock on checkpointMutex to access
+    private String savedProgress;                           // must have lock on checkpointMutex to access
+    private final int stateChunkSize;
+    private final long startTimeMs;
+    private final long streamCutCatalogIntervalMs;
+    private final long streamCutCatalogMaxAgeMs;
+    private final Map<Stream, StreamCutCatalog> streamCutCatalogs = new HashMap<>();    // must have lock on streamCutCatalogs to access
+    private final boolean adaptiveCheckpointPeriod;
+    private final long minCheckpointPeriodMs;
+    private final long maxCheckpointPeriodMs;
+    private volatile long currentCheckpointPeriodMs;
+    private volatile long lastCheckpointLatencyMs = 0;
+    private final String nodeId;
+    private volatile int targetReaderCount;
+    private long reportedUncommittedEvents = 0; // must have lock on this to access
+    private long reportedUncommittedBytes = 0;  // must have lock on this to access
     private final AtomicLong consumerCreatedCountRef = new AtomicLong();
     private final AtomicLong consumerClosedCountRef = new AtomicLong();
     private final AtomicLong leasesObtainedCountRef = new AtomicLong();
     private final String readerGroupName;
+    private final StreamManager streamManager;
     private final ReaderGroupManager readerGroupManager;
     private final ReaderGroup readerGroup;
     private final ScheduledExecutorService performCheckpointExecutor;
     private final ScheduledExecutorService initiateCheckpointExecutor;
-    private final StateManager stateManager;
+    private final CheckpointStore checkpointStore;
     private final ProcessSessionFactory sessionFactory;
     private final Supplier<Boolean> isPrimaryNode;
     private final Object checkpointMutex = new Object();
@@ -86,17 +155,39 @@ public class ConsumerPool implements AutoCloseable {
      * configured consumers if the broker reported lag time for all streamNames is
      * below a certain threshold.
      *
+     * @param nodeId              a stable and unique identifier of this NiFi node, which must not contain READER_ID_SEPARATOR
      * @param maxConcurrentLeases max allowable consumers at once
+     * @param maxReplayEvents     the maximum number of events that a lease keeps for the next session after a checkpoint timeout
+     * @param outputFactory       creates the EventOutput of each lease
+     * @param prefetchCapacity    if greater than 0, each reader reads on a dedicated thread into a buffer of this many events
+     * @param dynamicReaderCount  if true, the number of readers is limited by the segment count and the lag of the reader group
+     * @param readerLagThresholdBytes the number of unread bytes at which the full share of readers will be used
+     * @param idleHeldEvents      if greater than 0, idle readers answer checkpoints and hold up to this many events;
+     *                            readers that cannot answer a checkpoint release their segments
+     * @param pointerLogFile      if not null, sessions are committed without waiting for checkpoints (low-latency delivery mode)
+     *                            and the pointers of the committed events are logged to this file
+     * @param commitMaxEvents     in low-latency delivery mode, the maximum number of events in a session
+     * @param commitMaxLatencyMs  in low-latency delivery mode, the maximum time between reading an event and committing it
+     * @param maxSessionEvents    the number of uncommitted events at which a lease stops reading until the next checkpoint; 0 is unlimited
+     * @param maxSessionBytes     the number of uncommitted bytes at which a lease stops reading until the next checkpoint; 0 is unlimited
+     * @param useStreamCuts       if true, progress is saved as stream cuts instead of checkpoints (see performStreamCut)
+     * @param stateChunkSize      the maximum length of each state value of the encoded checkpoint, or 0 to use a single value
+     * @param startTimeMs         if the stream cut method is timestamp, the time in milliseconds at which to start
+     * @param streamCutCatalogIntervalMs if greater than 0, the primary node adds the tail stream cuts to the StreamCutCatalog at this interval
+     * @param streamCutCatalogMaxAgeMs the age at which entries are removed from the StreamCutCatalog
+     * @param adaptiveCheckpointPeriod if true, the checkpoint period is adapted between the minimum and maximum (see getNextCheckpointPeriod)
      * @param logger              the logger to report any errors/warnings
      */
     public ConsumerPool(
             final ComponentLog logger,
-            final StateManager stateManager,
+            final CheckpointStore checkpointStore,
             final ProcessSessionFactory sessionFactory,
             final Supplier<Boolean> isPrimaryNode,
+            final String nodeId,
             final int maxConcurrentLeases,
             final long checkpointPeriodMs,
             final long checkpointTimeoutMs,
+            final int maxReplayEvents,
             final long gracefulShutdownTimeoutMs,
             final long minimumProcessingTimeMs,
             final ClientConfig clientConfig,
@@ -105,14 +196,33 @@ public class ConsumerPool implements AutoCloseable {
             final String streamCutMethod,
             final RecordReaderFactory readerFactory,
             final RecordSetWriterFactory writerFactory,
+            final Supplier<EventOutput> outputFactory,
+            final int prefetchCapacity,
+            final boolean dynamicReaderCount,
+            final long readerLagThresholdBytes,
+            final int idleHeldEvents,
+            final File pointerLogFile,
+            final int commitMaxEvents,
+            final long commitMaxLatencyMs,
+            final int maxSessionEvents,
+            final long maxSessionBytes,
+            final boolean useStreamCuts,
+            final int stateChunkSize,
+            final long startTimeMs,
+            final long streamCutCatalogIntervalMs,
+            final long streamCutCatalogMaxAgeMs,
+            final boolean adaptiveCheckpointPeriod,
+            final long minCheckpointPeriodMs,
+            final long maxCheckpointPeriodMs,
             final boolean createScope) throws Exception {
         this.logger = logger;
-        this.stateManager = stateManager;
+        this.checkpointStore = checkpointStore;
         this.sessionFactory = sessionFactory;
         this.isPrimaryNode = isPrimaryNode;
         this.maxConcurrentLeases = maxConcurrentLeases;
         this.checkpointPeriodMs = checkpointPeriodMs;
         this.checkpointTimeoutMs = checkpointTimeoutMs;
+        this.maxReplayEvents = maxReplayEvents;
         this.gracefulShutdownTimeoutMs = gracefulShutdownTimeoutMs;
         this.minimumProcessingTimeMs = minimumProcessingTimeMs;
         this.clientConfig = clientConfig;
@@ -121,21 +231,52 @@ public class ConsumerPool implements AutoCloseable {
         this.streamConfig = streamConfig;
         this.readerFactory = readerFactory;
         this.writerFactory = writerFactory;
+        this.outputFactory = outputFactory;
+        // Prefetched events have been read before they are seen by the lease, which the stream cut progress mode cannot track.
+        this.prefetchCapacity = useStreamCuts ? 0 : prefetchCapacity;
+        this.dynamicReaderCount = dynamicReaderCount;
+        this.readerLagThresholdBytes = readerLagThresholdBytes;
+        this.idleHeldEvents = idleHeldEvents;
+        // Check idle readers often enough to answer a checkpoint well before it times out.
+        this.idleCheckpointIntervalMs = Math.max(1, checkpointTimeoutMs / 4);
+        this.commitMaxEvents = commitMaxEvents;
+        this.commitMaxLatencyMs = commitMaxLatencyMs;
+        this.maxSessionEvents = maxSessionEvents;
+        this.maxSessionBytes = maxSessionBytes;
+        this.useStreamCuts = useStreamCuts;
+        this.stateChunkSize = stateChunkSize;
+        this.startTimeMs = startTimeMs;
+        this.streamCutCatalogIntervalMs = streamCutCatalogIntervalMs;
+        this.streamCutCatalogMaxAgeMs = streamCutCatalogMaxAgeMs;
+        this.adaptiveCheckpointPeriod = adaptiveCheckpointPeriod;
+        this.minCheckpointPeriodMs = minCheckpointPeriodMs;
+        this.maxCheckpointPeriodMs = maxCheckpointPeriodMs;
+        this.currentCheckpointPeriodMs = checkpointPeriodMs;
+        this.targetReaderCount = maxConcurrentLeases;
+        this.nodeId = nodeId;
         this.createScope = createScope;
 
         final boolean primaryNode = isPrimaryNode.get();
-        final StateMap stateMap = stateManager.getState(Scope.CLUSTER);
+        final StateMap stateMap = checkpointStore.getState();
         final String previousReaderGroup = stateMap.get(STATE_KEY_READER_GROUP);
         final boolean haveReaderGroup = previousReaderGroup != null;
-        final String checkpointStr = stateMap.get(STATE_KEY_CHECKPOINT_BASE64);
-        final boolean haveCheckpoint = checkpointStr != null;
+        final byte[] checkpointBytes = getCheckpointBytes(stateMap);
+        final boolean haveCheckpoint = checkpointBytes != null;
+        final String streamCutsStr = stateMap.get(STATE_KEY_STREAM_CUTS_BASE64);
+        final boolean haveStreamCuts = streamCutsStr != null;
 
         if (!haveReaderGroup && !primaryNode) {
             throw new ProcessorNotReadyException("Non-primary node can't start until the reader group has been created.");
         }
 
         pooledLeases = new ArrayBlockingQueue<>(maxConcurrentLeases);
-        performCheckpointExecutor = Executors.newScheduledThreadPool(1);
+        // The stream manager is shared by the startup and by the background tasks of this pool.
+        streamManager = StreamManager.create(clientConfig);
+        prefetchExecutor = this.prefetchCapacity > 0 ? Executors.newCachedThreadPool() : null;
+        final ScheduledThreadPoolExecutor checkpointScheduler = new ScheduledThreadPoolExecutor(1);
+        // With an adaptive period, the next checkpoint is a delayed task that must not run after shutdown.
+        checkpointScheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        performCheckpointExecutor = checkpointScheduler;
         try {
             initiateCheckpointExecutor = Executors.newScheduledThreadPool(1);
             try {
@@ -152,6 +293,19 @@ public class ConsumerPool implements AutoCloseable {
                         readerGroupName = prevReaderGroupName;
                         logger.debug("ConsumerPool: Using existing reader group {}", new Object[]{readerGroupName});
                         readerGroup = readerGroupManager.getReaderGroup(readerGroupName);
+                        if (useStreamCuts && haveStreamCuts) {
+                            // Readers that were not closed cleanly, for instance those of a node that crashed, have read events
+                            // that were not committed. Their position in the reader group is after these events, so the reader
+                            // group is reset to the acknowledged stream cuts, which can only cause duplicates.
+                            // Pending stream cuts may be after these events as well, so they are discarded.
+                            logger.info("Resetting reader group {} to the stream cuts of generation {}.",
+                                    new Object[]{readerGroupName, stateMap.get(STATE_KEY_STREAM_CUTS_GENERATION)});
+                            readerGroup.resetReaderGroup(ReaderGroupConfig.builder()
+                                    .disableAutomaticCheckpoints()
+                                    .startFromStreamCuts(deserializeStreamCuts(streamCutsStr))
+                                    .build());
+                            updateState(discardPendingStreamCuts());
+                        }
                     } else {
                         if (!primaryNode) {
                             throw new RuntimeException("bug");
@@ -159,47 +313,60 @@ public class ConsumerPool implements AutoCloseable {
                         // This processor is starting for the first time on the primary node.
 
                         // Create streams.
-                        try (final StreamManager streamManager = StreamManager.create(clientConfig)) {
-                            for (Stream stream : streams) {
-                                if (createScope)
-                                    streamManager.createScope(stream.getScope());
+                        for (Stream stream : streams) {
+                            if (createScope)
+                                streamManager.createScope(stream.getScope());
 
-                                streamManager.createStream(stream.getScope(), stream.getStreamName(), streamConfig);
-                            }
+                            streamManager.createStream(stream.getScope(), stream.getStreamName(), streamConfig);
+                        }
 
-                            // Create reader group.
-                            readerGroupName = UUID.randomUUID().toString().replace("-", "");
-                            logger.debug("ConsumerPool: Using new reader group {}", new Object[]{readerGroupName});
-                            ReaderGroupConfig.ReaderGroupConfigBuilder builder = ReaderGroupConfig.builder()
-                                    .disableAutomaticCheckpoints();
+                        // Create reader group.
+                        readerGroupName = UUID.randomUUID().toString().replace("-", "");
+                        logger.debug("ConsumerPool: Using new reader group {}", new Object[]{readerGroupName});
+                        ReaderGroupConfig.ReaderGroupConfigBuilder builder = ReaderGroupConfig.builder()
+                                .disableAutomaticCheckpoints();
 
-                            if (haveCheckpoint) {
-                                logger.debug("ConsumerPool: Starting the reader group from checkpoint {}", new Object[]{checkpointStr});
-                                final Checkpoint checkpoint = Checkpoint.fromBytes(ByteBuffer.wrap(Base64.getDecoder().decode(checkpointStr)));
-                                builder = builder.startFromCheckpoint(checkpoint);
-                            } else {
-                                // Determine starting stream cuts.
-                                final Map<Stream, StreamCut> startingStreamCuts = new HashMap<>();
-                                if (streamCutMethod.equals(STREAM_CUT_LATEST.getValue())) {
-                                    for (Stream stream : streams) {
-                                        StreamInfo streamInfo = streamManager.getStreamInfo(stream.getScope(), stream.getStreamName());
-                                        StreamCut tailStreamCut = streamInfo.getTailStreamCut();
-                                        startingStreamCuts.put(stream, tailStreamCut);
-                                    }
-                                } else if (streamCutMethod.equals(STREAM_CUT_EARLIEST.getValue())) {
-                                    for (Stream stream : streams) {
-                                        startingStreamCuts.put(stream, StreamCut.UNBOUNDED);
+                        // A checkpoint replaces the whole state, so stream cuts in the state were saved after any checkpoint.
+                        if (haveStreamCuts) {
+                            logger.debug("ConsumerPool: Starting the reader group from stream cuts {}", new Object[]{streamCutsStr});
+                            builder = builder.startFromStreamCuts(deserializeStreamCuts(streamCutsStr));
+                        } else if (haveCheckpoint) {
+                            final Checkpoint checkpoint = Checkpoint.fromBytes(ByteBuffer.wrap(checkpointBytes));
+                            logger.debug("ConsumerPool: Starting the reader group from checkpoint {}", new Object[]{checkpoint});
+                            builder = builder.startFromCheckpoint(checkpoint);
+                        } else {
+                            // Determine starting stream cuts.
+                            final Map<Stream, StreamCut> startingStreamCuts = new HashMap<>();
+                            if (streamCutMethod.equals(STREAM_CUT_LATEST.getValue())) {
+                                for (Stream stream : streams) {
+                                    StreamInfo streamInfo = streamManager.getStreamInfo(stream.getScope(), stream.getStreamName());
+                                    StreamCut tailStreamCut = streamInfo.getTailStreamCut();
+                                    startingStreamCuts.put(stream, tailStreamCut);
+                                }
+                            } else if (streamCutMethod.equals(STREAM_CUT_EARLIEST.getValue())) {
+                                for (Stream stream : streams) {
+                                    startingStreamCuts.put(stream, StreamCut.UNBOUNDED);
+                                }
+                            } else if (streamCutMethod.equals(STREAM_CUT_TIMESTAMP.getValue())) {
+                                for (Stream stream : streams) {
+                                    try (final StreamCutCatalog catalog = new StreamCutCatalog(logger, clientConfig, stream, createScope)) {
+                                        final StreamCut streamCut = catalog.find(startTimeMs);
+                                        if (streamCut == null) {
+                                            logger.warn("The stream cut catalog of {} has no stream cut at or before {}; starting from the earliest event.",
+                                                    new Object[]{stream, Instant.ofEpochMilli(startTimeMs)});
+                                        }
+                                        startingStreamCuts.put(stream, streamCut == null ? StreamCut.UNBOUNDED : streamCut);
                                     }
-                                } else {
-                                    throw new Exception("Invalid stream cut method " + streamCutMethod);
                                 }
-                                logger.debug("ConsumerPool: startingStreamCuts={}", new Object[]{startingStreamCuts});
-                                builder = builder.startFromStreamCuts(startingStreamCuts);
+                            } else {
+                                throw new Exception("Invalid stream cut method " + streamCutMethod);
                             }
-                            final ReaderGroupConfig readerGroupConfig = builder.build();
-                            readerGroupManager.createReaderGroup(readerGroupName, readerGroupConfig);
-                            readerGroup = readerGroupManager.getReaderGroup(readerGroupName);
+                            logger.debug("ConsumerPool: startingStreamCuts={}", new Object[]{startingStreamCuts});
+                            builder = builder.startFromStreamCuts(startingStreamCuts);
                         }
+                        final ReaderGroupConfig readerGroupConfig = builder.build();
+                        readerGroupManager.createReaderGroup(readerGroupName, readerGroupConfig);
+                        readerGroup = readerGroupManager.getReaderGroup(readerGroupName);
                     }
                 } catch (Exception e) {
                     readerGroupManager.close();
@@ -211,15 +378,70 @@ public class ConsumerPool implements AutoCloseable {
             }
         } catch (Exception e) {
             performCheckpointExecutor.shutdown();
+            if (prefetchExecutor != null) {
+                prefetchExecutor.shutdown();
+            }
+            streamManager.close();
             throw e;
         }
 
         logger.info("Using reader group {} to read from {}.",
                 new Object[]{readerGroupName, streams});
 
+        if (pointerLogFile != null) {
+            try {
+                // The pointers of a previous reader group would skip events that the new reader group reads again.
+                pointerLog = new EventPointerLog(logger, pointerLogFile, haveReaderGroup);
+            } catch (Exception e) {
+                performCheckpointExecutor.shutdown();
+                initiateCheckpointExecutor.shutdown();
+                if (prefetchExecutor != null) {
+                    prefetchExecutor.shutdown();
+                }
+                readerGroup.close();
+                readerGroupManager.close();
+                streamManager.close();
+                throw e;
+            }
+        } else {
+            pointerLog = null;
+        }
+        savedProgress = getSavedProgress(stateMap);
+
         // Schedule periodic task to initiate checkpoints.
         // If any execution of this task takes longer than its period, then subsequent executions may start late, but will not concurrently execute.
-        performCheckpointExecutor.scheduleAtFixedRate(this::performRegularCheckpoint, checkpointPeriodMs, checkpointPeriodMs, TimeUnit.MILLISECONDS);
+        if (adaptiveCheckpointPeriod) {
+            scheduleRegularCheckpoint(checkpointPeriodMs);
+        } else {
+            performCheckpointExecutor.scheduleAtFixedRate(this::performRegularCheckpoint, checkpointPeriodMs, checkpointPeriodMs, TimeUnit.MILLISECONDS);
+        }
+
+        // Schedule periodic task to size the readers of this node.
+        // This runs on the checkpoint scheduler so that obtainConsumer never waits for the controller.
+        if (dynamicReaderCount) {
+            performCheckpointExecutor.scheduleWithFixedDelay(this::refreshTargetReaderCount, 0, READER_SIZING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        // Schedule periodic task to report the events of this node that have not been committed.
+        performCheckpointExecutor.scheduleWithFixedDelay(this::reportUncommitted,
+                UNCOMMITTED_REPORT_INTERVAL_MS, UNCOMMITTED_REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        // Schedule periodic task to sample the tail stream cuts.
+        if (streamCutCatalogIntervalMs > 0) {
+            streamCutCatalogExecutor = Executors.newSingleThreadScheduledExecutor();
+            streamCutCatalogExecutor.scheduleWithFixedDelay(this::sampleStreamCuts, 0, streamCutCatalogIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            streamCutCatalogExecutor = null;
+        }
+
+        // Schedule periodic task to answer checkpoints with readers that are not used by onTrigger.
+        if (idleHeldEvents > 0) {
+            idleCheckpointExecutor = Executors.newSingleThreadScheduledExecutor();
+            idleCheckpointExecutor.scheduleWithFixedDelay(this::readCheckpointsOfIdleLeases,
+                    idleCheckpointIntervalMs, idleCheckpointIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            idleCheckpointExecutor = null;
+        }
 
         logger.debug("Created {}", new Object[]{this.getConfigAsString()});
     }
@@ -233,13 +455,478 @@ public class ConsumerPool implements AutoCloseable {
                 ", streamConfig=" + streamConfig +
                 ", checkpointPeriodMs=" + checkpointPeriodMs +
                 ", checkpointTimeoutMs=" + checkpointTimeoutMs +
+                ", maxReplayEvents=" + maxReplayEvents +
                 ", gracefulShutdownTimeoutMs=" + gracefulShutdownTimeoutMs +
                 ", minimumProcessingTimeMs=" + minimumProcessingTimeMs +
+                ", prefetchCapacity=" + prefetchCapacity +
+                ", dynamicReaderCount=" + dynamicReaderCount +
+                ", readerLagThresholdBytes=" + readerLagThresholdBytes +
+                ", idleHeldEvents=" + idleHeldEvents +
+                ", pointerLog=" + pointerLog +
+                ", commitMaxEvents=" + commitMaxEvents +
+                ", commitMaxLatencyMs=" + commitMaxLatencyMs +
+                ", maxSessionEvents=" + maxSessionEvents +
+                ", maxSessionBytes=" + maxSessionBytes +
+                ", useStreamCuts=" + useStreamCuts +
+                ", stateChunkSize=" + stateChunkSize +
+                ", startTimeMs=" + startTimeMs +
+                ", streamCutCatalogIntervalMs=" + streamCutCatalogIntervalMs +
+                ", streamCutCatalogMaxAgeMs=" + streamCutCatalogMaxAgeMs +
+                ", adaptiveCheckpointPeriod=" + adaptiveCheckpointPeriod +
+                ", minCheckpointPeriodMs=" + minCheckpointPeriodMs +
+                ", maxCheckpointPeriodMs=" + maxCheckpointPeriodMs +
+                ", nodeId=" + nodeId +
                 '}';
     }
 
     private void performRegularCheckpoint() {
-        performCheckpoint(false, null);
+        // Sample the sessions before the checkpoint commits them.
+        final long[] uncommitted = adaptiveCheckpointPeriod ? getMaxUncommitted() : null;
+        try {
+            if (useStreamCuts) {
+                performStreamCut();
+            } else {
+                performCheckpoint(false, null);
+            }
+            if (pointerLog != null) {
+                truncatePointerLog();
+            }
+        } finally {
+            if (adaptiveCheckpointPeriod) {
+                scheduleRegularCheckpoint(getNextCheckpointPeriod(uncommitted[0], uncommitted[1]));
+            }
+        }
+    }
+
+    /**
+     * @return the name of the saved checkpoint and the generation of the saved stream cuts, which change whenever progress is saved
+     */
+    private static String getSavedProgress(final StateMap stateMap) {
+        return stateMap.get(STATE_KEY_CHECKPOINT_NAME) + "," + stateMap.get(STATE_KEY_STREAM_CUTS_GENERATION);
+    }
+
+    /**
+     * In low-latency delivery mode, truncates the pointer log of this node when the state has a new checkpoint or new stream cuts.
+     * Only the primary node saves them, so each node checks the state after each regular checkpoint.
+     */
+    private void truncatePointerLog() {
+        synchronized (checkpointMutex) {
+            try {
+                final String progress = getSavedProgress(checkpointStore.getState());
+                if (!progress.equals(savedProgress)) {
+                    pointerLog.truncate();
+                    savedProgress = progress;
+                }
+            } catch (final Exception e) {
+                logger.warn("truncatePointerLog: unable to truncate the pointer log", e);
+                // Ignore error. We will retry when we are scheduled again.
+            }
+        }
+    }
+
+    /**
+     * Adds the tail stream cut of each stream to its StreamCutCatalog. Only the primary node does this.
+     */
+    private void sampleStreamCuts() {
+        if (!isPrimaryNode.get()) {
+            return;
+        }
+        try {
+            final long time = System.currentTimeMillis();
+            for (final Stream stream : streams) {
+                final StreamCut tailStreamCut = streamManager.getStreamInfo(stream.getScope(), stream.getStreamName()).getTailStreamCut();
+                synchronized (streamCutCatalogs) {
+                    StreamCutCatalog catalog = streamCutCatalogs.get(stream);
+                    if (catalog == null) {
+                        catalog = new StreamCutCatalog(logger, clientConfig, stream, createScope);
+                        streamCutCatalogs.put(stream, catalog);
+                    }
+                    catalog.add(time, tailStreamCut, streamCutCatalogMaxAgeMs);
+                }
+            }
+        } catch (final Exception e) {
+            logger.warn("sampleStreamCuts: unable to add the tail stream cuts to the catalog", e);
+            // Ignore error. We will retry when we are scheduled again.
+        }
+    }
+
+    private void scheduleRegularCheckpoint(final long delayMs) {
+        try {
+            performCheckpointExecutor.schedule(this::performRegularCheckpoint, delayMs, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            logger.debug("scheduleRegularCheckpoint: checkpoint scheduler has been shut down");
+        }
+    }
+
+    /**
+     * @return the largest number of uncommitted events and bytes of the leases of this node
+     */
+    private long[] getMaxUncommitted() {
+        final long[] max = new long[2];
+        synchronized (activeLeases) {
+            for (final SimpleConsumerLease lease : activeLeases) {
+                max[0] = Math.max(max[0], lease.getUncommittedEventCount());
+                max[1] = Math.max(max[1], lease.getUncommittedBytes());
+            }
+            for (final SimpleConsumerLease lease : pooledLeases) {
+                max[0] = Math.max(max[0], lease.getUncommittedEventCount());
+                max[1] = Math.max(max[1], lease.getUncommittedBytes());
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the total number of uncommitted events and bytes of the leases of this node
+     */
+    private long[] getTotalUncommitted() {
+        final long[] total = new long[2];
+        synchronized (activeLeases) {
+            for (final SimpleConsumerLease lease : activeLeases) {
+                total[0] += lease.getUncommittedEventCount();
+                total[1] += lease.getUncommittedBytes();
+            }
+            for (final SimpleConsumerLease lease : pooledLeases) {
+                total[0] += lease.getUncommittedEventCount();
+                total[1] += lease.getUncommittedBytes();
+            }
+        }
+        return total;
+    }
+
+    private void reportUncommitted() {
+        final long[] uncommitted = getTotalUncommitted();
+        reportUncommitted(uncommitted[0], uncommitted[1]);
+    }
+
+    /**
+     * Reports the current number of uncommitted events and bytes of this node in the processor counters.
+     * Counters can only be adjusted, so they are adjusted by the change since the last report
+     * and their value is the current total of the cluster.
+     */
+    private synchronized void reportUncommitted(final long events, final long bytes) {
+        if (events == reportedUncommittedEvents && bytes == reportedUncommittedBytes) {
+            return;
+        }
+        try {
+            final ProcessSession session = sessionFactory.createSession();
+            session.adjustCounter(COUNTER_UNCOMMITTED_EVENTS, events - reportedUncommittedEvents, false);
+            session.adjustCounter(COUNTER_UNCOMMITTED_BYTES, bytes - reportedUncommittedBytes, false);
+            session.commit();
+            reportedUncommittedEvents = events;
+            reportedUncommittedBytes = bytes;
+        } catch (final Exception e) {
+            logger.debug("reportUncommitted: unable to adjust counters", e);
+        }
+    }
+
+    /**
+     * Returns the delay until the next regular checkpoint when the adaptive checkpoint period is enabled.
+     * <p>
+     * The load is measured by the fullest session of this node relative to the session limits, just before the checkpoint.
+     * The period is halved when this is above ADAPTIVE_HIGH_FILL and doubled when the readers have read nothing since
+     * the last checkpoint. Under a moderate load, it is moved back toward the configured checkpoint period.
+     * The result is kept between the minimum and maximum period and is at least twice the latency of the last checkpoint,
+     * so that checkpoints do not follow each other without any time to process events.
+     */
+    private long getNextCheckpointPeriod(final long uncommittedEvents, final long uncommittedBytes) {
+        final double fill = Math.max(
+                maxSessionEvents > 0 ? (double) uncommittedEvents / maxSessionEvents : 0.0,
+                maxSessionBytes > 0 ? (double) uncommittedBytes / maxSessionBytes : 0.0);
+        final long previousPeriod = currentCheckpointPeriodMs;
+        long period = previousPeriod;
+        if (fill >= ADAPTIVE_HIGH_FILL) {
+            period = period / 2;
+        } else if (uncommittedEvents == 0) {
+            period = period * 2;
+        } else if (fill < ADAPTIVE_HIGH_FILL / 4) {
+            period = period < checkpointPeriodMs
+                    ? Math.min(checkpointPeriodMs, period * 2)
+                    : Math.max(checkpointPeriodMs, period / 2);
+        }
+        period = Math.max(minCheckpointPeriodMs, Math.min(maxCheckpointPeriodMs, period));
+        period = Math.min(maxCheckpointPeriodMs, Math.max(period, 2 * lastCheckpointLatencyMs));
+        if (period != previousPeriod) {
+            logger.debug("getNextCheckpointPeriod: {} ms -> {} ms; uncommittedEvents={}, uncommittedBytes={}, lastCheckpointLatencyMs={}",
+                    new Object[]{previousPeriod, period, uncommittedEvents, uncommittedBytes, lastCheckpointLatencyMs});
+        }
+        currentCheckpointPeriodMs = period;
+        return period;
+    }
+
+    /**
+     * Reports the latency of a completed checkpoint and the current period in the processor counters.
+     * The totals can be divided by the number of checkpoints to obtain averages.
+     */
+    private void reportCheckpointMetrics(final long latencyMs) {
+        lastCheckpointLatencyMs = latencyMs;
+        try {
+            final ProcessSession session = sessionFactory.createSession();
+            session.adjustCounter(COUNTER_CHECKPOINTS, 1, false);
+            session.adjustCounter(COUNTER_CHECKPOINT_LATENCY_MS, latencyMs, false);
+            session.adjustCounter(COUNTER_CHECKPOINT_PERIOD_MS, currentCheckpointPeriodMs, false);
+            session.commit();
+        } catch (final Exception e) {
+            logger.debug("reportCheckpointMetrics: unable to adjust counters", e);
+        }
+    }
+
+    /**
+     * Saves the progress of the reader group as stream cuts, without a checkpoint barrier for the readers.
+     * <p>
+     * A checkpoint requires each reader to commit its session before it continues, so the slowest reader
+     * delays all others. Instead, the primary node generates stream cuts, which the readers answer within
+     * readNextEvent without returning them to the lease. Leases commit their sessions independently.
+     * <p>
+     * A stream cut reflects the events that have been read, not committed. So the primary node saves the
+     * new stream cuts as pending in the cluster state. Each node that sees the pending generation waits until
+     * all of its leases have committed the events read before that time, and then acknowledges the generation in
+     * the cluster state. Once every node with online readers has acknowledged it, the primary node saves the
+     * pending stream cuts as the stream cuts to start from. Only one generation is pending at a time.
+     * <p>
+     * When a node starts, it resets the reader group to the saved stream cuts and discards the pending ones, so that the events
+     * that were read but not committed by readers that were not closed cleanly are read again. The saved stream cuts are also
+     * used when the reader group is created again. The final checkpoint of a graceful shutdown is still performed with a checkpoint.
+     */
+    private void performStreamCut() {
+        logger.debug("performStreamCut: BEGIN");
+        synchronized (checkpointMutex) {
+            try {
+                StateMap stateMap = checkpointStore.getState();
+
+                // Acknowledge the pending generation once all events read before it was seen have been committed.
+                if (hasPendingStreamCuts(stateMap)) {
+                    final long pendingGeneration = parseLong(stateMap.get(STATE_KEY_PENDING_STREAM_CUTS_GENERATION));
+                    if (pendingGeneration > observedGeneration) {
+                        observedGeneration = pendingGeneration;
+                        observedGenerationTime = System.currentTimeMillis();
+                    }
+                }
+                if (observedGeneration > acknowledgedGeneration && isCommittedSince(observedGenerationTime)) {
+                    updateState(Collections.singletonMap(STATE_KEY_NODE_ACK_PREFIX + nodeId, Long.toString(observedGeneration)));
+                    acknowledgedGeneration = observedGeneration;
+                    logger.debug("performStreamCut: acknowledged generation {}", new Object[]{acknowledgedGeneration});
+                }
+
+                if (isPrimaryNode.get()) {
+                    // The state is only replaced if it has not changed since it was read,
+                    // so that pending stream cuts discarded by a node that reset the reader group are never saved.
+                    stateMap = checkpointStore.getState();
+                    if (hasPendingStreamCuts(stateMap)) {
+                        final long pendingGeneration = parseLong(stateMap.get(STATE_KEY_PENDING_STREAM_CUTS_GENERATION));
+                        if (isAcknowledgedByAllNodes(stateMap, getOnlineNodes(), pendingGeneration)) {
+                            final Map<String, String> updates = new HashMap<>();
+                            updates.put(STATE_KEY_STREAM_CUTS_BASE64, stateMap.get(STATE_KEY_PENDING_STREAM_CUTS_BASE64));
+                            updates.put(STATE_KEY_STREAM_CUTS_GENERATION, Long.toString(pendingGeneration));
+                            updates.put(STATE_KEY_STREAM_CUTS_TIME, ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ISO_INSTANT));
+                            // The latency is measured from the generation of the stream cuts until all nodes have acknowledged them.
+                            final long latencyMs = pendingGenerationTime == 0 ? 0 : System.currentTimeMillis() - pendingGenerationTime;
+                            updates.put(STATE_KEY_CHECKPOINT_LATENCY_MS, Long.toString(latencyMs));
+                            updates.put(STATE_KEY_CHECKPOINT_PERIOD_MS, Long.toString(currentCheckpointPeriodMs));
+                            if (replaceState(stateMap, updates)) {
+                                logger.debug("performStreamCut: saved stream cuts of generation {}", new Object[]{pendingGeneration});
+                                reportCheckpointMetrics(latencyMs);
+                            }
+                        }
+                    } else {
+                        pendingGenerationTime = System.currentTimeMillis();
+                        final Map<Stream, StreamCut> streamCuts = readerGroup.generateStreamCuts(initiateCheckpointExecutor)
+                                .get(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
+                        logger.debug("performStreamCut: generated stream cuts {}", new Object[]{streamCuts});
+                        final Map<String, String> updates = new HashMap<>();
+                        updates.put(STATE_KEY_READER_GROUP, readerGroupName);
+                        updates.put(STATE_KEY_PENDING_STREAM_CUTS_BASE64, serializeStreamCuts(streamCuts));
+                        updates.put(STATE_KEY_PENDING_STREAM_CUTS_GENERATION, Long.toString(getNextStreamCutGeneration(stateMap)));
+                        replaceState(stateMap, updates);
+                    }
+                }
+            } catch (final Exception e) {
+                logger.warn("performStreamCut: unable to save stream cuts", e);
+                // Ignore error. We will retry when we are scheduled again.
+            }
+        }
+        logger.debug("performStreamCut: END");
+    }
+
+    /**
+     * @return true if no lease of this node has an event that was read before the given time and has not been committed
+     */
+    private boolean isCommittedSince(final long time) {
+        synchronized (activeLeases) {
+            for (final SimpleConsumerLease lease : activeLeases) {
+                final long oldestUncommittedTime = lease.getOldestUncommittedTime();
+                if (oldestUncommittedTime != 0 && oldestUncommittedTime <= time) {
+                    return false;
+                }
+            }
+            for (final SimpleConsumerLease lease : pooledLeases) {
+                final long oldestUncommittedTime = lease.getOldestUncommittedTime();
+                if (oldestUncommittedTime != 0 && oldestUncommittedTime <= time) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param nodes the nodes with online readers (see getOnlineNodes)
+     * @return true if each of the nodes has acknowledged the generation or a later one
+     */
+    static boolean isAcknowledgedByAllNodes(final StateMap stateMap, final Set<String> nodes, final long generation) {
+        for (final String node : nodes) {
+            if (parseLong(stateMap.get(STATE_KEY_NODE_ACK_PREFIX + node)) < generation) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the state has stream cuts that are waiting for the acknowledgements of the nodes
+     */
+    static boolean hasPendingStreamCuts(final StateMap stateMap) {
+        final String pendingStreamCuts = stateMap.get(STATE_KEY_PENDING_STREAM_CUTS_BASE64);
+        return pendingStreamCuts != null && !pendingStreamCuts.isEmpty()
+                && parseLong(stateMap.get(STATE_KEY_PENDING_STREAM_CUTS_GENERATION)) > parseLong(stateMap.get(STATE_KEY_STREAM_CUTS_GENERATION));
+    }
+
+    /**
+     * Generations are never reused, even when pending stream cuts have been discarded,
+     * because a node may already have acknowledged the discarded generation.
+     */
+    static long getNextStreamCutGeneration(final StateMap stateMap) {
+        return Math.max(parseLong(stateMap.get(STATE_KEY_STREAM_CUTS_GENERATION)),
+                parseLong(stateMap.get(STATE_KEY_PENDING_STREAM_CUTS_GENERATION))) + 1;
+    }
+
+    /**
+     * @return the updates that discard the pending stream cuts
+     */
+    static Map<String, String> discardPendingStreamCuts() {
+        return Collections.singletonMap(STATE_KEY_PENDING_STREAM_CUTS_BASE64, "");
+    }
+
+    private Set<String> getOnlineNodes() {
+        final Set<String> nodes = new HashSet<>();
+        for (final String onlineReader : readerGroup.getOnlineReaders()) {
+            final int separator = onlineReader.indexOf(READER_ID_SEPARATOR);
+            if (separator > 0) {
+                nodes.add(onlineReader.substring(0, separator));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Updates some keys of the state if it has not changed since stateMap was read.
+     *
+     * @return false if the state has changed; the caller should retry later
+     */
+    private boolean replaceState(final StateMap stateMap, final Map<String, String> updates) throws IOException {
+        final Map<String, String> newState = new HashMap<>(stateMap.toMap());
+        newState.putAll(updates);
+        if (stateMap.getVersion() == -1) {
+            checkpointStore.setState(newState);
+            return true;
+        }
+        if (!checkpointStore.replace(stateMap, newState)) {
+            logger.debug("replaceState: the state has changed; not writing {}", new Object[]{updates.keySet()});
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Updates some keys of the state without overwriting the keys written concurrently by other nodes.
+     */
+    private void updateState(final Map<String, String> updates) throws IOException {
+        for (int attempt = 0; attempt < STATE_REPLACE_ATTEMPTS; attempt++) {
+            final StateMap stateMap = checkpointStore.getState();
+            final Map<String, String> newState = new HashMap<>(stateMap.toMap());
+            newState.putAll(updates);
+            if (stateMap.getVersion() == -1) {
+                checkpointStore.setState(newState);
+                return;
+            }
+            if (checkpointStore.replace(stateMap, newState)) {
+                return;
+            }
+        }
+        throw new IOException("Unable to update the state after " + STATE_REPLACE_ATTEMPTS + " attempts");
+    }
+
+    private static long parseLong(final String value) {
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    static String serializeStreamCuts(final Map<Stream, StreamCut> streamCuts) {
+        final List<String> encoded = new ArrayList<>();
+        for (final StreamCut streamCut : streamCuts.values()) {
+            encoded.add(new String(Base64.getEncoder().encode(streamCut.toBytes().array())));
+        }
+        return String.join(",", encoded);
+    }
+
+    static Map<Stream, StreamCut> deserializeStreamCuts(final String str) {
+        final Map<Stream, StreamCut> streamCuts = new HashMap<>();
+        for (final String encoded : str.split(",")) {
+            final StreamCut streamCut = StreamCut.fromBytes(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)));
+            streamCuts.put(streamCut.asImpl().getStream(), streamCut);
+        }
+        return streamCuts;
+    }
+
+    /**
+     * Writes the serialized checkpoint to the state map.
+     * It is compressed with gzip, encoded with base64, and split into chunks of at most chunkSize characters
+     * so that the state of streams with many segments remains small and no single value exceeds the limits of the state provider.
+     */
+    static void putCheckpointBytes(final Map<String, String> mapState, final byte[] checkpointBytes, final int chunkSize) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (final GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(checkpointBytes);
+        }
+        final String encoded = Base64.getEncoder().encodeToString(compressed.toByteArray());
+        final int step = chunkSize > 0 ? chunkSize : Math.max(1, encoded.length());
+        int chunks = 0;
+        for (int begin = 0; begin < encoded.length(); begin += step) {
+            mapState.put(STATE_KEY_CHECKPOINT_GZIP_BASE64_PREFIX + chunks, encoded.substring(begin, Math.min(encoded.length(), begin + step)));
+            chunks++;
+        }
+        mapState.put(STATE_KEY_CHECKPOINT_CHUNKS, Integer.toString(chunks));
+    }
+
+    /**
+     * Reads the serialized checkpoint written by putCheckpointBytes.
+     * The uncompressed value written by previous versions is also accepted.
+     *
+     * @return null if the state does not have a checkpoint
+     */
+    static byte[] getCheckpointBytes(final StateMap stateMap) throws IOException {
+        final String chunksStr = stateMap.get(STATE_KEY_CHECKPOINT_CHUNKS);
+        if (chunksStr == null) {
+            final String checkpointStr = stateMap.get(STATE_KEY_CHECKPOINT_BASE64);
+            return checkpointStr == null ? null : Base64.getDecoder().decode(checkpointStr);
+        }
+        final int chunks = Integer.parseInt(chunksStr);
+        final StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < chunks; i++) {
+            final String chunk = stateMap.get(STATE_KEY_CHECKPOINT_GZIP_BASE64_PREFIX + i);
+            if (chunk == null) {
+                throw new IOException("State is missing chunk " + i + " of " + chunks + " of the checkpoint.");
+            }
+            encoded.append(chunk);
+        }
+        final ByteArrayOutputStream checkpointBytes = new ByteArrayOutputStream();
+        try (final GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(encoded.toString())))) {
+            final byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                checkpointBytes.write(buffer, 0, length);
+            }
+        }
+        return checkpointBytes.toByteArray();
     }
 
     /**
@@ -258,21 +945,31 @@ public class ConsumerPool implements AutoCloseable {
                     logger.debug("performCheckpoint: onlineReaders ({})={}", new Object[]{onlineReaders.size(), onlineReaders});
                     final String checkpointName = (isFinal ? CHECKPOINT_NAME_FINAL_PREFIX : "") + UUID.randomUUID().toString();
                     logger.debug("performCheckpoint: Calling initiateCheckpoint; checkpointName={}", new Object[]{checkpointName});
+                    final long startTime = System.currentTimeMillis();
                     CompletableFuture<Checkpoint> checkpointFuture = readerGroup.initiateCheckpoint(checkpointName, initiateCheckpointExecutor);
                     logger.debug("performCheckpoint: Got future.");
                     Checkpoint checkpoint = checkpointFuture.get(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
-                    logger.debug("performCheckpoint: Checkpoint completed; checkpoint={}, positions={}", new Object[]{checkpoint, checkpoint.asImpl().getPositions()});
-                    // Get serialized checkpoint byte array and convert to base64 string.
-                    String checkpointStr = new String(Base64.getEncoder().encode(checkpoint.toBytes().array()));
-                    Map<String, String> mapState = new HashMap<>();
-                    // The final checkpoint does not have a reader group.
-                    if (!isFinal) {
-                        mapState.put(STATE_KEY_READER_GROUP, readerGroupName);
+                    final Map<Stream, StreamCut> positions = checkpoint.asImpl().getPositions();
+                    logger.debug("performCheckpoint: Checkpoint completed; checkpoint={}, positions={}", new Object[]{checkpoint, positions});
+                    final long latencyMs = System.currentTimeMillis() - startTime;
+                    // A checkpoint at the same positions as the saved one would restart the reader group at the same place.
+                    if (!isFinal && positions.equals(savedPositions)) {
+                        logger.debug("performCheckpoint: positions have not changed; not writing the state");
+                    } else {
+                        Map<String, String> mapState = new HashMap<>();
+                        // The final checkpoint does not have a reader group.
+                        if (!isFinal) {
+                            mapState.put(STATE_KEY_READER_GROUP, readerGroupName);
+                        }
+                        putCheckpointBytes(mapState, checkpoint.toBytes().array(), stateChunkSize);
+                        mapState.put(STATE_KEY_CHECKPOINT_NAME, checkpoint.getName());
+                        mapState.put(STATE_KEY_CHECKPOINT_TIME, ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ISO_INSTANT));
+                        mapState.put(STATE_KEY_CHECKPOINT_LATENCY_MS, Long.toString(latencyMs));
+                        mapState.put(STATE_KEY_CHECKPOINT_PERIOD_MS, Long.toString(currentCheckpointPeriodMs));
+                        checkpointStore.setState(mapState);
+                        savedPositions = positions;
                     }
-                    mapState.put(STATE_KEY_CHECKPOINT_BASE64, checkpointStr);
-                    mapState.put(STATE_KEY_CHECKPOINT_NAME, checkpoint.getName());
-                    mapState.put(STATE_KEY_CHECKPOINT_TIME, ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ISO_INSTANT));
-                    stateManager.setState(mapState, Scope.CLUSTER);
+                    reportCheckpointMetrics(latencyMs);
                 }
             } catch (final Exception e) {
                 logger.warn("performCheckpoint: timed out waiting for checkpoint to complete", e);
@@ -282,6 +979,38 @@ public class ConsumerPool implements AutoCloseable {
         logger.debug("performCheckpoint: END");
     }
 
+    /**
+     * When the success relationship is backpressured, NiFi stops calling onTrigger and the leases remain in the pool.
+     * Their readers would then never acknowledge checkpoints and the checkpoints of all nodes would time out.
+     * This task takes each lease that has been idle for longer than the interval out of the pool
+     * and lets it answer a pending checkpoint.
+     */
+    private void readCheckpointsOfIdleLeases() {
+        final long idleSinceTime = System.currentTimeMillis() - idleCheckpointIntervalMs;
+        final List<SimpleConsumerLease> leases = new ArrayList<>();
+        synchronized (activeLeases) {
+            final Iterator<SimpleConsumerLease> iterator = pooledLeases.iterator();
+            while (iterator.hasNext()) {
+                final SimpleConsumerLease lease = iterator.next();
+                if (lease.idleSinceTime <= idleSinceTime) {
+                    iterator.remove();
+                    activeLeases.add(lease);
+                    leases.add(lease);
+                }
+            }
+        }
+        for (final SimpleConsumerLease lease : leases) {
+            boolean keep = false;
+            try {
+                keep = lease.readCheckpointWhileIdle(idleHeldEvents);
+            } catch (final Exception e) {
+                logger.warn("readCheckpointsOfIdleLeases: reader {} failed", new Object[]{lease.readerId, e});
+            } finally {
+                lease.close(!keep);
+            }
+        }
+    }
+
     /**
      * We want to gracefully stop this processor.
      * This means that the last checkpoint written to the state must
@@ -302,6 +1031,13 @@ public class ConsumerPool implements AutoCloseable {
         logger.debug("gracefulShutdown: BEGIN");
         // Shutdown checkpoint scheduler so that it doesn't start a new checkpoint.
         performCheckpointExecutor.shutdown();
+        // Stop answering checkpoints in the background so that all pooled leases are drained below.
+        if (idleCheckpointExecutor != null) {
+            idleCheckpointExecutor.shutdown();
+        }
+        if (streamCutCatalogExecutor != null) {
+            streamCutCatalogExecutor.shutdown();
+        }
         // Create an executor that will run the shutdown tasks concurrently.
         ExecutorService gracefulShutdownExecutor = Executors.newCachedThreadPool();
         try {
@@ -319,6 +1055,10 @@ public class ConsumerPool implements AutoCloseable {
                 logger.info("Graceful shutdown completed successfully.");
             });
 
+            if (idleCheckpointExecutor != null) {
+                idleCheckpointExecutor.awaitTermination(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
+            }
+
             // Drain all leases until each one has reached a final checkpoint.
             for (; ; ) {
                 synchronized (activeLeases) {
@@ -371,36 +1111,109 @@ public class ConsumerPool implements AutoCloseable {
      * @return consumer to use or null if not available or necessary
      */
     public ConsumerLease obtainConsumer(final ProcessSession session, final ProcessContext processContext) {
-        // Attempt to get lease (reader) from queue.
-        synchronized (activeLeases) {
-            SimpleConsumerLease lease = pooledLeases.poll();
-            if (lease == null) {
-                final String readerId = generateReaderId();
-                final EventStreamReader<byte[]> reader = createPravegaReader(readerId);
-                consumerCreatedCountRef.incrementAndGet();
-                /**
-                 * For now return a new consumer lease. But we could later elect to
-                 * have this return null if we determine the broker indicates that
-                 * the lag time on all streams being monitored is sufficiently low.
-                 * For now we should encourage conservative use of threads because
-                 * having too many means we'll have at best useless threads sitting
-                 * around doing frequent network calls and at worst having consumers
-                 * sitting idle which could prompt excessive rebalances.
-                 */
-                lease = new SimpleConsumerLease(reader, readerId);
+        final int targetReaderCount = getTargetReaderCount();
+        final List<SimpleConsumerLease> retiredLeases = new ArrayList<>();
+        try {
+            // Attempt to get lease (reader) from queue.
+            synchronized (activeLeases) {
+                SimpleConsumerLease lease = pooledLeases.poll();
+                if (dynamicReaderCount) {
+                    // Retire idle readers above the target so that their segments are assigned to other readers.
+                    // Readers that have returned events that have not been committed are kept so that the events are not read again.
+                    final List<SimpleConsumerLease> busyLeases = new ArrayList<>();
+                    while (lease != null && getReaderCount() - retiredLeases.size() > targetReaderCount) {
+                        if (lease.hasUncommittedEvents()) {
+                            busyLeases.add(lease);
+                        } else {
+                            retiredLeases.add(lease);
+                        }
+                        lease = pooledLeases.poll();
+                    }
+                    pooledLeases.addAll(busyLeases);
+                    if (lease == null && getReaderCount() - retiredLeases.size() >= targetReaderCount) {
+                        logger.debug("obtainConsumer: reached target reader count {}", new Object[]{targetReaderCount});
+                        return null;
+                    }
+                }
+                if (lease == null) {
+                    final String readerId = generateReaderId();
+                    final EventStreamReader<byte[]> reader = createPravegaReader(readerId);
+                    consumerCreatedCountRef.incrementAndGet();
+                    final EventPrefetcher prefetcher = prefetchCapacity > 0
+                            ? new EventPrefetcher(logger, reader, readerId, prefetchCapacity, prefetchExecutor)
+                            : null;
+                    lease = new SimpleConsumerLease(reader, prefetcher, readerId);
+                }
+
+                // Bind the reader in the lease to this session.
+                lease.setProcessSession(session, processContext);
+
+                activeLeases.add(lease);
+                leasesObtainedCountRef.incrementAndGet();
+                return lease;
             }
+        } finally {
+            for (final SimpleConsumerLease lease : retiredLeases) {
+                logger.info("Retiring idle reader {}; target reader count is {}.", new Object[]{lease.readerId, targetReaderCount});
+                lease.close(true);
+            }
+        }
+    }
 
-            // Bind the reader in the lease to this session.
-            lease.setProcessSession(session, processContext);
+    /**
+     * @return the number of readers that have been created and not closed
+     */
+    private long getReaderCount() {
+        return consumerCreatedCountRef.get() - consumerClosedCountRef.get();
+    }
 
-            activeLeases.add(lease);
-            leasesObtainedCountRef.incrementAndGet();
-            return lease;
+    /**
+     * Returns the number of readers that this node should use.
+     * If the dynamic reader count is disabled, this is the maximum number of concurrent tasks.
+     * Otherwise, this is the value last determined by refreshTargetReaderCount.
+     */
+    int getTargetReaderCount() {
+        return dynamicReaderCount ? targetReaderCount : maxConcurrentLeases;
+    }
+
+    /**
+     * Determines the number of readers that this node should use.
+     * The segments of the streams are split evenly across the nodes that have online readers
+     * in the reader group. Nodes are identified by the prefix of their reader IDs.
+     * This share is then scaled by the unread bytes of the reader group relative to the lag threshold,
+     * so that a reader group without lag uses a single reader on each node.
+     * This is run by the checkpoint scheduler every READER_SIZING_INTERVAL_MS.
+     */
+    private void refreshTargetReaderCount() {
+        try {
+            int segmentCount = 0;
+            for (Stream stream : streams) {
+                final StreamInfo streamInfo = streamManager.getStreamInfo(stream.getScope(), stream.getStreamName());
+                segmentCount += streamInfo.getTailStreamCut().asImpl().getPositions().size();
+            }
+            final Set<String> nodes = getOnlineNodes();
+            nodes.add(nodeId);
+            final int fairShare = (segmentCount + nodes.size() - 1) / nodes.size();
+            final long unreadBytes = readerGroup.getMetrics().unreadBytes();
+            final double lagFraction = Math.min(1.0, (double) unreadBytes / readerLagThresholdBytes);
+            final int newTarget = Math.max(1, Math.min(maxConcurrentLeases, (int) Math.ceil(fairShare * lagFraction)));
+            if (newTarget != targetReaderCount) {
+                logger.info("Target reader count changed from {} to {}; segments={}, nodes={}, unreadBytes={}",
+                        new Object[]{targetReaderCount, newTarget, segmentCount, nodes.size(), unreadBytes});
+            }
+            targetReaderCount = newTarget;
+        } catch (final Exception e) {
+            logger.warn("refreshTargetReaderCount: unable to determine target reader count", e);
+            // Ignore error. We will retry when we are scheduled again.
         }
     }
 
+    /**
+     * Reader IDs are prefixed by the ID of this node so that the number of nodes
+     * can be determined from the online readers of the reader group.
+     */
     protected String generateReaderId() {
-        return UUID.randomUUID().toString().replace("-", "");
+        return nodeId + READER_ID_SEPARATOR + UUID.randomUUID().toString().replace("-", "");
     }
 
     /**
@@ -423,6 +1236,16 @@ public class ConsumerPool implements AutoCloseable {
      */
     @Override
     public void close() {
+        // An idle lease that is taken out of the pool must be back in the pool, or closed, before the pool is drained.
+        // Otherwise it would be closed after the reader group and its held events could not be released.
+        if (idleCheckpointExecutor != null) {
+            idleCheckpointExecutor.shutdownNow();
+            try {
+                idleCheckpointExecutor.awaitTermination(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                logger.error("ConsumerPool.close: Exception", e);
+            }
+        }
         // Leases should have been closed in gracefulShutdown. In case they were not, try again.
         final List<SimpleConsumerLease> leases = new ArrayList<>();
         synchronized (activeLeases) {
@@ -433,22 +1256,76 @@ public class ConsumerPool implements AutoCloseable {
         });
         performCheckpointExecutor.shutdownNow();
         initiateCheckpointExecutor.shutdownNow();
+        if (streamCutCatalogExecutor != null) {
+            streamCutCatalogExecutor.shutdownNow();
+        }
         try {
             performCheckpointExecutor.awaitTermination(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
             initiateCheckpointExecutor.awaitTermination(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
+            if (streamCutCatalogExecutor != null) {
+                streamCutCatalogExecutor.awaitTermination(checkpointTimeoutMs, TimeUnit.MILLISECONDS);
+            }
         } catch (InterruptedException e) {
             logger.error("ConsumerPool.close: Exception", e);
         }
+        // No events of this node remain uncommitted.
+        reportUncommitted(0, 0);
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+        if (pointerLog != null) {
+            pointerLog.close();
+        }
         readerGroup.close();
         readerGroupManager.close();
+        streamManager.close();
+        checkpointStore.close();
+        synchronized (streamCutCatalogs) {
+            streamCutCatalogs.values().forEach(StreamCutCatalog::close);
+            streamCutCatalogs.clear();
+        }
     }
 
-    private void closeReader(final EventStreamReader<byte[]> reader) {
+    /**
+     * Closes the reader of a lease.
+     * <p>
+     * Closing a reader releases its segments at the position after the last event that it returned.
+     * If the lease has events that have not been committed, the reader is instead taken offline at the position
+     * after its last committed event, so that the reader group reads these events again.
+     */
+    private void closeReader(final SimpleConsumerLease lease) {
         consumerClosedCountRef.incrementAndGet();
+        if (lease.prefetcher != null) {
+            // The prefetch thread must stop using the reader before it is closed.
+            lease.prefetcher.close();
+        }
+        if (lease.hasUncommittedEvents()) {
+            final Position committedPosition = lease.getCommittedPosition();
+            logger.info("Reader {} has events that have not been committed; releasing its segments at position {}",
+                    new Object[]{lease.readerId, committedPosition});
+            try {
+                try {
+                    readerGroup.readerOffline(lease.readerId, committedPosition);
+                } catch (final Exception e) {
+                    // For instance, the reader has acquired segments since the position.
+                    // The positions of the last checkpoint in the reader group state are used instead, which can only cause duplicates.
+                    logger.debug("closeReader: unable to take reader {} offline at position {}; using the reader group state",
+                            new Object[]{lease.readerId, committedPosition, e});
+                    readerGroup.readerOffline(lease.readerId, null);
+                }
+            } catch (final Exception e) {
+                // Closing the reader would release its segments after the events that have not been committed.
+                // Leave it online instead. This holds up its segments and the checkpoints of the reader group
+                // until it is taken offline, but the events are not lost.
+                logger.error("Failed to take reader {} offline; the reader is left open so that events that have not been committed "
+                        + "are read again", new Object[]{lease.readerId, e});
+                return;
+            }
+        }
         try {
-            reader.close();
+            lease.reader.close();
         } catch (Exception e) {
-            logger.warn("Failed while closing " + reader, e);
+            logger.warn("Failed while closing " + lease.reader, e);
         }
     }
 
@@ -486,16 +1363,26 @@ public class ConsumerPool implements AutoCloseable {
         private volatile ProcessSession session;
         private volatile ProcessContext processContext;
         private volatile boolean closedConsumer;
+        private volatile long idleSinceTime;    // the time when this lease was returned to the pool
 
-        private SimpleConsumerLease(final EventStreamReader<byte[]> reader, final String readerId) {
+        private SimpleConsumerLease(final EventStreamReader<byte[]> reader, final EventPrefetcher prefetcher, final String readerId) {
             super(
                     clientConfig,
                     reader,
+                    prefetcher,
                     readerId,
                     checkpointTimeoutMs,
+                    maxReplayEvents,
                     minimumProcessingTimeMs,
                     readerFactory,
                     writerFactory,
+                    outputFactory.get(),
+                    pointerLog != null || useStreamCuts,
+                    pointerLog,
+                    commitMaxEvents,
+                    commitMaxLatencyMs,
+                    maxSessionEvents,
+                    maxSessionBytes,
                     logger);
         }
 
@@ -535,12 +1422,13 @@ public class ConsumerPool implements AutoCloseable {
             synchronized (activeLeases) {
                 activeLeases.remove(this);
                 if (!(forceClose || isPoisoned())) {
+                    idleSinceTime = System.currentTimeMillis();
                     addedToPool = pooledLeases.offer(this);
                 }
             }
             if (!addedToPool) {
                 closedConsumer = true;
-                closeReader(reader);
+                closeReader(this);
                 logger.debug("SimpleConsumerLease.close: Reader {} closed", new Object[]{readerId});
             }
         }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.EventRead;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.ProcessSession;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.apache.nifi.processors.pravega.ConsumePravega.ATTR_EVENT_COUNT;
+import static org.apache.nifi.processors.pravega.ConsumePravega.ATTR_EVENT_POINTER;
+import static org.apache.nifi.processors.pravega.ConsumePravega.REL_SUCCESS;
+
+/**
+ * Writes the events read by a ConsumerLease to FlowFiles in the session of the lease.
+ * <p>
+ * Each lease has its own instance so implementations do not need to be thread-safe.
+ * Events may be buffered until flush is called, which happens before the session is committed
+ * at each checkpoint. Buffered events are discarded by reset when the session is rolled back.
+ */
+public abstract class EventOutput {
+
+    static final AllowableValue OUTPUT_MODE_FLOWFILE_PER_EVENT = new AllowableValue(
+            "flowfile-per-event",
+            "FlowFile per event",
+            "Each event is written to its own FlowFile.");
+    static final AllowableValue OUTPUT_MODE_BATCH = new AllowableValue(
+            "batch",
+            "Batch",
+            "Events are appended to a single FlowFile until the maximum number of events or bytes is reached "
+                    + "or a checkpoint occurs. Events are separated using the configured framing.");
+
+    static final AllowableValue FRAMING_DEMARCATOR = new AllowableValue(
+            "demarcator",
+            "Demarcator",
+            "Events are separated by the demarcator.");
+    static final AllowableValue FRAMING_LENGTH_PREFIXED = new AllowableValue(
+            "length-prefixed",
+            "Length-prefixed",
+            "Each event is preceded by its length as a 4-byte big-endian integer.");
+
+    protected final ComponentLog logger;
+    protected final URI controllerURI;
+    private final String transitUriPrefix;
+
+    EventOutput(final ComponentLog logger, final URI controllerURI) {
+        this.logger = logger;
+        this.controllerURI = controllerURI;
+        this.transitUriPrefix = controllerURI + "/";
+    }
+
+    /**
+     * Adds an event to the session or buffers it.
+     */
+    abstract void write(ProcessSession session, EventRead<byte[]> eventRead);
+
+    /**
+     * Writes any buffered events to the session.
+     */
+    void flush(final ProcessSession session) {
+    }
+
+    /**
+     * Discards any buffered events.
+     */
+    void reset() {
+    }
+
+    protected String getTransitUri(final EventRead<byte[]> eventRead) {
+        return getTransitUri(eventRead.getEventPointer().toString());
+    }
+
+    protected String getTransitUri(final String eventPointer) {
+        return transitUriPrefix.concat(eventPointer);
+    }
+
+    /**
+     * Writes each event to its own FlowFile.
+     */
+    static class FlowFilePerEventOutput extends EventOutput {
+
+        FlowFilePerEventOutput(final ComponentLog logger, final URI controllerURI) {
+            super(logger, controllerURI);
+        }
+
+        /**
+         * This is called for every event so it avoids temporary objects where possible.
+         * The event pointer is converted to a string once and shared by the attribute and the transit URI.
+         */
+        @Override
+        void write(final ProcessSession session, final EventRead<byte[]> eventRead) {
+            final byte[] value = eventRead.getEvent();
+            if (logger.isDebugEnabled()) {
+                logger.debug("writeData: size={}, eventRead={}", new Object[]{value.length, eventRead});
+            }
+            FlowFile flowFile = session.create();
+            if (value != null) {
+                flowFile = session.write(flowFile, out -> {
+                    out.write(value);
+                });
+            }
+            final String eventPointer = eventRead.getEventPointer().toString();
+            flowFile = session.putAttribute(flowFile, ATTR_EVENT_POINTER, eventPointer);
+            session.getProvenanceReporter().receive(flowFile, getTransitUri(eventPointer));
+            session.transfer(flowFile, REL_SUCCESS);
+        }
+    }
+
+    /**
+     * Appends events to a buffer and writes it to a single FlowFile when the maximum number of events
+     * or bytes has been reached, or when flushed at a checkpoint.
+     * The FlowFile is given the event pointer of its first event and the number of events.
+     */
+    static class BatchOutput extends EventOutput {
+        private final int maxEvents;
+        private final long maxBytes;
+        private final boolean lengthPrefixed;
+        private final byte[] demarcator;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private EventRead<byte[]> firstEvent;
+        private int eventCount;
+
+        BatchOutput(final ComponentLog logger, final URI controllerURI, final int maxEvents, final long maxBytes,
+                    final boolean lengthPrefixed, final byte[] demarcator) {
+            super(logger, controllerURI);
+            this.maxEvents = maxEvents;
+            this.maxBytes = maxBytes;
+            this.lengthPrefixed = lengthPrefixed;
+            this.demarcator = demarcator;
+        }
+
+        @Override
+        void write(final ProcessSession session, final EventRead<byte[]> eventRead) {
+            final byte[] value = eventRead.getEvent();
+            if (eventCount > 0 && buffer.size() + value.length > maxBytes) {
+                flush(session);
+            }
+            if (eventCount == 0) {
+                firstEvent = eventRead;
+            } else if (!lengthPrefixed) {
+                buffer.write(demarcator, 0, demarcator.length);
+            }
+            if (lengthPrefixed) {
+                buffer.write(value.length >>> 24);
+                buffer.write(value.length >>> 16);
+                buffer.write(value.length >>> 8);
+                buffer.write(value.length);
+            }
+            buffer.write(value, 0, value.length);
+            eventCount++;
+            if (eventCount >= maxEvents || buffer.size() >= maxBytes) {
+                flush(session);
+            }
+        }
+
+        @Override
+        void flush(final ProcessSession session) {
+            if (eventCount == 0) {
+                return;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("flush: eventCount={}, size={}", new Object[]{eventCount, buffer.size()});
+            }
+            FlowFile flowFile = session.create();
+            flowFile = session.write(flowFile, out -> buffer.writeTo(out));
+            final String eventPointer = firstEvent.getEventPointer().toString();
+            final Map<String, String> attributes = new HashMap<>(4);
+            attributes.put(ATTR_EVENT_POINTER, eventPointer);
+            attributes.put(ATTR_EVENT_COUNT, String.valueOf(eventCount));
+            flowFile = session.putAllAttributes(flowFile, attributes);
+            session.getProvenanceReporter().receive(flowFile, getTransitUri(eventPointer));
+            session.transfer(flowFile, REL_SUCCESS);
+            reset();
+        }
+
+        @Override
+        void reset() {
+            buffer.reset();
+            firstEvent = null;
+            eventCount = 0;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.apache.nifi.logging.ComponentLog;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A node-local log of the event pointers that have been committed to a session in low-latency delivery mode.
+ * <p>
+ * In this mode, sessions are committed before the reader group reaches a checkpoint. After a crash, the reader
+ * group restarts from the last checkpoint and the events committed since then are read again.
+ * When the log is opened, the pointers from the previous run are loaded and events with these pointers
+ * are skipped when they are read again on this node.
+ * <p>
+ * Pointers are appended after the session has been committed, so a crash between the two can only cause
+ * a duplicate, never a lost event. The log is written to the operating system on each append but it is not
+ * synced to disk. When the log exceeds MAX_FILE_BYTES, it replaces the previous file and a new log is started.
+ * <p>
+ * A pointer that is kept too long is dangerous: if the events are read again from an earlier position,
+ * for instance after the state has been cleared, the event would be skipped and lost. Therefore, the log is
+ * truncated whenever a checkpoint has been saved (see truncate), and it is discarded when a new reader group is created.
+ * Losing a pointer can only cause a duplicate.
+ */
+public class EventPointerLog implements Closeable {
+
+    static final long MAX_FILE_BYTES = 16 * 1024 * 1024;
+
+    private final ComponentLog logger;
+    private final File file;
+    private final File previousFile;
+    private final Set<String> replayedPointers = ConcurrentHashMap.newKeySet();
+    private BufferedWriter writer;   // must have lock on this to access
+    private long fileBytes;          // must have lock on this to access
+
+    /**
+     * @param replay if true, the pointers from the previous run are loaded; otherwise the previous log is deleted
+     */
+    EventPointerLog(final ComponentLog logger, final File file, final boolean replay) throws IOException {
+        this.logger = logger;
+        this.file = file;
+        this.previousFile = new File(file.getPath() + ".previous");
+        if (replay) {
+            load(previousFile);
+            load(file);
+            if (!replayedPointers.isEmpty()) {
+                logger.info("Loaded {} committed event pointers from {}; these events will be skipped if they are read again.",
+                        new Object[]{replayedPointers.size(), file});
+            }
+        } else if (Files.deleteIfExists(previousFile.toPath()) | Files.deleteIfExists(file.toPath())) {
+            logger.info("Deleted the committed event pointers of a previous reader group from {}.", new Object[]{file});
+        }
+        this.fileBytes = file.length();
+        this.writer = open();
+    }
+
+    private void load(final File source) throws IOException {
+        if (!source.exists()) {
+            return;
+        }
+        try (final BufferedReader reader = Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    replayedPointers.add(line);
+                }
+            }
+        }
+    }
+
+    private BufferedWriter open() throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Appends the pointers of events whose session has been committed.
+     */
+    synchronized void append(final List<String> eventPointers) throws IOException {
+        if (eventPointers.isEmpty()) {
+            return;
+        }
+        for (final String eventPointer : eventPointers) {
+            writer.write(eventPointer);
+            writer.newLine();
+            fileBytes += eventPointer.length() + 1;
+        }
+        writer.flush();
+        if (fileBytes > MAX_FILE_BYTES) {
+            rollOver();
+            logger.debug("append: rolled over {}", new Object[]{file});
+        }
+    }
+
+    /**
+     * Removes the pointers that were logged before the previous call and keeps those logged since then.
+     * <p>
+     * This is called when the state has a new checkpoint, which a restart will not go back beyond.
+     * Pointers logged before the previous checkpoint was saved belong to events that were read before this checkpoint
+     * was initiated, so they are no longer needed. Pointers logged since then may belong to events after this checkpoint.
+     * If this node saw the previous checkpoint late, some pointers are removed early, which can only cause duplicates.
+     */
+    synchronized void truncate() throws IOException {
+        rollOver();
+        logger.debug("truncate: truncated {}", new Object[]{file});
+    }
+
+    // must have lock on this to call
+    private void rollOver() throws IOException {
+        writer.close();
+        Files.move(file.toPath(), previousFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        fileBytes = 0;
+        writer = open();
+    }
+
+    /**
+     * Returns true if an event with this pointer was committed before the last restart.
+     * Each pointer is only reported once.
+     */
+    boolean isReplayed(final String eventPointer) {
+        return !replayedPointers.isEmpty() && replayedPointers.remove(eventPointer);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (final IOException e) {
+            logger.warn("Failed to close {}", new Object[]{file, e});
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EventPointerLog{file=" + file + ", replayedPointers=" + replayedPointers.size() + "}";
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.EventRead;
+import io.pravega.client.stream.EventStreamReader;
+import io.pravega.client.stream.ReinitializationRequiredException;
+import org.apache.nifi.logging.ComponentLog;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads events from a Pravega reader on a dedicated thread into a bounded buffer.
+ * <p>
+ * A ConsumerLease drains the buffer instead of calling readNextEvent on the onTrigger thread.
+ * When the reader returns a checkpoint, it is added to the buffer and the prefetcher stops reading
+ * until the lease calls releaseCheckpoint. The lease does this only after it has committed the session
+ * with the events before the checkpoint, which preserves the checkpoint semantics of reading synchronously.
+ * <p>
+ * Events in the buffer when the lease is closed have been returned by the reader but have not been committed.
+ * The pool then takes the reader offline at the position of its last committed event instead of simply closing it,
+ * so that these events are read again by the reader group (see ConsumerPool.closeReader).
+ */
+public class EventPrefetcher implements Closeable {
+
+    /**
+     * The timeout of each call to readNextEvent. This limits the time needed to stop the prefetcher.
+     */
+    static final long READ_TIMEOUT_MS = 1000;
+
+    private final ComponentLog logger;
+    private final EventStreamReader<byte[]> reader;
+    private final String readerId;
+    private final BlockingQueue<EventRead<byte[]>> buffer;
+    private final Semaphore checkpointReleased = new Semaphore(0);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private Thread runner = null;    // must have lock on this to access
+    private volatile boolean closed = false;
+    private volatile Exception failure = null;
+
+    EventPrefetcher(final ComponentLog logger, final EventStreamReader<byte[]> reader, final String readerId,
+                    final int capacity, final ExecutorService executor) {
+        this.logger = logger;
+        this.reader = reader;
+        this.readerId = readerId;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        executor.submit(this::run);
+    }
+
+    private void run() {
+        logger.debug("EventPrefetcher.run: BEGIN: readerId={}", new Object[]{readerId});
+        synchronized (this) {
+            if (closed) {
+                stopped.countDown();
+                return;
+            }
+            runner = Thread.currentThread();
+        }
+        try {
+            while (!closed) {
+                final EventRead<byte[]> eventRead = reader.readNextEvent(READ_TIMEOUT_MS);
+                if (eventRead.isCheckpoint()) {
+                    buffer.put(eventRead);
+                    // The reader must not read past the checkpoint until the lease has committed the preceding events.
+                    checkpointReleased.acquire();
+                } else if (eventRead.getEvent() != null) {
+                    buffer.put(eventRead);
+                }
+            }
+        } catch (final InterruptedException e) {
+            // Closed.
+        } catch (final Exception e) {
+            if (!closed) {
+                logger.warn("EventPrefetcher: reader {} failed", new Object[]{readerId, e});
+                failure = e;
+            }
+        } finally {
+            synchronized (this) {
+                runner = null;
+                // Clear the interrupt so that it does not affect the next task of the pooled thread.
+                Thread.interrupted();
+            }
+            stopped.countDown();
+            logger.debug("EventPrefetcher.run: END: readerId={}", new Object[]{readerId});
+        }
+    }
+
+    /**
+     * Returns the next event or checkpoint from the buffer.
+     *
+     * @return null if nothing was read within the timeout
+     */
+    EventRead<byte[]> poll(final long timeoutMs) throws ReinitializationRequiredException, InterruptedException {
+        EventRead<byte[]> eventRead = buffer.poll();
+        if (eventRead == null) {
+            throwIfFailed();
+            eventRead = buffer.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            if (eventRead == null) {
+                throwIfFailed();
+            }
+        }
+        return eventRead;
+    }
+
+    /**
+     * Allows the reader to continue past the last checkpoint returned by poll.
+     */
+    void releaseCheckpoint() {
+        checkpointReleased.release();
+    }
+
+    int getBufferedCount() {
+        return buffer.size();
+    }
+
+    /**
+     * @return true if the buffer contains a checkpoint
+     */
+    boolean hasBufferedCheckpoint() {
+        return buffer.stream().anyMatch(EventRead::isCheckpoint);
+    }
+
+    /**
+     * @return true if the buffer contains any event, as opposed to only a checkpoint
+     */
+    boolean hasBufferedEvents() {
+        return buffer.stream().anyMatch(eventRead -> eventRead.getEvent() != null);
+    }
+
+    private void throwIfFailed() throws ReinitializationRequiredException {
+        final Exception e = failure;
+        if (e instanceof ReinitializationRequiredException) {
+            throw (ReinitializationRequiredException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stops the prefetch thread. The reader can be closed once this returns.
+     * The buffered events are kept so that the lease can tell whether any of them had not been committed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+        try {
+            if (!stopped.await(2 * READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                logger.warn("EventPrefetcher: timed out waiting for reader {} to stop", new Object[]{readerId});
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EventPrefetcher{readerId='" + readerId + "', buffered=" + buffer.size() + "}";
+    }
+}
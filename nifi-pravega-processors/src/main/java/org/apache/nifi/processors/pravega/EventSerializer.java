@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.Serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hands the content of an event to Pravega without copying it, like ByteArraySerializer does for arrays.
+ * Pravega's ByteBufferSerializer copies every event into a newly allocated buffer.
+ * Each event must have its own buffer that is not modified after it has been written.
+ */
+public class EventSerializer implements Serializer<ByteBuffer> {
+
+    @Override
+    public ByteBuffer serialize(final ByteBuffer value) {
+        return value.slice();
+    }
+
+    @Override
+    public ByteBuffer deserialize(final ByteBuffer serializedValue) {
+        return serializedValue.slice();
+    }
+}
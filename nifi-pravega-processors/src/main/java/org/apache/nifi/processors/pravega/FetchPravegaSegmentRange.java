@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.BatchClientFactory;
+import io.pravega.client.ClientConfig;
+import io.pravega.client.batch.SegmentIterator;
+import io.pravega.client.batch.SegmentRange;
+import io.pravega.client.batch.impl.SegmentRangeImpl;
+import io.pravega.client.segment.impl.Segment;
+import io.pravega.client.stream.impl.ByteArraySerializer;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.nifi.processors.pravega.ConsumePravega.ATTR_EVENT_COUNT;
+import static org.apache.nifi.processors.pravega.ConsumePravega.PROP_DEMARCATOR;
+import static org.apache.nifi.processors.pravega.ConsumePravega.PROP_FRAMING;
+import static org.apache.nifi.processors.pravega.ConsumePravega.PROP_MAX_EVENTS_PER_FLOWFILE;
+import static org.apache.nifi.processors.pravega.ConsumePravega.PROP_MAX_FLOWFILE_SIZE;
+import static org.apache.nifi.processors.pravega.ListPravegaSegmentRanges.ATTR_END_OFFSET;
+import static org.apache.nifi.processors.pravega.ListPravegaSegmentRanges.ATTR_SCOPE;
+import static org.apache.nifi.processors.pravega.ListPravegaSegmentRanges.ATTR_SEGMENT_ID;
+import static org.apache.nifi.processors.pravega.ListPravegaSegmentRanges.ATTR_START_OFFSET;
+import static org.apache.nifi.processors.pravega.ListPravegaSegmentRanges.ATTR_STREAM;
+
+@Tags({"Pravega", "Nautilus", "Fetch", "Get", "Batch", "Backfill", "Segment", "Stream"})
+@CapabilityDescription("Reads the events of a segment range listed by ListPravegaSegmentRanges with the Pravega batch client. "
+        + "Ranges are read independently of any reader group, so they can be fetched in parallel by all nodes and concurrent tasks. "
+        + "The events are written to FlowFiles of up to Max Events per FlowFile events, separated using the configured framing. "
+        + "The events of a range are in order, but there is no order between ranges.")
+@ReadsAttributes({
+        @ReadsAttribute(attribute = ListPravegaSegmentRanges.ATTR_SCOPE, description = "The scope of the stream."),
+        @ReadsAttribute(attribute = ListPravegaSegmentRanges.ATTR_STREAM, description = "The name of the stream."),
+        @ReadsAttribute(attribute = ListPravegaSegmentRanges.ATTR_SEGMENT_ID, description = "The ID of the segment."),
+        @ReadsAttribute(attribute = ListPravegaSegmentRanges.ATTR_START_OFFSET, description = "The offset of the first event of the range."),
+        @ReadsAttribute(attribute = ListPravegaSegmentRanges.ATTR_END_OFFSET, description = "The offset after the last event of the range."),
+})
+@WritesAttributes({
+        @WritesAttribute(attribute = ListPravegaSegmentRanges.ATTR_START_OFFSET, description = "The offset of the first event in the FlowFile."),
+        @WritesAttribute(attribute = ListPravegaSegmentRanges.ATTR_END_OFFSET, description = "The offset after the last event in the FlowFile."),
+        @WritesAttribute(attribute = ConsumePravega.ATTR_EVENT_COUNT, description = "The number of events in the FlowFile."),
+})
+@InputRequirement(InputRequirement.Requirement.INPUT_REQUIRED)
+@SeeAlso({ListPravegaSegmentRanges.class, ConsumePravega.class})
+public class FetchPravegaSegmentRange extends AbstractPravegaProcessor {
+
+    static final Relationship REL_SUCCESS = new Relationship.Builder()
+            .name("success")
+            .description("FlowFiles with the events of a segment range are routed to this relationship.")
+            .build();
+
+    static final Relationship REL_FAILURE = new Relationship.Builder()
+            .name("failure")
+            .description("A segment range that cannot be read (for instance because it has been truncated) is routed to this relationship.")
+            .build();
+
+    static final List<PropertyDescriptor> DESCRIPTORS;
+    static final Set<Relationship> RELATIONSHIPS;
+
+    static {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(PROP_CONTROLLER);
+        descriptors.add(PROP_KEYCLOAK_JSON);
+        descriptors.add(PROP_CREATE_SCOPE);
+        descriptors.add(PROP_MAX_EVENTS_PER_FLOWFILE);
+        descriptors.add(PROP_MAX_FLOWFILE_SIZE);
+        descriptors.add(PROP_FRAMING);
+        descriptors.add(PROP_DEMARCATOR);
+        DESCRIPTORS = Collections.unmodifiableList(descriptors);
+        RELATIONSHIPS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(REL_SUCCESS, REL_FAILURE)));
+    }
+
+    // The batch client of each scope is shared by all concurrent tasks.
+    private final Map<String, BatchClientFactory> batchClients = new ConcurrentHashMap<>();
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return RELATIONSHIPS;
+    }
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return DESCRIPTORS;
+    }
+
+    @OnStopped
+    public void close() {
+        for (final BatchClientFactory batchClient : batchClients.values()) {
+            batchClient.close();
+        }
+        batchClients.clear();
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory, final ProcessSession session) throws ProcessException {
+        final FlowFile rangeFlowFile = session.get();
+        if (rangeFlowFile == null) {
+            return;
+        }
+        final SegmentRange range;
+        try {
+            range = SegmentRangeImpl.builder()
+                    .segment(new Segment(rangeFlowFile.getAttribute(ATTR_SCOPE), rangeFlowFile.getAttribute(ATTR_STREAM),
+                            Long.parseLong(rangeFlowFile.getAttribute(ATTR_SEGMENT_ID))))
+                    .startOffset(Long.parseLong(rangeFlowFile.getAttribute(ATTR_START_OFFSET)))
+                    .endOffset(Long.parseLong(rangeFlowFile.getAttribute(ATTR_END_OFFSET)))
+                    .build();
+        } catch (final RuntimeException e) {
+            logger.error("Invalid segment range attributes on {}; routing to failure", new Object[]{rangeFlowFile, e});
+            session.transfer(session.penalize(rangeFlowFile), REL_FAILURE);
+            return;
+        }
+
+        final int maxEvents = context.getProperty(PROP_MAX_EVENTS_PER_FLOWFILE).asInteger();
+        final long maxBytes = context.getProperty(PROP_MAX_FLOWFILE_SIZE).asDataSize(DataUnit.B).longValue();
+        final boolean lengthPrefixed = EventOutput.FRAMING_LENGTH_PREFIXED.getValue().equals(context.getProperty(PROP_FRAMING).getValue());
+        final byte[] demarcator = ConsumePravega.parseDemarcator(context.getProperty(PROP_DEMARCATOR).getValue());
+        final String transitUri = buildTransitURI(context.getProperty(PROP_CONTROLLER).getValue(), range.getScope(), range.getStreamName());
+
+        final List<FlowFile> flowFiles = new ArrayList<>();
+        try (final SegmentIterator<byte[]> events = readSegment(context, range)) {
+            // An event that did not fit in the previous FlowFile, and its offset.
+            final byte[][] pending = new byte[1][];
+            final long[] pendingOffset = new long[1];
+            while (pending[0] != null || events.hasNext()) {
+                final long startOffset = pending[0] != null ? pendingOffset[0] : events.getOffset();
+                final long[] counts = new long[2];
+                FlowFile flowFile = session.create(rangeFlowFile);
+                // Added before writing so that it is removed if reading fails.
+                flowFiles.add(flowFile);
+                flowFile = session.write(flowFile, out -> {
+                    while (counts[0] < maxEvents && (pending[0] != null || events.hasNext())) {
+                        final long eventOffset = pending[0] != null ? pendingOffset[0] : events.getOffset();
+                        final byte[] event = pending[0] != null ? pending[0] : events.next();
+                        pending[0] = null;
+                        final long framedLength = event.length + (lengthPrefixed ? 4 : (counts[0] > 0 ? demarcator.length : 0));
+                        if (counts[0] > 0 && counts[1] + framedLength > maxBytes) {
+                            pending[0] = event;
+                            pendingOffset[0] = eventOffset;
+                            break;
+                        }
+                        if (lengthPrefixed) {
+                            out.write(event.length >>> 24);
+                            out.write(event.length >>> 16);
+                            out.write(event.length >>> 8);
+                            out.write(event.length);
+                        } else if (counts[0] > 0) {
+                            out.write(demarcator);
+                        }
+                        out.write(event);
+                        counts[0]++;
+                        counts[1] += framedLength;
+                    }
+                });
+                final Map<String, String> attributes = new HashMap<>(4);
+                attributes.put(ATTR_START_OFFSET, Long.toString(startOffset));
+                attributes.put(ATTR_END_OFFSET, Long.toString(pending[0] != null ? pendingOffset[0] : events.getOffset()));
+                attributes.put(ATTR_EVENT_COUNT, Long.toString(counts[0]));
+                flowFile = session.putAllAttributes(flowFile, attributes);
+                flowFiles.set(flowFiles.size() - 1, flowFile);
+            }
+        } catch (final Exception e) {
+            logger.error("Unable to read segment range {}; routing to failure", new Object[]{range, e});
+            session.remove(flowFiles);
+            session.transfer(session.penalize(rangeFlowFile), REL_FAILURE);
+            return;
+        }
+        for (final FlowFile flowFile : flowFiles) {
+            session.getProvenanceReporter().receive(flowFile, transitUri);
+        }
+        session.transfer(flowFiles, REL_SUCCESS);
+        session.remove(rangeFlowFile);
+        logger.debug("onTrigger: read segment range {} into {} FlowFiles", new Object[]{range, flowFiles.size()});
+    }
+
+    /**
+     * Exposed as protected method for easier unit testing
+     *
+     * @return the events of the segment range
+     */
+    protected SegmentIterator<byte[]> readSegment(final ProcessContext context, final SegmentRange range) {
+        final ClientConfig clientConfig = getClientConfig(context);
+        final BatchClientFactory batchClient = batchClients.computeIfAbsent(range.getScope(),
+                scope -> BatchClientFactory.withScope(scope, clientConfig));
+        return batchClient.readSegment(range, new ByteArraySerializer());
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.Transaction;
+import io.pravega.client.stream.TxnFailedException;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Allows concurrent onTrigger tasks on this node to write their events to a single shared transaction.
+ * <p>
+ * The first task to join opens a new group with its own transaction. Tasks that join within the group commit
+ * window write to the same transaction. When the window ends, the group is sealed and the next task to join
+ * will open a new group. Once all tasks of a sealed group have finished writing, the transaction is flushed
+ * and committed once for all of them and each task can then commit its own NiFi session.
+ * <p>
+ * If any task fails to write its events, the shared transaction is aborted and all tasks in the group fail.
+ */
+public class GroupCommitCoordinator implements AutoCloseable {
+
+    private final ComponentLog logger;
+    private final Supplier<Transaction<ByteBuffer>> transactionSupplier;
+    private final long windowMs;
+    private final long transactionTimeoutMs;
+    private final ScheduledExecutorService commitExecutor;
+    private Group currentGroup;     // must have lock on this to access
+
+    /**
+     * @param transactionSupplier  opens the transaction of a new group
+     * @param windowMs             the time after which a group will not accept new tasks
+     * @param transactionTimeoutMs the maximum time that a task will wait for the group to be committed
+     */
+    public GroupCommitCoordinator(
+            final ComponentLog logger,
+            final Supplier<Transaction<ByteBuffer>> transactionSupplier,
+            final long windowMs,
+            final long transactionTimeoutMs) {
+        this.logger = logger;
+        this.transactionSupplier = transactionSupplier;
+        this.windowMs = windowMs;
+        this.transactionTimeoutMs = transactionTimeoutMs;
+        this.commitExecutor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Override
+    public String toString() {
+        return "GroupCommitCoordinator{" +
+                "windowMs=" + windowMs +
+                ", transactionTimeoutMs=" + transactionTimeoutMs +
+                '}';
+    }
+
+    /**
+     * Joins the currently open group or opens a new one.
+     * The caller must call {@link Group#leave} exactly once after writing its events.
+     */
+    Group join() {
+        synchronized (this) {
+            if (currentGroup != null) {
+                return joinCurrentGroup();
+            }
+        }
+        // Open the transaction without holding the lock because it requires a call to the controller.
+        final Transaction<ByteBuffer> transaction = transactionSupplier.get();
+        final Group group;
+        synchronized (this) {
+            if (currentGroup == null) {
+                final Group newGroup = new Group(transaction);
+                currentGroup = newGroup;
+                commitExecutor.schedule(() -> seal(newGroup), windowMs, TimeUnit.MILLISECONDS);
+                logger.debug("join: opened group with transaction {}", new Object[]{transaction.getTxnId()});
+                return joinCurrentGroup();
+            }
+            group = joinCurrentGroup();
+        }
+        // Another task opened a group while this transaction was being opened.
+        try {
+            transaction.abort();
+        } catch (final Exception e) {
+            logger.debug("Unable to abort unused transaction {}", new Object[]{transaction.getTxnId()}, e);
+        }
+        return group;
+    }
+
+    // must have lock on this to call
+    private Group joinCurrentGroup() {
+        currentGroup.activeWriters++;
+        currentGroup.taskCount++;
+        return currentGroup;
+    }
+
+    private void seal(final Group group) {
+        synchronized (this) {
+            if (group.sealed) {
+                return;
+            }
+            group.sealed = true;
+            if (currentGroup == group) {
+                currentGroup = null;
+            }
+            if (group.activeWriters == 0) {
+                commitExecutor.submit(group::commit);
+            }
+        }
+    }
+
+    /**
+     * Seals the open group. Tasks that have already joined it can still finish writing.
+     */
+    @Override
+    public void close() {
+        final Group group;
+        synchronized (this) {
+            group = currentGroup;
+        }
+        if (group != null) {
+            seal(group);
+        }
+        commitExecutor.shutdown();
+        try {
+            if (!commitExecutor.awaitTermination(transactionTimeoutMs, TimeUnit.MILLISECONDS)) {
+                commitExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            commitExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * A transaction shared by the tasks that joined within the same group commit window.
+     */
+    class Group {
+        private final Transaction<ByteBuffer> transaction;
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+        private int activeWriters = 0;          // must have lock on GroupCommitCoordinator.this to access
+        private int taskCount = 0;              // must have lock on GroupCommitCoordinator.this to access
+        private boolean sealed = false;         // must have lock on GroupCommitCoordinator.this to access
+        private Exception failure = null;       // must have lock on GroupCommitCoordinator.this to access
+
+        private Group(final Transaction<ByteBuffer> transaction) {
+            this.transaction = transaction;
+        }
+
+        Transaction<ByteBuffer> getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * Writes an event to the shared transaction.
+         */
+        void writeEvent(final String routingKey, final ByteBuffer event) throws TxnFailedException {
+            synchronized (transaction) {
+                transaction.writeEvent(routingKey, event);
+            }
+        }
+
+        /**
+         * Indicates that the calling task has finished writing its events.
+         *
+         * @param writeFailure null if all events were written, otherwise the reason they could not be written
+         */
+        void leave(final Exception writeFailure) {
+            synchronized (GroupCommitCoordinator.this) {
+                if (writeFailure != null && failure == null) {
+                    failure = writeFailure;
+                }
+                activeWriters--;
+                if (sealed && activeWriters == 0) {
+                    commitExecutor.submit(this::commit);
+                }
+            }
+        }
+
+        /**
+         * Waits until the shared transaction has been committed.
+         *
+         * @return false if the transaction was not committed or aborted in time; it may still be committed later
+         * @throws ProcessException if the transaction was aborted
+         */
+        boolean awaitCommit() {
+            try {
+                committed.get(transactionTimeoutMs, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException(e);
+            } catch (ExecutionException e) {
+                throw new ProcessException(e.getCause());
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+
+        private void commit() {
+            final Exception writeFailure;
+            final int tasks;
+            synchronized (GroupCommitCoordinator.this) {
+                writeFailure = failure;
+                tasks = taskCount;
+            }
+            try {
+                if (writeFailure != null) {
+                    transaction.abort();
+                    committed.completeExceptionally(writeFailure);
+                    return;
+                }
+                // Flush all events to Pravega's durable storage and commit once for all tasks.
+                transaction.flush();
+                transaction.commit();
+                logger.debug("commit: committed group transaction {} for {} tasks",
+                        new Object[]{transaction.getTxnId(), tasks});
+                committed.complete(null);
+            } catch (final Exception e) {
+                logger.error("Unable to commit group transaction {} for {} tasks",
+                        new Object[]{transaction.getTxnId(), tasks}, e);
+                committed.completeExceptionally(e);
+            }
+        }
+    }
+}
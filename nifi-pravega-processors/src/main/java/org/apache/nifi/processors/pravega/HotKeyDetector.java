@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.ProcessSession;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Tracks approximate routing key frequencies with Space-Saving heavy hitters sketches of bounded size.
+ * <p>
+ * Each thread counts its events in its own sketch without any locking. A thread hands its sketch over
+ * every PUBLISH_INTERVAL_MS and starts a new one. At the end of each evaluation interval, the published sketches
+ * are merged, keys whose share of the events is at least threshold times their fair share are marked as hot and
+ * a warning bulletin is logged with the hot keys and the estimated share of the busiest segment.
+ * The fair share is 1 / min(distinct keys, segments), so an even spread over a few keys is never hot.
+ * The number of distinct keys is estimated by the number of keys in the sketch, which is at most SKETCH_CAPACITY.
+ * Segments are estimated by mapping the hash of each key to evenly spaced ranges of the key space.
+ * Counts are then halved so that the sketch follows recent traffic.
+ * <p>
+ * Hot keys can optionally be salted with a suffix in [0, fanOut) so that their events are spread over
+ * up to fanOut segments. Salting gives up the ordering of events with the same key.
+ */
+public class HotKeyDetector {
+    static final int SKETCH_CAPACITY = 64;
+    static final long EVALUATION_INTERVAL_MS = 60000;
+    static final long PUBLISH_INTERVAL_MS = 10000;
+
+    /**
+     * The key space is counted in this many buckets, which are mapped to segments when evaluating.
+     */
+    static final int KEY_SPACE_BUCKETS = 1024;
+
+    /**
+     * Keys are not marked as hot until at least this many events have been counted.
+     */
+    static final long MIN_EVENTS = 1000;
+
+    static final String COUNTER_HOT_KEY_EVENTS = "Hot routing key events";
+    static final String COUNTER_SALTED_EVENTS = "Salted routing key events";
+    static final String COUNTER_HOT_KEYS_DETECTED = "Hot routing keys detected";
+
+    private final ComponentLog logger;
+    private final double threshold;
+    private final int fanOut;
+    private final IntSupplier segmentCount;
+    private final ThreadLocal<Sketch> localSketch = new ThreadLocal<>();
+    private final Queue<Sketch> publishedSketches = new ConcurrentLinkedQueue<>();
+    private final AtomicLong nextEvaluationTime;
+    private volatile Set<String> hotKeys = Collections.emptySet();
+    private final AtomicLong saltSequence = new AtomicLong();
+
+    // The merged counts of all threads.
+    private final Sketch merged = new Sketch(0);       // must have lock on merged to access
+
+    // Deltas that have not been added to the processor counters yet.
+    private final AtomicLong pendingHotKeyEvents = new AtomicLong();
+    private final AtomicLong pendingSaltedEvents = new AtomicLong();
+    private final AtomicLong pendingHotKeysDetected = new AtomicLong();
+
+    /**
+     * @param threshold    the multiple of its fair share at or above which a key is hot, greater than 1
+     * @param fanOut       the number of salted keys for each hot key; 1 disables salting
+     * @param segmentCount supplies the current number of segments of the stream, or 0 if it is not known yet.
+     *                     It is only called when evaluating, so it must not block.
+     */
+    public HotKeyDetector(final ComponentLog logger, final double threshold, final int fanOut, final IntSupplier segmentCount) {
+        this.logger = logger;
+        this.threshold = threshold;
+        this.fanOut = fanOut;
+        this.segmentCount = segmentCount;
+        this.nextEvaluationTime = new AtomicLong(System.currentTimeMillis() + EVALUATION_INTERVAL_MS);
+    }
+
+    /**
+     * Counts an event and returns the routing key that it should be written with.
+     */
+    String record(final String routingKey) {
+        final String saltedKey = salt(routingKey);
+        final long now = System.currentTimeMillis();
+        Sketch sketch = localSketch.get();
+        if (sketch == null || now >= sketch.publishTime) {
+            if (sketch != null) {
+                publishedSketches.add(sketch);
+            }
+            sketch = new Sketch(now + PUBLISH_INTERVAL_MS);
+            localSketch.set(sketch);
+        }
+        sketch.add(routingKey, 1, 0);
+        sketch.buckets[getBucket(saltedKey)]++;
+
+        final long evaluationTime = nextEvaluationTime.get();
+        if (now >= evaluationTime && nextEvaluationTime.compareAndSet(evaluationTime, now + EVALUATION_INTERVAL_MS)) {
+            evaluate();
+        }
+        return saltedKey;
+    }
+
+    private String salt(final String routingKey) {
+        if (!hotKeys.contains(routingKey)) {
+            return routingKey;
+        }
+        pendingHotKeyEvents.incrementAndGet();
+        if (fanOut <= 1) {
+            return routingKey;
+        }
+        pendingSaltedEvents.incrementAndGet();
+        return routingKey + "#" + Math.floorMod(saltSequence.getAndIncrement(), fanOut);
+    }
+
+    /**
+     * Adds the counts since the last call to the processor counters.
+     * The counters are persisted when the session is committed.
+     */
+    void reportCounters(final ProcessSession session) {
+        final long hotKeyEvents = pendingHotKeyEvents.getAndSet(0);
+        final long saltedEvents = pendingSaltedEvents.getAndSet(0);
+        final long hotKeysDetected = pendingHotKeysDetected.getAndSet(0);
+        if (hotKeyEvents > 0) {
+            session.adjustCounter(COUNTER_HOT_KEY_EVENTS, hotKeyEvents, false);
+        }
+        if (saltedEvents > 0) {
+            session.adjustCounter(COUNTER_SALTED_EVENTS, saltedEvents, false);
+        }
+        if (hotKeysDetected > 0) {
+            session.adjustCounter(COUNTER_HOT_KEYS_DETECTED, hotKeysDetected, false);
+        }
+    }
+
+    Set<String> getHotKeys() {
+        return hotKeys;
+    }
+
+    private static int getBucket(final String routingKey) {
+        return Math.min(KEY_SPACE_BUCKETS - 1, (int) (RouterHash.hashToRange(routingKey) * KEY_SPACE_BUCKETS));
+    }
+
+    /**
+     * Merges the published sketches, and the sketch of the calling thread, and updates the hot keys.
+     */
+    void evaluate() {
+        final Sketch own = localSketch.get();
+        if (own != null) {
+            localSketch.remove();
+            publishedSketches.add(own);
+        }
+        synchronized (merged) {
+            Sketch published;
+            while ((published = publishedSketches.poll()) != null) {
+                merged.merge(published);
+            }
+            evaluateMerged();
+        }
+    }
+
+    /**
+     * Must have lock on merged.
+     */
+    private void evaluateMerged() {
+        final int segments = segmentCount.getAsInt();
+        final Set<String> newHotKeys = new HashSet<>();
+        final List<String> descriptions = new ArrayList<>();
+        if (merged.totalCount >= MIN_EVENTS) {
+            final int distinctKeys = merged.counters.size();
+            final int spread = segments > 0 ? Math.min(distinctKeys, segments) : distinctKeys;
+            final double hotShare = threshold / Math.max(1, spread);
+            for (final Map.Entry<String, Counter> entry : merged.counters.entrySet()) {
+                // Use the guaranteed count so that keys are not marked as hot because of the error bound.
+                final long guaranteedCount = entry.getValue().count - entry.getValue().error;
+                final double share = (double) guaranteedCount / merged.totalCount;
+                if (share >= hotShare) {
+                    newHotKeys.add(entry.getKey());
+                    descriptions.add(String.format("'%s' (%.1f%%)", entry.getKey(), 100.0 * share));
+                }
+            }
+        }
+
+        final long[] segmentCounts = new long[Math.max(1, segments)];
+        for (int bucket = 0; bucket < KEY_SPACE_BUCKETS; bucket++) {
+            final double midpoint = (bucket + 0.5) / KEY_SPACE_BUCKETS;
+            segmentCounts[Math.min(segmentCounts.length - 1, (int) (midpoint * segmentCounts.length))] += merged.buckets[bucket];
+        }
+        long maxSegmentCount = 0;
+        long segmentTotal = 0;
+        for (final long count : segmentCounts) {
+            maxSegmentCount = Math.max(maxSegmentCount, count);
+            segmentTotal += count;
+        }
+        final double maxSegmentShare = segmentTotal == 0 ? 0.0 : (double) maxSegmentCount / segmentTotal;
+        final double fairShare = 1.0 / segmentCounts.length;
+
+        for (final String key : newHotKeys) {
+            if (!hotKeys.contains(key)) {
+                pendingHotKeysDetected.incrementAndGet();
+            }
+        }
+        hotKeys = Collections.unmodifiableSet(newHotKeys);
+
+        if (!descriptions.isEmpty() || (segments > 1 && segmentTotal >= MIN_EVENTS && maxSegmentShare >= 2 * fairShare)) {
+            logger.warn("Routing key skew detected. Hot keys: {}. The busiest of {} segments received an estimated {}% of the events. Salting: {}",
+                    new Object[]{descriptions, segments, String.format("%.1f", 100.0 * maxSegmentShare),
+                            fanOut > 1 ? "fan-out " + fanOut : "disabled"});
+        } else {
+            logger.debug("evaluate: totalCount={}, segments={}, maxSegmentShare={}",
+                    new Object[]{merged.totalCount, segments, maxSegmentShare});
+        }
+
+        // Age the counts so that the sketch follows recent traffic.
+        merged.halve();
+    }
+
+    @Override
+    public String toString() {
+        return "HotKeyDetector{threshold=" + threshold + ", fanOut=" + fanOut + ", hotKeys=" + hotKeys + "}";
+    }
+
+    /**
+     * A Space-Saving sketch of routing keys and a histogram of the key space.
+     * A sketch is only used by one thread at a time.
+     */
+    static class Sketch {
+        final long publishTime;
+        final Map<String, Counter> counters = new HashMap<>();
+        final long[] buckets = new long[KEY_SPACE_BUCKETS];
+        long totalCount;
+
+        Sketch(final long publishTime) {
+            this.publishTime = publishTime;
+        }
+
+        /**
+         * Space-Saving update. When the sketch is full, the key with the smallest count is replaced
+         * and the new key inherits its count as the error bound.
+         */
+        void add(final String routingKey, final long count, final long error) {
+            totalCount += count;
+            final Counter counter = counters.get(routingKey);
+            if (counter != null) {
+                counter.count += count;
+                counter.error += error;
+                return;
+            }
+            if (counters.size() < SKETCH_CAPACITY) {
+                counters.put(routingKey, new Counter(count, error));
+                return;
+            }
+            String minKey = null;
+            Counter minCounter = null;
+            for (final Map.Entry<String, Counter> entry : counters.entrySet()) {
+                if (minCounter == null || entry.getValue().count < minCounter.count) {
+                    minKey = entry.getKey();
+                    minCounter = entry.getValue();
+                }
+            }
+            counters.remove(minKey);
+            counters.put(routingKey, new Counter(minCounter.count + count, minCounter.count + error));
+        }
+
+        void merge(final Sketch other) {
+            for (final Map.Entry<String, Counter> entry : other.counters.entrySet()) {
+                add(entry.getKey(), entry.getValue().count, entry.getValue().error);
+            }
+            // Counts that were evicted from the other sketch are still part of its total.
+            long otherCounted = 0;
+            for (final Counter counter : other.counters.values()) {
+                otherCounted += counter.count;
+            }
+            totalCount += Math.max(0, other.totalCount - otherCounted);
+            for (int i = 0; i < KEY_SPACE_BUCKETS; i++) {
+                buckets[i] += other.buckets[i];
+            }
+        }
+
+        void halve() {
+            totalCount /= 2;
+            final Iterator<Counter> iterator = counters.values().iterator();
+            while (iterator.hasNext()) {
+                final Counter counter = iterator.next();
+                counter.count /= 2;
+                counter.error /= 2;
+                if (counter.count == 0) {
+                    iterator.remove();
+                }
+            }
+            for (int i = 0; i < KEY_SPACE_BUCKETS; i++) {
+                buckets[i] /= 2;
+            }
+        }
+    }
+
+    private static class Counter {
+        long count;
+        long error;
+
+        Counter(final long count, final long error) {
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
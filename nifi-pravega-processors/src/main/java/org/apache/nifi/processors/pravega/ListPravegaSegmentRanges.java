@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.BatchClientFactory;
+import io.pravega.client.ClientConfig;
+import io.pravega.client.admin.StreamManager;
+import io.pravega.client.batch.SegmentRange;
+import io.pravega.client.stream.Stream;
+import io.pravega.client.stream.StreamCut;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.Stateful;
+import org.apache.nifi.annotation.behavior.TriggerSerially;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateMap;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Tags({"Pravega", "Nautilus", "List", "Batch", "Backfill", "Segment", "Stream"})
+@CapabilityDescription("Lists the segment ranges of Pravega streams between two stream cuts. "
+        + "Each range is written to an empty FlowFile with attributes that FetchPravegaSegmentRange uses to read its events. "
+        + "The ranges can be distributed across the nodes of a cluster so that a bounded part of a stream is read "
+        + "in parallel by all nodes and threads. This processor should be run on the primary node only.")
+@WritesAttributes({
+        @WritesAttribute(attribute = ListPravegaSegmentRanges.ATTR_SCOPE, description = "The scope of the stream."),
+        @WritesAttribute(attribute = ListPravegaSegmentRanges.ATTR_STREAM, description = "The name of the stream."),
+        @WritesAttribute(attribute = ListPravegaSegmentRanges.ATTR_SEGMENT_ID, description = "The ID of the segment."),
+        @WritesAttribute(attribute = ListPravegaSegmentRanges.ATTR_START_OFFSET, description = "The offset of the first event of the range."),
+        @WritesAttribute(attribute = ListPravegaSegmentRanges.ATTR_END_OFFSET, description = "The offset after the last event of the range."),
+})
+@InputRequirement(InputRequirement.Requirement.INPUT_FORBIDDEN)
+@TriggerSerially
+@Stateful(scopes = Scope.CLUSTER, description =
+        "This processor stores the stream cuts up to which the streams have been listed. "
+        + "The next listing starts at these stream cuts, so that only events written since the last listing are listed "
+        + "when the End Stream Cuts are not set. The state must be cleared to list the streams again from the Start Stream Cuts.")
+@SeeAlso({FetchPravegaSegmentRange.class, ConsumePravega.class})
+public class ListPravegaSegmentRanges extends AbstractPravegaProcessor {
+
+    static final String ATTR_SCOPE = "pravega.scope";
+    static final String ATTR_STREAM = "pravega.stream";
+    static final String ATTR_SEGMENT_ID = "pravega.segment.id";
+    static final String ATTR_START_OFFSET = "pravega.segment.start.offset";
+    static final String ATTR_END_OFFSET = "pravega.segment.end.offset";
+
+    static private final String STATE_KEY_LISTED_STREAM_CUTS_BASE64 = "listed.stream.cuts.base64";
+
+    static final PropertyDescriptor PROP_START_STREAM_CUTS = new PropertyDescriptor.Builder()
+            .name("start.stream.cuts")
+            .displayName("Start Stream Cuts")
+            .description("A comma-separated list of base64-encoded stream cuts, at most one for each stream, at which the first listing starts. "
+                    + "Streams without a stream cut are listed from their earliest available event.")
+            .required(false)
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor PROP_END_STREAM_CUTS = new PropertyDescriptor.Builder()
+            .name("end.stream.cuts")
+            .displayName("End Stream Cuts")
+            .description("A comma-separated list of base64-encoded stream cuts, at most one for each stream, at which listing ends. "
+                    + "Streams without a stream cut are listed up to their tail at the time of each listing.")
+            .required(false)
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+    static final Relationship REL_SUCCESS = new Relationship.Builder()
+            .name("success")
+            .description("A FlowFile is routed to this relationship for each segment range.")
+            .build();
+
+    static final List<PropertyDescriptor> DESCRIPTORS;
+    static final Set<Relationship> RELATIONSHIPS;
+
+    static {
+        final List<PropertyDescriptor> descriptors = getAbstractPropertyDescriptors();
+        descriptors.add(PROP_START_STREAM_CUTS);
+        descriptors.add(PROP_END_STREAM_CUTS);
+        DESCRIPTORS = Collections.unmodifiableList(descriptors);
+        RELATIONSHIPS = Collections.singleton(REL_SUCCESS);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return RELATIONSHIPS;
+    }
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return DESCRIPTORS;
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory, final ProcessSession session) throws ProcessException {
+        if (!isPrimaryNode()) {
+            context.yield();
+            return;
+        }
+        try {
+            final ClientConfig clientConfig = getClientConfig(context);
+            final List<Stream> streams = getStreams(context);
+            final StateMap stateMap = context.getStateManager().getState(Scope.CLUSTER);
+            final String listedStr = stateMap.get(STATE_KEY_LISTED_STREAM_CUTS_BASE64);
+            final Map<Stream, StreamCut> startStreamCuts = listedStr != null
+                    ? ConsumerPool.deserializeStreamCuts(listedStr)
+                    : getStreamCuts(context.getProperty(PROP_START_STREAM_CUTS).getValue());
+            final Map<Stream, StreamCut> endStreamCuts = getStreamCuts(context.getProperty(PROP_END_STREAM_CUTS).getValue());
+
+            // Resolve the tail of each unbounded stream so that the next listing continues exactly where this one ends.
+            try (final StreamManager streamManager = StreamManager.create(clientConfig)) {
+                for (final Stream stream : streams) {
+                    if (!endStreamCuts.containsKey(stream)) {
+                        endStreamCuts.put(stream, streamManager.getStreamInfo(stream.getScope(), stream.getStreamName()).getTailStreamCut());
+                    }
+                }
+            }
+
+            int rangeCount = 0;
+            long byteCount = 0;
+            for (final Stream stream : streams) {
+                final StreamCut startStreamCut = startStreamCuts.getOrDefault(stream, StreamCut.UNBOUNDED);
+                final StreamCut endStreamCut = endStreamCuts.get(stream);
+                try (final BatchClientFactory batchClient = BatchClientFactory.withScope(stream.getScope(), clientConfig)) {
+                    final Iterator<SegmentRange> ranges = batchClient.getSegments(stream, startStreamCut, endStreamCut).getIterator();
+                    while (ranges.hasNext()) {
+                        final SegmentRange range = ranges.next();
+                        if (range.getEndOffset() <= range.getStartOffset()) {
+                            continue;
+                        }
+                        final Map<String, String> attributes = new HashMap<>(8);
+                        attributes.put(ATTR_SCOPE, range.getScope());
+                        attributes.put(ATTR_STREAM, range.getStreamName());
+                        attributes.put(ATTR_SEGMENT_ID, Long.toString(range.getSegmentId()));
+                        attributes.put(ATTR_START_OFFSET, Long.toString(range.getStartOffset()));
+                        attributes.put(ATTR_END_OFFSET, Long.toString(range.getEndOffset()));
+                        FlowFile flowFile = session.create();
+                        flowFile = session.putAllAttributes(flowFile, attributes);
+                        session.transfer(flowFile, REL_SUCCESS);
+                        rangeCount++;
+                        byteCount += range.getEndOffset() - range.getStartOffset();
+                    }
+                }
+            }
+            logger.debug("onTrigger: listed {} segment ranges with {} bytes; endStreamCuts={}",
+                    new Object[]{rangeCount, byteCount, endStreamCuts});
+
+            // Save the end of this listing only after the FlowFiles have been committed.
+            // A failure in between causes the ranges to be listed again, never to be lost.
+            session.commit();
+            final Map<String, String> newState = new HashMap<>(stateMap.toMap());
+            newState.put(STATE_KEY_LISTED_STREAM_CUTS_BASE64, ConsumerPool.serializeStreamCuts(endStreamCuts));
+            context.getStateManager().setState(newState, Scope.CLUSTER);
+            if (rangeCount == 0) {
+                context.yield();
+            }
+        } catch (final ProcessException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ProcessException(e);
+        }
+    }
+
+    private static Map<Stream, StreamCut> getStreamCuts(final String value) {
+        return value == null || value.trim().isEmpty() ? new HashMap<>() : ConsumerPool.deserializeStreamCuts(value.trim());
+    }
+}
@@ -10,9 +10,7 @@
  */
 package org.apache.nifi.processors.pravega;
 
-import io.pravega.client.stream.Transaction;
-import io.pravega.client.stream.TransactionalEventStreamWriter;
-import io.pravega.client.stream.TxnFailedException;
+import io.pravega.client.stream.EventStreamWriter;
 import org.apache.nifi.annotation.behavior.*;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.SeeAlso;
@@ -20,20 +18,22 @@ import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
-import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.InputStreamCallback;
-import org.apache.nifi.processor.util.FlowFileFilters;
 import org.apache.nifi.stream.io.StreamUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 @Tags({"Pravega", "Nautilus", "Put", "Send", "Publish", "Stream"})
@@ -49,8 +49,36 @@ public class PublishPravega extends AbstractPravegaPublisher {
     static final List<PropertyDescriptor> descriptors;
     static final String ATTR_ROUTING_KEY = "pravega.routing.key";
 
+    static final PropertyDescriptor PROP_ROUTING_STRATEGY = new PropertyDescriptor.Builder()
+            .name("routing.strategy")
+            .displayName("Routing Strategy")
+            .description("Determines the routing key of each event. Only events with the same routing key are guaranteed to be read in order.")
+            .required(true)
+            .allowableValues(RoutingKeyStrategy.ROUTING_STRATEGY_ATTRIBUTE,
+                    RoutingKeyStrategy.ROUTING_STRATEGY_ROUND_ROBIN,
+                    RoutingKeyStrategy.ROUTING_STRATEGY_RANDOM,
+                    RoutingKeyStrategy.ROUTING_STRATEGY_STICKY,
+                    RoutingKeyStrategy.ROUTING_STRATEGY_CONTENT_HASH)
+            .defaultValue(RoutingKeyStrategy.ROUTING_STRATEGY_ATTRIBUTE.getValue())
+            .build();
+
     static {
         final List<PropertyDescriptor> innerDescriptorsList = getAbstractPropertyDescriptors();
+        innerDescriptorsList.add(PROP_ROUTING_STRATEGY);
+        innerDescriptorsList.add(PROP_HOT_KEY_DETECTION);
+        innerDescriptorsList.add(PROP_HOT_KEY_THRESHOLD);
+        innerDescriptorsList.add(PROP_HOT_KEY_FAN_OUT);
+        innerDescriptorsList.add(PROP_MAX_FLOWFILES_PER_TRANSACTION);
+        innerDescriptorsList.add(PROP_MAX_TRANSACTION_SIZE);
+        innerDescriptorsList.add(PROP_LINGER_TIME);
+        innerDescriptorsList.add(PROP_ADAPTIVE_TRANSACTION_SIZE);
+        innerDescriptorsList.add(PROP_TARGET_COMMIT_LATENCY);
+        innerDescriptorsList.add(PROP_DELIVERY_MODE);
+        innerDescriptorsList.add(PROP_MAX_IN_FLIGHT_EVENTS);
+        innerDescriptorsList.add(PROP_MAX_PENDING_TRANSACTIONS);
+        innerDescriptorsList.add(PROP_TRANSACTION_POOL_SIZE);
+        innerDescriptorsList.add(PROP_GROUP_COMMIT);
+        innerDescriptorsList.add(PROP_GROUP_COMMIT_WINDOW);
         descriptors = Collections.unmodifiableList(innerDescriptorsList);
     }
 
@@ -63,98 +91,153 @@ public class PublishPravega extends AbstractPravegaPublisher {
     public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory, final ProcessSession session) throws ProcessException {
         logger.debug("onTrigger: BEGIN: this={}", new Object[]{System.identityHashCode(this)});
 
-        final double maxKiBInTransaction = 1024.0;
-        final int maxEventsInTransaction = 1000;
-        final List<FlowFile> flowFiles = session.get(FlowFileFilters.newSizeBasedFilter(
-                maxKiBInTransaction, DataUnit.KB, maxEventsInTransaction));
-        if (flowFiles.isEmpty()) {
+        if (isLingering(context, session)) {
+            context.yield();
+            finishPipelinedTransactions(session);
             return;
         }
 
-        final String controller = context.getProperty(PROP_CONTROLLER).getValue();
-        final String scope = context.getProperty(PROP_SCOPE).getValue();
-        final String streamName = context.getProperty(PROP_STREAM).getValue();
-        final String transitUri = buildTransitURI(controller, scope, streamName);
-        final long startTime = System.nanoTime();
-        final TransactionalEventStreamWriter<byte[]> writer = getWriter(context);
-        final Transaction<byte[]> transaction = writer.beginTxn();
-        final UUID txnId = transaction.getTxnId();
+        final ProcessSession publishSession = getPublishSession(context, sessionFactory, session);
+        try {
+            final List<FlowFile> flowFiles = getFlowFiles(context, publishSession);
+            if (flowFiles.isEmpty()) {
+                publishSession.commit();
+                return;
+            }
 
-        logger.info("Sending {} events to Pravega stream {} in transaction {}.",
-                new Object[]{flowFiles.size(), transitUri, txnId});
+            final String controller = context.getProperty(PROP_CONTROLLER).getValue();
+            final String scope = context.getProperty(PROP_SCOPE).getValue();
+            final String streamName = context.getProperty(PROP_STREAM).getValue();
+            final String transitUri = buildTransitURI(controller, scope, streamName);
 
-        try {
-            for (final FlowFile flowFile : flowFiles) {
-                if (!isScheduled()) {
-                    // If stopped, re-queue FlowFile instead of sending it
-                    session.transfer(flowFile);
-                    transaction.abort();
-                    continue;
-                }
-
-                String routingKey = flowFile.getAttribute(ATTR_ROUTING_KEY);
-                if (routingKey == null) {
-                    routingKey = "";
-                }
-
-                // Read FlowFile contents.
-                final byte[] messageContent = new byte[(int) flowFile.getSize()];
-                session.read(flowFile, new InputStreamCallback() {
-                    @Override
-                    public void process(final InputStream in) throws IOException {
-                        StreamUtils.fillBuffer(in, messageContent, true);
-                    }
-                });
-
-                if (logger.isDebugEnabled()) {
-                    final String flowFileUUID = flowFile.getAttribute(CoreAttributes.UUID.key());
-                    logger.debug("routingKey={}, size={}, flowFileUUID={}",
-                            new Object[]{routingKey, flowFile.getSize(), flowFileUUID});
-                    logger.trace("messageContent={}", new Object[]{dumpByteArray(messageContent)});
-                }
+            final RoutingKeyStrategy routingStrategy = getRoutingKeyStrategy(context, PROP_ROUTING_STRATEGY);
+            reportHotKeys(context, publishSession);
+
+            if (!isTransactional(context)) {
+                publishWithoutTransaction(context, publishSession, flowFiles, transitUri, routingStrategy);
+                return;
+            }
+
+            publishTransactional(context, publishSession, flowFiles, transitUri, (txnSession, flowFile, sink) -> {
+                final ByteBuffer messageContent = readContent(txnSession, flowFile);
+                final String routingKey = getRoutingKey(routingStrategy, flowFile, messageContent);
 
                 // Write to Pravega.
-                transaction.writeEvent(routingKey, messageContent);
+                sink.writeEvent(routingKey, messageContent);
+                return 1;
+            });
+        } catch (final Throwable t) {
+            if (publishSession != session) {
+                publishSession.rollback(true);
             }
-            // Flush all events to Pravega's durable storage.
-            // This will block until done.
-            // It will not commit the transaction.
-            transaction.flush();
-        }
-        catch (TxnFailedException e) {
-            logger.error(e.getMessage());
-            // Transfer the FlowFiles to the failure relationship.
-            // The user can choose to route the FlowFiles back to this processor for retry
-            // or they can route them to an alternate processor.
-            session.transfer(flowFiles, REL_FAILURE);
-            return;
+            throw t;
+        } finally {
+            finishPipelinedTransactions(session);
         }
+    }
 
-        final long transmissionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    /**
+     * Writes each FlowFile as an event with the non-transactional writer.
+     * At most PROP_MAX_IN_FLIGHT_EVENTS events of all concurrent tasks will be waiting for an acknowledgement at any time.
+     * Each FlowFile is routed to success or failure based on the outcome of its own event.
+     */
+    private void publishWithoutTransaction(final ProcessContext context, final ProcessSession session,
+                                           final List<FlowFile> flowFiles, final String transitUri,
+                                           final RoutingKeyStrategy routingStrategy) {
+        final long startTime = System.nanoTime();
+        final EventStreamWriter<ByteBuffer> writer = getEventWriter(context);
+        final Semaphore inFlightPermits = getInFlightPermits(context);
+        final List<CompletableFuture<Void>> acks = new ArrayList<>(flowFiles.size());
+
+        logger.info("Sending {} events to Pravega stream {} without a transaction.",
+                new Object[]{flowFiles.size(), transitUri});
+
+        for (final FlowFile flowFile : flowFiles) {
+            if (!isScheduled()) {
+                // If stopped, re-queue FlowFile instead of sending it
+                session.transfer(flowFile);
+                acks.add(null);
+                continue;
+            }
+
+            final ByteBuffer messageContent = readContent(session, flowFile);
+            final String routingKey = getRoutingKey(routingStrategy, flowFile, messageContent);
 
-        // Transfer the FlowFiles to the success relationship.
-        for (FlowFile flowFile : flowFiles) {
-            session.getProvenanceReporter().send(flowFile, transitUri, transmissionMillis);
-            session.transfer(flowFile, REL_SUCCESS);
+            // Wait until the number of unacknowledged events is below the limit.
+            try {
+                inFlightPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException(e);
+            }
+
+            // Write to Pravega. The returned future completes when the event is durable.
+            final CompletableFuture<Void> ack;
+            try {
+                ack = writer.writeEvent(routingKey, messageContent);
+            } catch (RuntimeException e) {
+                inFlightPermits.release();
+                throw e;
+            }
+            ack.whenComplete((result, e) -> inFlightPermits.release());
+            acks.add(ack);
         }
 
-        // Now we can commit the Pravega transaction.
-        // If an error occurs, we must rollback the NiFi session because we have already transferred
-        // FlowFiles to the success relationship. We then transfer the FlowFiles to the failure relationship.
-        try {
-            transaction.commit();
-        } catch (TxnFailedException e) {
-            logger.error(e.getMessage());
-            session.rollback();
-            session.transfer(flowFiles, REL_FAILURE);
-            return;
+        // Wait for the acknowledgement of each event and route its FlowFile accordingly.
+        int successCount = 0;
+        for (int i = 0; i < flowFiles.size(); i++) {
+            final CompletableFuture<Void> ack = acks.get(i);
+            if (ack == null) {
+                continue;
+            }
+            final FlowFile flowFile = flowFiles.get(i);
+            try {
+                ack.get();
+                final long transmissionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                session.getProvenanceReporter().send(flowFile, transitUri, transmissionMillis);
+                session.transfer(flowFile, REL_SUCCESS);
+                successCount++;
+            } catch (ExecutionException e) {
+                logger.error("Unable to write event for {} to Pravega stream {}: {}",
+                        new Object[]{flowFile, transitUri, e.getCause()});
+                session.transfer(flowFile, REL_FAILURE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException(e);
+            }
         }
 
-        // Commit the NiFi session so that the following log message indicates complete success.
         session.commit();
 
-        logger.info("Sent {} events in {} milliseconds to Pravega stream {} in transaction {}.",
-                new Object[]{flowFiles.size(), transmissionMillis, transitUri, txnId});
+        final long transmissionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.info("Sent {} events in {} milliseconds to Pravega stream {} without a transaction.",
+                new Object[]{successCount, transmissionMillis, transitUri});
+    }
+
+    private String getRoutingKey(final RoutingKeyStrategy routingStrategy, final FlowFile flowFile, final ByteBuffer messageContent) {
+        final String routingKey = routingStrategy.getRoutingKey(flowFile.getAttribute(ATTR_ROUTING_KEY), messageContent);
+        if (logger.isDebugEnabled()) {
+            final String flowFileUUID = flowFile.getAttribute(CoreAttributes.UUID.key());
+            logger.debug("routingKey={}, size={}, flowFileUUID={}",
+                    new Object[]{routingKey, flowFile.getSize(), flowFileUUID});
+            logger.trace("messageContent={}", new Object[]{dumpByteBuffer(messageContent)});
+        }
+        return routingKey;
+    }
+
+    /**
+     * Reads the FlowFile contents into a new array.
+     * The array is handed to Pravega without a copy so it must not be modified after the event is written.
+     */
+    private ByteBuffer readContent(final ProcessSession session, final FlowFile flowFile) {
+        final byte[] messageContent = new byte[(int) flowFile.getSize()];
+        session.read(flowFile, new InputStreamCallback() {
+            @Override
+            public void process(final InputStream in) throws IOException {
+                StreamUtils.fillBuffer(in, messageContent, true);
+            }
+        });
+        return ByteBuffer.wrap(messageContent);
     }
 
 }
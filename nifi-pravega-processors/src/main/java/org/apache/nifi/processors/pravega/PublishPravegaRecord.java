@@ -10,8 +10,6 @@
  */
 package org.apache.nifi.processors.pravega;
 
-import io.pravega.client.stream.Transaction;
-import io.pravega.client.stream.TransactionalEventStreamWriter;
 import io.pravega.client.stream.TxnFailedException;
 import org.apache.nifi.annotation.behavior.EventDriven;
 import org.apache.nifi.annotation.behavior.InputRequirement;
@@ -19,16 +17,15 @@ import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
-import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.InputStreamCallback;
-import org.apache.nifi.processor.util.FlowFileFilters;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.schema.access.SchemaNotFoundException;
 import org.apache.nifi.serialization.*;
@@ -37,14 +34,19 @@ import org.apache.nifi.serialization.record.RecordSchema;
 import org.apache.nifi.serialization.record.RecordSet;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 @Tags({"Pravega", "Nautilus", "Put", "Send", "Publish", "Stream", "Record"})
 @CapabilityDescription("Sends the contents of a FlowFile as individual records to Pravega. "
@@ -75,17 +77,79 @@ public class PublishPravegaRecord extends AbstractPravegaPublisher {
     static final PropertyDescriptor ROUTING_KEY_FIELD = new PropertyDescriptor.Builder()
             .name("routing-key-field")
             .displayName("Routing Key Field")
-            .description("The name of a field in the Input Records that should be used as the Routing Key for the Pravega event.")
+            .description("The name of a field in the Input Records that should be used as the Routing Key for the Pravega event. "
+                    + "Used when the Routing Strategy is Record Field.")
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .expressionLanguageSupported(true)
             .required(false)
             .build();
 
+    static final PropertyDescriptor RECORD_ENCODING = new PropertyDescriptor.Builder()
+            .name("record-encoding")
+            .displayName("Record Encoding")
+            .description("Controls how each record is serialized into an event. "
+                    + "The Record Writer encoding creates a Record Writer for each record so that each event is complete, "
+                    + "which is costly for high record rates. "
+                    + "The direct encodings avoid creating a Record Writer for each record but still use the schema of the Record Writer.")
+            .required(true)
+            .allowableValues(RecordEventEncoder.RECORD_ENCODING_RECORD_WRITER,
+                    RecordEventEncoder.RECORD_ENCODING_AVRO_BINARY,
+                    RecordEventEncoder.RECORD_ENCODING_JSON)
+            .defaultValue(RecordEventEncoder.RECORD_ENCODING_RECORD_WRITER.getValue())
+            .build();
+
+    static final PropertyDescriptor PROP_ROUTING_STRATEGY = new PropertyDescriptor.Builder()
+            .name("routing-strategy")
+            .displayName("Routing Strategy")
+            .description("Determines the routing key of each event. Only events with the same routing key are guaranteed to be read in order.")
+            .required(true)
+            .allowableValues(RoutingKeyStrategy.ROUTING_STRATEGY_RECORD_FIELD,
+                    RoutingKeyStrategy.ROUTING_STRATEGY_ATTRIBUTE,
+                    RoutingKeyStrategy.ROUTING_STRATEGY_ROUND_ROBIN,
+                    RoutingKeyStrategy.ROUTING_STRATEGY_RANDOM,
+                    RoutingKeyStrategy.ROUTING_STRATEGY_STICKY,
+                    RoutingKeyStrategy.ROUTING_STRATEGY_CONTENT_HASH)
+            .defaultValue(RoutingKeyStrategy.ROUTING_STRATEGY_RECORD_FIELD.getValue())
+            .build();
+
+    static final PropertyDescriptor ENCODING_PARALLELISM = new PropertyDescriptor.Builder()
+            .name("encoding-parallelism")
+            .displayName("Encoding Parallelism")
+            .description("The number of threads that will encode records. "
+                    + "If greater than 1, records are read on the onTrigger thread and encoded in chunks on a shared fork-join pool. "
+                    + "Events are still written in the order of the records so events with the same routing key remain in sequence.")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1")
+            .build();
+
+    /**
+     * The number of records in each chunk encoded by a single fork-join task.
+     */
+    static final int ENCODING_CHUNK_SIZE = 100;
+
+    private ForkJoinPool encodingPool;
+
     static {
         final List<PropertyDescriptor> innerDescriptorsList = getAbstractPropertyDescriptors();
+        innerDescriptorsList.add(PROP_MAX_FLOWFILES_PER_TRANSACTION);
+        innerDescriptorsList.add(PROP_MAX_TRANSACTION_SIZE);
+        innerDescriptorsList.add(PROP_LINGER_TIME);
+        innerDescriptorsList.add(PROP_ADAPTIVE_TRANSACTION_SIZE);
+        innerDescriptorsList.add(PROP_TARGET_COMMIT_LATENCY);
         innerDescriptorsList.add(RECORD_READER);
         innerDescriptorsList.add(RECORD_WRITER);
+        innerDescriptorsList.add(RECORD_ENCODING);
+        innerDescriptorsList.add(ENCODING_PARALLELISM);
+        innerDescriptorsList.add(PROP_ROUTING_STRATEGY);
         innerDescriptorsList.add(ROUTING_KEY_FIELD);
+        innerDescriptorsList.add(PROP_HOT_KEY_DETECTION);
+        innerDescriptorsList.add(PROP_HOT_KEY_THRESHOLD);
+        innerDescriptorsList.add(PROP_HOT_KEY_FAN_OUT);
+        innerDescriptorsList.add(PROP_MAX_PENDING_TRANSACTIONS);
+        innerDescriptorsList.add(PROP_TRANSACTION_POOL_SIZE);
+        innerDescriptorsList.add(PROP_GROUP_COMMIT);
+        innerDescriptorsList.add(PROP_GROUP_COMMIT_WINDOW);
         descriptors = Collections.unmodifiableList(innerDescriptorsList);
     }
 
@@ -98,43 +162,48 @@ public class PublishPravegaRecord extends AbstractPravegaPublisher {
     public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory, final ProcessSession session) throws ProcessException {
         logger.debug("onTrigger: BEGIN");
 
-        final double maxKiBInTransaction = 1024.0;
-        final int maxEventsInTransaction = 1000;
-        final List<FlowFile> flowFiles = session.get(FlowFileFilters.newSizeBasedFilter(
-                maxKiBInTransaction, DataUnit.KB, maxEventsInTransaction));
-        if (flowFiles.isEmpty()) {
+        if (isLingering(context, session)) {
+            context.yield();
+            finishPipelinedTransactions(session);
             return;
         }
 
-        final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
-        final RecordReaderFactory readerFactory = context.getProperty(RECORD_READER).asControllerService(RecordReaderFactory.class);
+        final ProcessSession publishSession = getPublishSession(context, sessionFactory, session);
+        try {
+            final List<FlowFile> flowFiles = getFlowFiles(context, publishSession);
+            if (flowFiles.isEmpty()) {
+                publishSession.commit();
+                return;
+            }
 
-        final String controller = context.getProperty(PROP_CONTROLLER).getValue();
-        final String scope = context.getProperty(PROP_SCOPE).getValue();
-        final String streamName = context.getProperty(PROP_STREAM).getValue();
-        final String transitUri = buildTransitURI(controller, scope, streamName);
-        final long startTime = System.nanoTime();
-        final TransactionalEventStreamWriter<byte[]> writer = getWriter(context);
-        final Transaction<byte[]> transaction = writer.beginTxn();
-        final UUID txnId = transaction.getTxnId();
+            final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+            final RecordReaderFactory readerFactory = context.getProperty(RECORD_READER).asControllerService(RecordReaderFactory.class);
+            final String recordEncoding = context.getProperty(RECORD_ENCODING).getValue();
+            final int encodingParallelism = context.getProperty(ENCODING_PARALLELISM).asInteger();
 
-        logger.info("Sending {} FlowFiles to Pravega stream {} in transaction {}.",
-                new Object[]{flowFiles.size(), transitUri, txnId});
+            final String controller = context.getProperty(PROP_CONTROLLER).getValue();
+            final String scope = context.getProperty(PROP_SCOPE).getValue();
+            final String streamName = context.getProperty(PROP_STREAM).getValue();
+            final String transitUri = buildTransitURI(controller, scope, streamName);
 
-        final AtomicLong recordCount = new AtomicLong(0);
+            final String routingStrategyValue = context.getProperty(PROP_ROUTING_STRATEGY).getValue();
+            final boolean useRecordField = RoutingKeyStrategy.ROUTING_STRATEGY_RECORD_FIELD.getValue().equals(routingStrategyValue);
+            final boolean useAttribute = RoutingKeyStrategy.ROUTING_STRATEGY_ATTRIBUTE.getValue().equals(routingStrategyValue);
+            final RoutingKeyStrategy routingStrategy = getRoutingKeyStrategy(context, PROP_ROUTING_STRATEGY);
+            reportHotKeys(context, publishSession);
 
-        try {
-            for (final FlowFile flowFile : flowFiles) {
-                if (!isScheduled()) {
-                    // If stopped, re-queue FlowFile instead of sending it
-                    session.transfer(flowFile);
-                    transaction.abort();
-                    continue;
-                }
+            publishTransactional(context, publishSession, flowFiles, transitUri, (txnSession, flowFile, sink) -> {
+                final String routingKeyField = useRecordField
+                        ? context.getProperty(ROUTING_KEY_FIELD).evaluateAttributeExpressions(flowFile).getValue()
+                        : null;
+                final String attributeKey = useAttribute ? flowFile.getAttribute(PublishPravega.ATTR_ROUTING_KEY) : null;
 
-                final String routingKeyField = context.getProperty(ROUTING_KEY_FIELD).evaluateAttributeExpressions(flowFile).getValue();
+                // Applies the routing strategy to the key of each record.
+                final EventSink routedSink = (key, event) -> writeEvent(
+                        routingStrategy.getRoutingKey(key == null ? attributeKey : key, event), event, flowFile, sink);
+                final AtomicLong recordCount = new AtomicLong(0);
 
-                session.read(flowFile, new InputStreamCallback() {
+                txnSession.read(flowFile, new InputStreamCallback() {
                     @Override
                     public void process(final InputStream rawIn) throws IOException {
                         try (final InputStream in = new BufferedInputStream(rawIn)) {
@@ -142,32 +211,14 @@ public class PublishPravegaRecord extends AbstractPravegaPublisher {
                             final RecordSet recordSet = reader.createRecordSet();
                             final RecordSchema schema = writerFactory.getSchema(flowFile.getAttributes(), recordSet.getSchema());
 
-                            final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
-
-                            Record record;
-
-                            while ((record = recordSet.next()) != null) {
-                                recordCount.incrementAndGet();
-                                baos.reset();
-
-                                // Write record to byte array.
-                                try (final RecordSetWriter recordSetWriter = writerFactory.createWriter(logger, schema, baos)) {
-                                    recordSetWriter.write(record);
-                                    recordSetWriter.flush();
-                                }
-
-                                final byte[] messageContent = baos.toByteArray();
-                                final String routingKey = routingKeyField == null ? "" : record.getAsString(routingKeyField);
-
-                                if (logger.isDebugEnabled()) {
-                                    final String flowFileUUID = flowFile.getAttribute(CoreAttributes.UUID.key());
-                                    logger.debug("routingKey={}, size={}, flowFileUUID={}",
-                                            new Object[]{routingKey, flowFile.getSize(), flowFileUUID});
-                                    logger.trace("messageContent={}", new Object[]{dumpByteArray(messageContent)});
-                                }
+                            final Supplier<RecordEventEncoder> encoderSupplier =
+                                    () -> RecordEventEncoder.create(recordEncoding, writerFactory, schema, logger);
 
-                                // Write to Pravega.
-                                transaction.writeEvent(routingKey, messageContent);
+                            if (encodingParallelism > 1) {
+                                recordCount.set(writeRecordsInParallel(recordSet, encoderSupplier, routingKeyField,
+                                        routedSink, getEncodingPool(encodingParallelism), encodingParallelism));
+                            } else {
+                                recordCount.set(writeRecords(recordSet, encoderSupplier.get(), routingKeyField, routedSink));
                             }
                         } catch (final SchemaNotFoundException | MalformedRecordException | TxnFailedException e) {
                             logger.error(e.getMessage());
@@ -175,46 +226,156 @@ public class PublishPravegaRecord extends AbstractPravegaPublisher {
                         }
                     }
                 });
+                return recordCount.get();
+            });
+        } catch (final Throwable t) {
+            if (publishSession != session) {
+                publishSession.rollback(true);
             }
-            // Flush all events to Pravega's durable storage.
-            // This will block until done.
-            // It will not commit the transaction.
-            transaction.flush();
+            throw t;
+        } finally {
+            finishPipelinedTransactions(session);
         }
-        catch (ProcessException | TxnFailedException e) {
-            logger.error(e.getMessage());
-            // Transfer the FlowFiles to the failure relationship.
-            // The user can choose to route the FlowFiles back to this processor for retry
-            // or they can route them to an alternate processor.
-            session.transfer(flowFiles, REL_FAILURE);
-            return;
+    }
+
+    @Override
+    @OnStopped
+    public void onStop(final ProcessContext context) {
+        super.onStop(context);
+        synchronized (this) {
+            if (encodingPool != null) {
+                encodingPool.shutdownNow();
+                encodingPool = null;
+            }
+        }
+    }
+
+    private synchronized ForkJoinPool getEncodingPool(final int parallelism) {
+        if (encodingPool == null) {
+            encodingPool = new ForkJoinPool(parallelism);
         }
+        return encodingPool;
+    }
 
-        final long transmissionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    private static String getRoutingKey(final Record record, final String routingKeyField) {
+        return routingKeyField == null ? null : record.getAsString(routingKeyField);
+    }
 
-        // Transfer the FlowFiles to the success relationship.
-        for (FlowFile flowFile : flowFiles) {
-            session.getProvenanceReporter().send(flowFile, transitUri, transmissionMillis);
-            session.transfer(flowFile, REL_SUCCESS);
+    /**
+     * Encodes and writes each record on the calling thread.
+     *
+     * @return the number of records
+     */
+    private long writeRecords(final RecordSet recordSet, final RecordEventEncoder encoder, final String routingKeyField,
+                              final EventSink sink) throws IOException, SchemaNotFoundException, TxnFailedException {
+        long recordCount = 0;
+        Record record;
+        while ((record = recordSet.next()) != null) {
+            recordCount++;
+
+            // Encode record.
+            final ByteBuffer messageContent = encoder.encode(record);
+            sink.writeEvent(getRoutingKey(record, routingKeyField), messageContent);
         }
+        return recordCount;
+    }
+
+    /**
+     * Reads records on the calling thread and encodes them in chunks on the fork-join pool.
+     * Chunks are written in the order that they were read, which keeps events with the same routing key in sequence.
+     * At most 2 * parallelism chunks will be encoded or waiting to be written at any time.
+     *
+     * @return the number of records
+     */
+    private long writeRecordsInParallel(final RecordSet recordSet, final Supplier<RecordEventEncoder> encoderSupplier,
+                                        final String routingKeyField, final EventSink sink,
+                                        final ForkJoinPool pool, final int parallelism)
+            throws IOException, SchemaNotFoundException, TxnFailedException {
+        final Deque<CompletableFuture<EncodedChunk>> pendingChunks = new ArrayDeque<>();
+        final int maxPendingChunks = 2 * parallelism;
+        long recordCount = 0;
+        List<Record> records = new ArrayList<>(ENCODING_CHUNK_SIZE);
+        Record record;
+        while ((record = recordSet.next()) != null) {
+            recordCount++;
+            records.add(record);
+            if (records.size() == ENCODING_CHUNK_SIZE) {
+                pendingChunks.addLast(encodeChunk(records, encoderSupplier, routingKeyField, pool));
+                records = new ArrayList<>(ENCODING_CHUNK_SIZE);
+                while (pendingChunks.size() >= maxPendingChunks) {
+                    writeChunk(pendingChunks.removeFirst(), sink);
+                }
+            }
+        }
+        if (!records.isEmpty()) {
+            pendingChunks.addLast(encodeChunk(records, encoderSupplier, routingKeyField, pool));
+        }
+        while (!pendingChunks.isEmpty()) {
+            writeChunk(pendingChunks.removeFirst(), sink);
+        }
+        return recordCount;
+    }
 
-        // Now we can commit the Pravega transaction.
-        // If an error occurs, we must rollback the NiFi session because we have already transferred
-        // FlowFiles to the success relationship. We then transfer the FlowFiles to the failure relationship.
+    private CompletableFuture<EncodedChunk> encodeChunk(final List<Record> records, final Supplier<RecordEventEncoder> encoderSupplier,
+                                                        final String routingKeyField, final ForkJoinPool pool) {
+        return CompletableFuture.supplyAsync(() -> {
+            final RecordEventEncoder encoder = encoderSupplier.get();
+            final EncodedChunk chunk = new EncodedChunk(records.size());
+            try {
+                for (final Record record : records) {
+                    chunk.routingKeys.add(getRoutingKey(record, routingKeyField));
+                    chunk.events.add(encoder.encode(record));
+                }
+            } catch (final IOException | SchemaNotFoundException e) {
+                throw new CompletionException(e);
+            }
+            return chunk;
+        }, pool);
+    }
+
+    private void writeChunk(final CompletableFuture<EncodedChunk> future, final EventSink sink)
+            throws IOException, SchemaNotFoundException, TxnFailedException {
+        final EncodedChunk chunk;
         try {
-            transaction.commit();
-        } catch (TxnFailedException e) {
-            logger.error(e.getMessage());
-            session.rollback();
-            session.transfer(flowFiles, REL_FAILURE);
-            return;
+            chunk = future.join();
+        } catch (final CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SchemaNotFoundException) {
+                throw (SchemaNotFoundException) cause;
+            }
+            throw new ProcessException(cause);
+        }
+        for (int i = 0; i < chunk.events.size(); i++) {
+            sink.writeEvent(chunk.routingKeys.get(i), chunk.events.get(i));
+        }
+    }
+
+    private void writeEvent(final String routingKey, final ByteBuffer messageContent, final FlowFile flowFile, final EventSink sink)
+            throws TxnFailedException {
+        if (logger.isDebugEnabled()) {
+            final String flowFileUUID = flowFile.getAttribute(CoreAttributes.UUID.key());
+            logger.debug("routingKey={}, size={}, flowFileUUID={}",
+                    new Object[]{routingKey, flowFile.getSize(), flowFileUUID});
+            logger.trace("messageContent={}", new Object[]{dumpByteBuffer(messageContent)});
         }
 
-        // Commit the NiFi session so that the following log message indicates complete success.
-        session.commit();
+        // Write to Pravega.
+        sink.writeEvent(routingKey, messageContent);
+    }
+
+    /**
+     * The encoded events of a chunk of records.
+     */
+    private static class EncodedChunk {
+        final List<String> routingKeys;
+        final List<ByteBuffer> events;
 
-        logger.info("Sent {} records (events) in {} FlowFiles in {} milliseconds to Pravega stream {} in transaction {}.",
-                new Object[]{recordCount.get(), flowFiles.size(), transmissionMillis, transitUri, txnId});
+        EncodedChunk(final int size) {
+            this.routingKeys = new ArrayList<>(size);
+            this.events = new ArrayList<>(size);
+        }
     }
 
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.nifi.avro.AvroTypeUtil;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.serialization.record.type.ArrayDataType;
+import org.apache.nifi.serialization.record.type.ChoiceDataType;
+import org.apache.nifi.serialization.record.type.MapDataType;
+import org.apache.nifi.serialization.record.type.RecordDataType;
+import org.apache.nifi.serialization.record.util.DataTypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Serializes individual records into the content of Pravega events.
+ * <p>
+ * An encoder is created once per FlowFile and schema and reuses its output buffer for each record.
+ * The encoded bytes of each record are copied into a new array of the exact size. Encoders are not thread-safe.
+ */
+public abstract class RecordEventEncoder {
+
+    static final AllowableValue RECORD_ENCODING_RECORD_WRITER = new AllowableValue(
+            "record-writer",
+            "Record Writer",
+            "Each record is serialized with the configured Record Writer. This supports any format "
+                    + "but a Record Writer must be created for each record, because each event must contain the complete output "
+                    + "of a writer, including any header such as the Avro schema or CSV header line and any framing such as "
+                    + "the brackets of a JSON array. This is the slowest encoding; use a direct encoding where the format allows it.");
+    static final AllowableValue RECORD_ENCODING_AVRO_BINARY = new AllowableValue(
+            "avro-binary",
+            "Avro binary (direct)",
+            "Each record is encoded as a single Avro binary datum using the schema of the Record Writer. "
+                    + "The schema and Avro container header are not written to the event.");
+    static final AllowableValue RECORD_ENCODING_JSON = new AllowableValue(
+            "json",
+            "JSON (direct)",
+            "Each record is encoded as a single JSON object using the schema of the Record Writer. "
+                    + "Values are written as the JSON Record Set Writer writes them with its default settings, "
+                    + "so dates, times and timestamps use the formats yyyy-MM-dd, HH:mm:ss and yyyy-MM-dd HH:mm:ss "
+                    + "unless the schema specifies a format. Use the Record Writer encoding for other settings.");
+
+    protected final RecordSchema schema;
+    protected final ReusableByteArrayOutputStream out = new ReusableByteArrayOutputStream(1024);
+
+    RecordEventEncoder(final RecordSchema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Creates an encoder for the given encoding.
+     *
+     * @param schema the schema that records will be written with
+     */
+    static RecordEventEncoder create(
+            final String encoding,
+            final RecordSetWriterFactory writerFactory,
+            final RecordSchema schema,
+            final ComponentLog logger) {
+        if (RECORD_ENCODING_AVRO_BINARY.getValue().equals(encoding)) {
+            return new AvroBinaryEncoder(schema);
+        } else if (RECORD_ENCODING_JSON.getValue().equals(encoding)) {
+            return new JsonEncoder(schema);
+        } else {
+            return new RecordWriterEncoder(writerFactory, schema, logger);
+        }
+    }
+
+    /**
+     * Encodes a record into a new buffer.
+     */
+    ByteBuffer encode(final Record record) throws IOException, SchemaNotFoundException {
+        out.reset();
+        write(record);
+        return out.toByteBuffer();
+    }
+
+    /**
+     * Writes a single record to out.
+     */
+    protected abstract void write(Record record) throws IOException, SchemaNotFoundException;
+
+    /**
+     * Uses a new Record Writer for each record because writers may add a header or other framing
+     * to their output. A single writer over a reset buffer would write the header only into the first event.
+     */
+    static class RecordWriterEncoder extends RecordEventEncoder {
+        private final RecordSetWriterFactory writerFactory;
+        private final ComponentLog logger;
+
+        RecordWriterEncoder(final RecordSetWriterFactory writerFactory, final RecordSchema schema, final ComponentLog logger) {
+            super(schema);
+            this.writerFactory = writerFactory;
+            this.logger = logger;
+        }
+
+        @Override
+        protected void write(final Record record) throws IOException, SchemaNotFoundException {
+            try (final RecordSetWriter recordSetWriter = writerFactory.createWriter(logger, schema, out)) {
+                recordSetWriter.write(record);
+                recordSetWriter.flush();
+            }
+        }
+    }
+
+    static class AvroBinaryEncoder extends RecordEventEncoder {
+        private final Schema avroSchema;
+        private final GenericDatumWriter<GenericRecord> datumWriter;
+        private BinaryEncoder encoder;
+
+        AvroBinaryEncoder(final RecordSchema schema) {
+            super(schema);
+            this.avroSchema = AvroTypeUtil.extractAvroSchema(schema);
+            this.datumWriter = new GenericDatumWriter<>(avroSchema);
+        }
+
+        @Override
+        protected void write(final Record record) throws IOException {
+            final GenericRecord avroRecord = AvroTypeUtil.createAvroRecord(record, avroSchema);
+            encoder = EncoderFactory.get().binaryEncoder(out, encoder);
+            datumWriter.write(avroRecord, encoder);
+            encoder.flush();
+        }
+    }
+
+    /**
+     * Writes each record as a JSON object with a Jackson generator that is reused for all records.
+     * Values are written according to their field types, as the JSON Record Set Writer does with its default settings.
+     */
+    static class JsonEncoder extends RecordEventEncoder {
+        // Records are written one per event so no separator is needed between root values.
+        private static final JsonFactory JSON_FACTORY = new JsonFactory().setRootValueSeparator(null);
+
+        private JsonGenerator generator;
+
+        JsonEncoder(final RecordSchema schema) {
+            super(schema);
+        }
+
+        @Override
+        protected void write(final Record record) throws IOException {
+            if (generator == null) {
+                generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+            }
+            writeRecord(record, schema);
+            generator.flush();
+        }
+
+        private void writeRecord(final Record record, final RecordSchema recordSchema) throws IOException {
+            generator.writeStartObject();
+            for (final RecordField field : recordSchema.getFields()) {
+                generator.writeFieldName(field.getFieldName());
+                writeValue(record.getValue(field.getFieldName()), field.getDataType());
+            }
+            generator.writeEndObject();
+        }
+
+        private void writeValue(final Object value, final DataType dataType) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+                return;
+            }
+            switch (dataType.getFieldType()) {
+                case DATE:
+                case TIME:
+                case TIMESTAMP:
+                    generator.writeString(DataTypeUtils.toString(value, dataType.getFormat() != null
+                            ? dataType.getFormat() : dataType.getFieldType().getDefaultFormat()));
+                    return;
+                case STRING:
+                case CHAR:
+                    generator.writeString(value.toString());
+                    return;
+                case RECORD:
+                    if (value instanceof Record) {
+                        final RecordSchema childSchema = ((RecordDataType) dataType).getChildSchema();
+                        writeRecord((Record) value, childSchema != null ? childSchema : ((Record) value).getSchema());
+                        return;
+                    }
+                    break;
+                case ARRAY:
+                    if (value.getClass().isArray()) {
+                        final DataType elementType = ((ArrayDataType) dataType).getElementType();
+                        generator.writeStartArray();
+                        for (int i = 0; i < Array.getLength(value); i++) {
+                            writeValue(Array.get(value, i), elementType);
+                        }
+                        generator.writeEndArray();
+                        return;
+                    }
+                    break;
+                case MAP:
+                    if (value instanceof Map) {
+                        writeMap((Map<?, ?>) value, ((MapDataType) dataType).getValueType());
+                        return;
+                    }
+                    break;
+                case CHOICE:
+                    final DataType chosenType = DataTypeUtils.chooseDataType(value, (ChoiceDataType) dataType);
+                    if (chosenType != null) {
+                        writeValue(value, chosenType);
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            writeUntyped(value);
+        }
+
+        /**
+         * Writes a value whose field type does not determine how to write it.
+         */
+        private void writeUntyped(final Object value) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+            } else if (value instanceof Record) {
+                final Record record = (Record) value;
+                writeRecord(record, record.getSchema());
+            } else if (value instanceof Boolean) {
+                generator.writeBoolean((Boolean) value);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                generator.writeNumber(((Number) value).longValue());
+            } else if (value instanceof Float) {
+                generator.writeNumber((Float) value);
+            } else if (value instanceof Double) {
+                generator.writeNumber((Double) value);
+            } else if (value instanceof BigInteger) {
+                generator.writeNumber((BigInteger) value);
+            } else if (value instanceof BigDecimal) {
+                generator.writeNumber((BigDecimal) value);
+            } else if (value instanceof java.sql.Date) {
+                generator.writeString(DataTypeUtils.toString(value, RecordFieldType.DATE.getDefaultFormat()));
+            } else if (value instanceof java.sql.Time) {
+                generator.writeString(DataTypeUtils.toString(value, RecordFieldType.TIME.getDefaultFormat()));
+            } else if (value instanceof Date) {
+                generator.writeString(DataTypeUtils.toString(value, RecordFieldType.TIMESTAMP.getDefaultFormat()));
+            } else if (value.getClass().isArray()) {
+                generator.writeStartArray();
+                for (int i = 0; i < Array.getLength(value); i++) {
+                    writeUntyped(Array.get(value, i));
+                }
+                generator.writeEndArray();
+            } else if (value instanceof Collection) {
+                generator.writeStartArray();
+                for (final Object element : (Collection<?>) value) {
+                    writeUntyped(element);
+                }
+                generator.writeEndArray();
+            } else if (value instanceof Map) {
+                writeMap((Map<?, ?>) value, null);
+            } else {
+                generator.writeString(value.toString());
+            }
+        }
+
+        private void writeMap(final Map<?, ?> map, final DataType valueType) throws IOException {
+            generator.writeStartObject();
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                if (valueType == null) {
+                    writeUntyped(entry.getValue());
+                } else {
+                    writeValue(entry.getValue(), valueType);
+                }
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * A ByteArrayOutputStream whose contents can be wrapped in a ByteBuffer with a single copy.
+     */
+    static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+        ReusableByteArrayOutputStream(final int size) {
+            super(size);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(Arrays.copyOf(buf, count));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.EventRead;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.apache.nifi.processors.pravega.ConsumePravega.ATTR_EVENT_COUNT;
+import static org.apache.nifi.processors.pravega.ConsumePravega.ATTR_EVENT_POINTER;
+import static org.apache.nifi.processors.pravega.ConsumePravega.REL_SUCCESS;
+import static org.apache.nifi.processors.pravega.ConsumePravegaRecord.ATTR_RECORD_COUNT;
+import static org.apache.nifi.processors.pravega.ConsumePravegaRecord.REL_PARSE_FAILURE;
+
+/**
+ * Parses each event with a Record Reader and appends the records to one FlowFile per write schema.
+ * <p>
+ * A single Record Set Writer is opened for each schema when the first record with that schema is read
+ * and it is finished when the lease flushes at the next checkpoint. Events that cannot be parsed are
+ * written to their own FlowFile and routed to the parse failure relationship.
+ */
+public class RecordEventOutput extends EventOutput {
+
+    private final RecordReaderFactory readerFactory;
+    private final RecordSetWriterFactory writerFactory;
+    private final Map<RecordSchema, SchemaBundle> bundles = new HashMap<>();
+
+    RecordEventOutput(final ComponentLog logger, final URI controllerURI,
+                      final RecordReaderFactory readerFactory, final RecordSetWriterFactory writerFactory) {
+        super(logger, controllerURI);
+        this.readerFactory = readerFactory;
+        this.writerFactory = writerFactory;
+    }
+
+    @Override
+    void write(final ProcessSession session, final EventRead<byte[]> eventRead) {
+        final byte[] value = eventRead.getEvent();
+        final List<Record> records = new ArrayList<>();
+        try (final InputStream in = new ByteArrayInputStream(value)) {
+            final RecordReader reader = readerFactory.createRecordReader(Collections.emptyMap(), in, logger);
+            Record record;
+            while ((record = reader.nextRecord()) != null) {
+                records.add(record);
+            }
+        } catch (final IOException | MalformedRecordException | SchemaNotFoundException | RuntimeException e) {
+            handleParseFailure(session, eventRead, e);
+            return;
+        }
+
+        // Only write the records once the whole event has been parsed so that an event is
+        // either in the output or in the parse failure relationship.
+        final Set<SchemaBundle> updatedBundles = new HashSet<>();
+        try {
+            for (final Record record : records) {
+                final RecordSchema writeSchema = writerFactory.getSchema(Collections.emptyMap(), record.getSchema());
+                SchemaBundle bundle = bundles.get(writeSchema);
+                if (bundle == null) {
+                    bundle = new SchemaBundle(session, writeSchema, eventRead);
+                    bundles.put(writeSchema, bundle);
+                }
+                bundle.writer.write(record);
+                updatedBundles.add(bundle);
+            }
+            for (final SchemaBundle bundle : updatedBundles) {
+                bundle.eventCount++;
+            }
+        } catch (final IOException | SchemaNotFoundException e) {
+            throw new ProcessException(e);
+        }
+    }
+
+    @Override
+    void flush(final ProcessSession session) {
+        for (final SchemaBundle bundle : bundles.values()) {
+            try {
+                final WriteResult writeResult = bundle.writer.finishRecordSet();
+                bundle.writer.close();
+                final Map<String, String> attributes = new HashMap<>(writeResult.getAttributes());
+                attributes.put(ATTR_RECORD_COUNT, String.valueOf(writeResult.getRecordCount()));
+                attributes.put(CoreAttributes.MIME_TYPE.key(), bundle.writer.getMimeType());
+                attributes.put(ATTR_EVENT_POINTER, bundle.firstEvent.getEventPointer().toString());
+                attributes.put(ATTR_EVENT_COUNT, String.valueOf(bundle.eventCount));
+                final FlowFile flowFile = session.putAllAttributes(bundle.flowFile, attributes);
+                logger.debug("flush: recordCount={}, flowFile={}", new Object[]{writeResult.getRecordCount(), flowFile});
+                session.getProvenanceReporter().receive(flowFile, getTransitUri(bundle.firstEvent));
+                session.transfer(flowFile, REL_SUCCESS);
+            } catch (final IOException e) {
+                throw new ProcessException(e);
+            }
+        }
+        bundles.clear();
+    }
+
+    @Override
+    void reset() {
+        for (final SchemaBundle bundle : bundles.values()) {
+            try {
+                bundle.writer.close();
+            } catch (final Exception e) {
+                logger.warn("Failed to close Record Writer", e);
+            }
+        }
+        bundles.clear();
+    }
+
+    private void handleParseFailure(final ProcessSession session, final EventRead<byte[]> eventRead, final Exception e) {
+        logger.error("Failed to parse event {} using the configured Record Reader; routing to parse.failure: {}",
+                new Object[]{eventRead.getEventPointer(), e});
+        final byte[] value = eventRead.getEvent();
+        FlowFile flowFile = session.create();
+        flowFile = session.write(flowFile, out -> {
+            out.write(value);
+        });
+        flowFile = session.putAttribute(flowFile, ATTR_EVENT_POINTER, eventRead.getEventPointer().toString());
+        session.getProvenanceReporter().receive(flowFile, getTransitUri(eventRead));
+        session.transfer(flowFile, REL_PARSE_FAILURE);
+    }
+
+    /**
+     * The FlowFile and Record Set Writer for a single write schema.
+     */
+    private class SchemaBundle {
+        final FlowFile flowFile;
+        final RecordSetWriter writer;
+        final EventRead<byte[]> firstEvent;
+        long eventCount;
+
+        SchemaBundle(final ProcessSession session, final RecordSchema writeSchema, final EventRead<byte[]> firstEvent)
+                throws IOException, SchemaNotFoundException {
+            this.flowFile = session.create();
+            this.firstEvent = firstEvent;
+            final OutputStream out = session.write(flowFile);
+            try {
+                this.writer = writerFactory.createWriter(logger, writeSchema, out);
+                writer.beginRecordSet();
+            } catch (final IOException | SchemaNotFoundException | RuntimeException e) {
+                out.close();
+                session.remove(flowFile);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.common.hash.HashHelper;
+
+/**
+ * The hash that the Pravega client uses to place a routing key in the key space of a stream.
+ * <p>
+ * The client does not expose its hash function or the key ranges of segments, so this uses the internal
+ * io.pravega.common.hash.HashHelper with the seed of the client's StreamSegments.
+ * This is the only class that depends on it. TestRouterHash checks that keys are placed in the segments
+ * that the client routes them to, so that a change in a Pravega upgrade fails the tests instead of
+ * silently breaking the round-robin routing strategy and the segment skew reported by hot key detection.
+ */
+final class RouterHash {
+
+    private static final HashHelper ROUTER_HASH = HashHelper.seededWith("EventRouter");
+
+    private RouterHash() {
+    }
+
+    /**
+     * Returns the position of a routing key in the key space [0, 1), as computed by the Pravega event router.
+     */
+    static double hashToRange(final String routingKey) {
+        return ROUTER_HASH.hashToRange(routingKey);
+    }
+}
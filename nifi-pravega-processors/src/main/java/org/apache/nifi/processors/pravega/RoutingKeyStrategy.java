@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.apache.nifi.components.AllowableValue;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the routing key of each event written by a publisher.
+ * <p>
+ * Pravega assigns an event to a segment by hashing its routing key, so events without a key all land in
+ * the same segment. The strategies other than the attribute and record field strategies spread keyless
+ * events across the key space. A strategy is created for each onTrigger call (i.e. each transaction).
+ */
+public abstract class RoutingKeyStrategy {
+
+    static final AllowableValue ROUTING_STRATEGY_ATTRIBUTE = new AllowableValue(
+            "attribute",
+            "FlowFile Attribute",
+            "The routing key is the value of the " + PublishPravega.ATTR_ROUTING_KEY + " attribute. "
+                    + "If the attribute is not set, the empty routing key is used.");
+    static final AllowableValue ROUTING_STRATEGY_RECORD_FIELD = new AllowableValue(
+            "record-field",
+            "Record Field",
+            "The routing key is the value of the Routing Key Field of each record. "
+                    + "If the field is not set, the empty routing key is used.");
+    static final AllowableValue ROUTING_STRATEGY_ROUND_ROBIN = new AllowableValue(
+            "round-robin",
+            "Round Robin",
+            "Each event uses the next of a set of routing keys that hash to evenly spaced ranges of the key space, "
+                    + "one for each segment of the stream. The segments are refreshed every minute. "
+                    + "This is only possible while the stream has its initial, evenly split segments, i.e. it has a fixed "
+                    + "scaling policy or has never scaled. Once the stream has scaled, random routing keys are used instead.");
+    static final AllowableValue ROUTING_STRATEGY_RANDOM = new AllowableValue(
+            "random",
+            "Random",
+            "Each event uses a random routing key.");
+    static final AllowableValue ROUTING_STRATEGY_STICKY = new AllowableValue(
+            "sticky",
+            "Sticky",
+            "All events of a transaction use the same random routing key. "
+                    + "This spreads transactions across segments while each transaction writes to a single segment.");
+    static final AllowableValue ROUTING_STRATEGY_CONTENT_HASH = new AllowableValue(
+            "content-hash",
+            "Content Hash",
+            "The routing key is the 64-bit FNV-1a hash of the event content. Events with identical content are kept in order.");
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Returns the routing key of an event.
+     *
+     * @param key   the key from the attribute or record field; may be null
+     * @param event the event content; its position is not changed
+     */
+    abstract String getRoutingKey(String key, ByteBuffer event);
+
+    /**
+     * Creates a strategy for a single transaction.
+     *
+     * @param segmentRoutingKeys supplies one routing key per segment; only used by the round-robin strategy
+     */
+    static RoutingKeyStrategy create(final String strategy, final SegmentRoutingKeys segmentRoutingKeys) {
+        if (ROUTING_STRATEGY_ROUND_ROBIN.getValue().equals(strategy)) {
+            final String[] keys = segmentRoutingKeys.get();
+            return keys == null ? new RandomStrategy() : new RoundRobinStrategy(keys);
+        } else if (ROUTING_STRATEGY_RANDOM.getValue().equals(strategy)) {
+            return new RandomStrategy();
+        } else if (ROUTING_STRATEGY_STICKY.getValue().equals(strategy)) {
+            return new StickyStrategy(newRandomKey());
+        } else if (ROUTING_STRATEGY_CONTENT_HASH.getValue().equals(strategy)) {
+            return new ContentHashStrategy();
+        } else {
+            return new KeyStrategy();
+        }
+    }
+
+    /**
+     * Returns true if the strategy uses the keys of the events, i.e. the attribute or record field strategies.
+     * Only these strategies can have hot keys. The others choose keys that are already spread across the key space,
+     * so they are neither counted nor salted by hot key detection.
+     */
+    static boolean usesEventKeys(final String strategy) {
+        return ROUTING_STRATEGY_ATTRIBUTE.getValue().equals(strategy) || ROUTING_STRATEGY_RECORD_FIELD.getValue().equals(strategy);
+    }
+
+    /**
+     * Supplies the routing keys used by the round-robin strategy.
+     */
+    interface SegmentRoutingKeys {
+        /**
+         * @return one routing key per segment, or null if the key ranges of the segments are not known
+         */
+        String[] get();
+    }
+
+    /**
+     * Returns true if the given segments are the initial segments of a stream.
+     * A stream is created with evenly split key ranges, and the epoch in the high 32 bits of the segment ID
+     * only becomes greater than 0 when the stream scales, after which the ranges can be split unevenly.
+     */
+    static boolean isEvenlySplit(final Collection<Long> segmentIds) {
+        for (final long segmentId : segmentIds) {
+            if ((segmentId >>> 32) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds one routing key for each of segmentCount evenly spaced ranges of the key space.
+     * Key i hashes into [i / segmentCount, (i + 1) / segmentCount).
+     * These are the key ranges of the segments only if the stream is evenly split (see isEvenlySplit).
+     */
+    static String[] findSegmentRoutingKeys(final int segmentCount) {
+        final String[] keys = new String[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            final double low = (double) i / segmentCount;
+            final double high = (double) (i + 1) / segmentCount;
+            for (long n = 0; ; n++) {
+                final String candidate = i + "-" + n;
+                final double hash = RouterHash.hashToRange(candidate);
+                if (hash >= low && hash < high) {
+                    keys[i] = candidate;
+                    break;
+                }
+            }
+        }
+        return keys;
+    }
+
+    static long fnv1a(final ByteBuffer buffer) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            hash ^= buffer.get(i) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static String newRandomKey() {
+        return Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    static class KeyStrategy extends RoutingKeyStrategy {
+        @Override
+        String getRoutingKey(final String key, final ByteBuffer event) {
+            return key == null ? "" : key;
+        }
+    }
+
+    static class RoundRobinStrategy extends RoutingKeyStrategy {
+        private final String[] keys;
+        private final AtomicInteger next = new AtomicInteger(ThreadLocalRandom.current().nextInt(1 << 16));
+
+        RoundRobinStrategy(final String[] keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        String getRoutingKey(final String key, final ByteBuffer event) {
+            return keys[Math.floorMod(next.getAndIncrement(), keys.length)];
+        }
+    }
+
+    static class RandomStrategy extends RoutingKeyStrategy {
+        @Override
+        String getRoutingKey(final String key, final ByteBuffer event) {
+            return newRandomKey();
+        }
+    }
+
+    static class StickyStrategy extends RoutingKeyStrategy {
+        private final String stickyKey;
+
+        StickyStrategy(final String stickyKey) {
+            this.stickyKey = stickyKey;
+        }
+
+        @Override
+        String getRoutingKey(final String key, final ByteBuffer event) {
+            return stickyKey;
+        }
+    }
+
+    /**
+     * Counts the keys chosen by another strategy and salts hot keys.
+     */
+    static class HotKeyStrategy extends RoutingKeyStrategy {
+        private final RoutingKeyStrategy delegate;
+        private final HotKeyDetector detector;
+
+        HotKeyStrategy(final RoutingKeyStrategy delegate, final HotKeyDetector detector) {
+            this.delegate = delegate;
+            this.detector = detector;
+        }
+
+        @Override
+        String getRoutingKey(final String key, final ByteBuffer event) {
+            return detector.record(delegate.getRoutingKey(key, event));
+        }
+    }
+
+    static class ContentHashStrategy extends RoutingKeyStrategy {
+        @Override
+        String getRoutingKey(final String key, final ByteBuffer event) {
+            return Long.toHexString(fnv1a(event));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.ClientConfig;
+import io.pravega.client.stream.Stream;
+import io.pravega.client.stream.StreamCut;
+import org.apache.nifi.logging.ComponentLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * An index of the tail stream cuts of a stream by wall-clock time.
+ * <p>
+ * The primary node of a ConsumePravega processor adds the tail stream cut periodically. A reader group that should start
+ * at a given time starts at the latest stream cut sampled at or before that time, so that it reads at most one sampling interval
+ * of events before that time instead of the whole stream.
+ * <p>
+ * The catalog is stored with a StateSynchronizer in a stream next to the indexed stream, so it is shared by all processors
+ * that read the stream and it is not removed when the state of a processor is cleared. Each entry maps the sample time
+ * in milliseconds to the base64-encoded stream cut. Each sample only writes its own entry.
+ * Entries older than the maximum age are removed when the stream of the catalog is compacted.
+ */
+public class StreamCutCatalog implements Closeable {
+
+    static final String STREAM_NAME_SUFFIX = "-stream-cut-catalog";
+
+    private final ComponentLog logger;
+    private final Stream stream;
+    private final CheckpointStore.SynchronizerStore store;
+
+    // Entries sampled before this time are removed at the next compaction.
+    private volatile long minRetainedTime = Long.MIN_VALUE;
+
+    StreamCutCatalog(final ComponentLog logger, final ClientConfig clientConfig, final Stream stream, final boolean createScope) {
+        this.logger = logger;
+        this.stream = stream;
+        this.store = new CheckpointStore.SynchronizerStore(logger, clientConfig, stream.getScope(),
+                stream.getStreamName() + STREAM_NAME_SUFFIX, createScope, key -> Long.parseLong(key) >= minRetainedTime);
+    }
+
+    /**
+     * Adds a stream cut sampled at the given time. Entries older than maxAgeMs are removed at the next compaction.
+     */
+    void add(final long time, final StreamCut streamCut, final long maxAgeMs) {
+        minRetainedTime = time - maxAgeMs;
+        store.put(Long.toString(time), Base64.getEncoder().encodeToString(streamCut.toBytes().array()));
+        logger.debug("add: stream={}, time={}", new Object[]{stream, time});
+    }
+
+    /**
+     * @return the latest stream cut sampled at or before the given time, or null if there is none
+     */
+    StreamCut find(final long time) throws IOException {
+        long bestTime = Long.MIN_VALUE;
+        String best = null;
+        for (final Map.Entry<String, String> entry : store.getState().toMap().entrySet()) {
+            final long entryTime = Long.parseLong(entry.getKey());
+            if (entryTime <= time && entryTime > bestTime) {
+                bestTime = entryTime;
+                best = entry.getValue();
+            }
+        }
+        logger.debug("find: stream={}, time={}, foundTime={}", new Object[]{stream, time, best == null ? null : bestTime});
+        return best == null ? null : StreamCut.fromBytes(ByteBuffer.wrap(Base64.getDecoder().decode(best)));
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    @Override
+    public String toString() {
+        return "StreamCutCatalog{stream=" + stream + "}";
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.Transaction;
+import io.pravega.client.stream.TxnFailedException;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.nifi.processors.pravega.AbstractPravegaPublisher.REL_FAILURE;
+import static org.apache.nifi.processors.pravega.AbstractPravegaPublisher.REL_SUCCESS;
+
+/**
+ * Flushes and commits Pravega transactions in the background so that onTrigger can fill the next
+ * transaction while previous ones are still being flushed or committed.
+ * Transactions are flushed concurrently but committed one at a time in the order they were submitted,
+ * so events with the same routing key stay in order across transactions.
+ * The background threads only call Pravega. The FlowFiles of a transaction are routed, and their NiFi session
+ * is committed, by a NiFi thread in finishCompleted, finishAll or close, after Pravega has confirmed
+ * the status of the transaction.
+ */
+public class TransactionPipeline implements AutoCloseable {
+
+    private final ComponentLog logger;
+    private final int maxPendingTransactions;
+    private final long transactionTimeoutMs;
+    private final Semaphore pendingPermits;
+    private final ExecutorService commitExecutor;
+    // Batches that have been submitted but not finished, in submission order.
+    // must have lock on this to access
+    private final Deque<TransactionBatch> unfinishedBatches = new ArrayDeque<>();
+    // Completes when the last submitted batch has been committed or has failed.
+    // must have lock on this to access
+    private CompletableFuture<Void> lastBatchCompleted = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param maxPendingTransactions the maximum number of transactions that may be flushing or committing
+     *                               at once; submit will block when this is reached
+     * @param transactionTimeoutMs   the maximum time to wait for a committing transaction to be confirmed
+     */
+    public TransactionPipeline(final ComponentLog logger, final int maxPendingTransactions, final long transactionTimeoutMs) {
+        this.logger = logger;
+        this.maxPendingTransactions = maxPendingTransactions;
+        this.transactionTimeoutMs = transactionTimeoutMs;
+        this.pendingPermits = new Semaphore(maxPendingTransactions);
+        this.commitExecutor = Executors.newFixedThreadPool(maxPendingTransactions);
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionPipeline{" +
+                "maxPendingTransactions=" + maxPendingTransactions +
+                ", transactionTimeoutMs=" + transactionTimeoutMs +
+                '}';
+    }
+
+    /**
+     * Hands a filled transaction to the pipeline.
+     * This will block while the maximum number of pending transactions are in progress.
+     * From now on, the session of the batch is owned by the pipeline.
+     */
+    void submit(final TransactionBatch batch) {
+        try {
+            pendingPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.fail(e);
+            return;
+        }
+        final CompletableFuture<Void> predecessor;
+        synchronized (this) {
+            predecessor = lastBatchCompleted;
+            lastBatchCompleted = batch.completed;
+            unfinishedBatches.addLast(batch);
+        }
+        try {
+            commitExecutor.submit(() -> {
+                try {
+                    batch.execute(predecessor, true, transactionTimeoutMs);
+                } finally {
+                    pendingPermits.release();
+                }
+            });
+        } catch (final RuntimeException e) {
+            pendingPermits.release();
+            batch.abort(e);
+        }
+    }
+
+    /**
+     * Routes the FlowFiles of the batches whose transactions have completed and commits their sessions.
+     * This does not wait for pending transactions.
+     */
+    void finishCompleted() {
+        while (true) {
+            final TransactionBatch batch;
+            synchronized (this) {
+                batch = unfinishedBatches.peekFirst();
+                if (batch == null || !batch.completed.isDone()) {
+                    return;
+                }
+                unfinishedBatches.removeFirst();
+            }
+            batch.finish();
+        }
+    }
+
+    /**
+     * Waits for the transaction of the given batch to complete.
+     * Then the batch and all earlier batches are finished.
+     */
+    private void finishThrough(final TransactionBatch batch) {
+        try {
+            batch.completed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            // The future of a batch is never completed exceptionally.
+            throw new ProcessException(e.getCause());
+        }
+        finishCompleted();
+    }
+
+    /**
+     * Waits for the transactions of all batches submitted so far to complete and finishes them.
+     */
+    void finishAll() {
+        final TransactionBatch lastBatch;
+        synchronized (this) {
+            lastBatch = unfinishedBatches.peekLast();
+        }
+        if (lastBatch != null) {
+            finishThrough(lastBatch);
+        }
+    }
+
+    /**
+     * Waits for all pending transactions to complete, then finishes all batches.
+     * The sessions of batches whose transactions did not complete are rolled back.
+     */
+    @Override
+    public void close() {
+        commitExecutor.shutdown();
+        try {
+            if (!commitExecutor.awaitTermination(transactionTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("Timed out waiting for {} pending transactions to complete.",
+                        new Object[]{maxPendingTransactions - pendingPermits.availablePermits()});
+                commitExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            commitExecutor.shutdownNow();
+        }
+        final List<TransactionBatch> batches;
+        synchronized (this) {
+            batches = new ArrayList<>(unfinishedBatches);
+            unfinishedBatches.clear();
+        }
+        for (final TransactionBatch batch : batches) {
+            if (batch.completed.isDone()) {
+                batch.finish();
+            } else {
+                batch.abandon();
+            }
+        }
+    }
+
+    /**
+     * A Pravega transaction that has been filled with the events of some FlowFiles, along with
+     * the session that owns those FlowFiles.
+     */
+    static class TransactionBatch {
+        private final ComponentLog logger;
+        private final Transaction<ByteBuffer> transaction;
+        private final ProcessSession session;
+        private final List<FlowFile> flowFiles;
+        private final String transitUri;
+        private final long eventCount;
+        private final long startTime;
+        private final AdaptiveTransactionSizer sizer;
+        // Completes when the transaction has been committed or has failed. Never completed exceptionally.
+        private final CompletableFuture<Void> completed = new CompletableFuture<>();
+        // The outcome of execute, read by finish after completed is done.
+        private volatile Exception failure;
+        private volatile boolean rollbackSession;
+
+        /**
+         * @param sizer if not null, this will be informed of the flush and commit latency
+         */
+        TransactionBatch(
+                final ComponentLog logger,
+                final Transaction<ByteBuffer> transaction,
+                final ProcessSession session,
+                final List<FlowFile> flowFiles,
+                final String transitUri,
+                final long eventCount,
+                final long startTime,
+                final AdaptiveTransactionSizer sizer) {
+            this.logger = logger;
+            this.transaction = transaction;
+            this.session = session;
+            this.flowFiles = flowFiles;
+            this.transitUri = transitUri;
+            this.eventCount = eventCount;
+            this.startTime = startTime;
+            this.sizer = sizer;
+        }
+
+        /**
+         * Flushes and commits the transaction, then routes the FlowFiles and commits the NiFi session.
+         *
+         * @param confirmCommit If true, wait until Pravega reports the transaction as committed
+         *                      before routing the FlowFiles to success.
+         */
+        void complete(final boolean confirmCommit, final long transactionTimeoutMs) {
+            execute(CompletableFuture.completedFuture(null), confirmCommit, transactionTimeoutMs);
+            finish();
+        }
+
+        /**
+         * Flushes and commits the transaction and records the outcome for finish.
+         * This does not use the NiFi session so it may be called by any thread.
+         *
+         * @param predecessor completes when the previously submitted transaction has been committed or has failed;
+         *                    this transaction is committed only after that
+         */
+        void execute(final CompletableFuture<Void> predecessor, final boolean confirmCommit, final long transactionTimeoutMs) {
+            final long commitStartTime = System.nanoTime();
+            long predecessorWaitNanos = 0;
+            try {
+                // Flush all events to Pravega's durable storage.
+                // This will block until done.
+                // It will not commit the transaction.
+                transaction.flush();
+                final long waitStartTime = System.nanoTime();
+                awaitPredecessor(predecessor);
+                predecessorWaitNanos = System.nanoTime() - waitStartTime;
+                transaction.commit();
+                if (confirmCommit) {
+                    final Transaction.Status status = waitForCommit(transactionTimeoutMs);
+                    if (status != Transaction.Status.COMMITTED) {
+                        throw new ProcessException(String.format("Transaction %s has status %s", transaction.getTxnId(), status));
+                    }
+                }
+                if (sizer != null) {
+                    sizer.onCommitted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - commitStartTime - predecessorWaitNanos));
+                }
+            } catch (TxnFailedException | ProcessException e) {
+                if (sizer != null) {
+                    sizer.onFailed();
+                }
+                abortTransaction();
+                failure = e;
+            } catch (final Throwable t) {
+                logger.error("Unable to complete transaction {}; its session will be rolled back", new Object[]{transaction.getTxnId()}, t);
+                abortTransaction();
+                failure = new ProcessException(t);
+                rollbackSession = true;
+            } finally {
+                completed.complete(null);
+            }
+        }
+
+        /**
+         * Routes the FlowFiles according to the outcome recorded by execute and commits the NiFi session.
+         * This must be called by a NiFi thread after the batch has completed.
+         */
+        void finish() {
+            if (failure == null) {
+                succeed();
+            } else if (rollbackSession) {
+                session.rollback(true);
+            } else {
+                routeToFailure(failure);
+            }
+        }
+
+        /**
+         * Records a failure without flushing the transaction. The batch must still be finished.
+         */
+        void abort(final Exception e) {
+            abortTransaction();
+            failure = e;
+            completed.complete(null);
+        }
+
+        /**
+         * Aborts the transaction and rolls back the session so that the FlowFiles are returned to the queue.
+         * This is used for batches whose transaction did not complete before the pipeline was closed.
+         */
+        void abandon() {
+            logger.warn("Transaction {} did not complete; rolling back session", new Object[]{transaction.getTxnId()});
+            abortTransaction();
+            session.rollback();
+        }
+
+        /**
+         * Routes the FlowFiles to the success relationship and commits the NiFi session.
+         * This must be called only after the transaction has been committed.
+         */
+        void succeed() {
+            final long transmissionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+            // Transfer the FlowFiles to the success relationship.
+            for (FlowFile flowFile : flowFiles) {
+                session.getProvenanceReporter().send(flowFile, transitUri, transmissionMillis);
+                session.transfer(flowFile, REL_SUCCESS);
+            }
+
+            // Commit the NiFi session so that the following log message indicates complete success.
+            session.commit();
+
+            logger.info("Sent {} events from {} FlowFiles in {} milliseconds to Pravega stream {} in transaction {}.",
+                    new Object[]{eventCount, flowFiles.size(), transmissionMillis, transitUri, transaction.getTxnId()});
+        }
+
+        /**
+         * Aborts the transaction and routes all FlowFiles to the failure relationship.
+         * The user can choose to route the FlowFiles back to this processor for retry
+         * or they can route them to an alternate processor.
+         */
+        void fail(final Exception e) {
+            abortTransaction();
+            routeToFailure(e);
+        }
+
+        private void abortTransaction() {
+            try {
+                transaction.abort();
+            } catch (final Exception abortException) {
+                logger.debug("Unable to abort transaction {}", new Object[]{transaction.getTxnId()}, abortException);
+            }
+        }
+
+        private void awaitPredecessor(final CompletableFuture<Void> predecessor) {
+            try {
+                predecessor.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException(e);
+            } catch (ExecutionException e) {
+                throw new ProcessException(e.getCause());
+            }
+        }
+
+        /**
+         * Routes all FlowFiles to the failure relationship without aborting the transaction.
+         * This is used when the transaction is shared with other tasks.
+         */
+        void routeToFailure(final Exception e) {
+            logger.error("Transaction {} failed: {}", new Object[]{transaction.getTxnId(), e});
+            session.transfer(flowFiles, REL_FAILURE);
+            session.commit();
+        }
+
+        private Transaction.Status waitForCommit(final long transactionTimeoutMs) {
+            final long timeoutTime = System.currentTimeMillis() + transactionTimeoutMs;
+            long sleepMs = 1;
+            Transaction.Status status = transaction.checkStatus();
+            while ((status == Transaction.Status.OPEN || status == Transaction.Status.COMMITTING)
+                    && System.currentTimeMillis() < timeoutTime) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProcessException(e);
+                }
+                sleepMs = Math.min(2 * sleepMs, 1000);
+                status = transaction.checkStatus();
+            }
+            logger.debug("waitForCommit: txnId={}, status={}", new Object[]{transaction.getTxnId(), status});
+            return status;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.Transaction;
+import io.pravega.client.stream.TransactionalEventStreamWriter;
+import org.apache.nifi.logging.ComponentLog;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A small pool of transactions that have already been opened with beginTxn.
+ * beginTxn is a synchronous controller RPC so opening transactions ahead of time in a background
+ * thread allows onTrigger to begin writing events immediately.
+ * <p>
+ * Pooled transactions are only handed out during the first half of their lease
+ * so that there is enough time left to write, flush and commit before the controller aborts them.
+ * Older transactions are aborted and replaced.
+ */
+public class TransactionPool implements AutoCloseable {
+
+    private final ComponentLog logger;
+    private final TransactionalEventStreamWriter<ByteBuffer> writer;
+    private final int poolSize;
+    private final long maxAgeMs;
+    private final BlockingQueue<PooledTransaction> transactions;
+    private final ScheduledExecutorService refillExecutor;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    /**
+     * @param poolSize             the number of open transactions to keep ready
+     * @param transactionTimeoutMs the transaction lease timeout configured in the writer
+     */
+    public TransactionPool(
+            final ComponentLog logger,
+            final TransactionalEventStreamWriter<ByteBuffer> writer,
+            final int poolSize,
+            final long transactionTimeoutMs) {
+        this.logger = logger;
+        this.writer = writer;
+        this.poolSize = poolSize;
+        this.maxAgeMs = transactionTimeoutMs / 2;
+        this.transactions = new LinkedBlockingQueue<>(poolSize);
+        this.refillExecutor = Executors.newSingleThreadScheduledExecutor();
+        // Periodically replace transactions that are too old to be used.
+        final long evictionPeriodMs = Math.max(1, maxAgeMs / 2);
+        refillExecutor.scheduleWithFixedDelay(this::refill, 0, evictionPeriodMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionPool{" +
+                "poolSize=" + poolSize +
+                ", maxAgeMs=" + maxAgeMs +
+                ", available=" + transactions.size() +
+                '}';
+    }
+
+    /**
+     * Returns an open transaction from the pool.
+     * If the pool is empty, a new transaction is opened synchronously.
+     */
+    Transaction<ByteBuffer> beginTxn() {
+        PooledTransaction pooled;
+        try {
+            while ((pooled = transactions.poll()) != null) {
+                if (!pooled.isExpired()) {
+                    logger.debug("beginTxn: using pooled transaction {}", new Object[]{pooled.transaction.getTxnId()});
+                    return pooled.transaction;
+                }
+                abort(pooled);
+            }
+        } finally {
+            scheduleRefill();
+        }
+        logger.debug("beginTxn: pool is empty; opening transaction synchronously");
+        return writer.beginTxn();
+    }
+
+    private void scheduleRefill() {
+        if (!closed && refillScheduled.compareAndSet(false, true)) {
+            try {
+                refillExecutor.submit(this::refill);
+            } catch (final RuntimeException e) {
+                refillScheduled.set(false);
+                logger.debug("scheduleRefill: unable to schedule refill", e);
+            }
+        }
+    }
+
+    private void refill() {
+        refillScheduled.set(false);
+        try {
+            // Remove expired transactions.
+            final List<PooledTransaction> current = new ArrayList<>();
+            transactions.drainTo(current);
+            for (final PooledTransaction pooled : current) {
+                if (pooled.isExpired() || !transactions.offer(pooled)) {
+                    abort(pooled);
+                }
+            }
+            // Open new transactions until the pool is full.
+            while (!closed && transactions.remainingCapacity() > 0) {
+                final PooledTransaction pooled = new PooledTransaction(writer.beginTxn(), System.currentTimeMillis() + maxAgeMs);
+                if (closed || !transactions.offer(pooled)) {
+                    abort(pooled);
+                    break;
+                }
+                logger.debug("refill: opened transaction {}", new Object[]{pooled.transaction.getTxnId()});
+            }
+        } catch (final Exception e) {
+            // We will try again at the next refill.
+            logger.warn("Unable to open a transaction for the transaction pool", e);
+        }
+    }
+
+    private void abort(final PooledTransaction pooled) {
+        logger.debug("abort: aborting pooled transaction {}", new Object[]{pooled.transaction.getTxnId()});
+        try {
+            pooled.transaction.abort();
+        } catch (final Exception e) {
+            logger.debug("Unable to abort pooled transaction {}", new Object[]{pooled.transaction.getTxnId()}, e);
+        }
+    }
+
+    /**
+     * Aborts all pooled transactions. This must be called before closing the writer.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        refillExecutor.shutdownNow();
+        try {
+            refillExecutor.awaitTermination(maxAgeMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final List<PooledTransaction> remaining = new ArrayList<>();
+        transactions.drainTo(remaining);
+        remaining.forEach(this::abort);
+        logger.debug("close: aborted {} pooled transactions", new Object[]{remaining.size()});
+    }
+
+    private static class PooledTransaction {
+        final Transaction<ByteBuffer> transaction;
+        final long expirationTime;
+
+        PooledTransaction(final Transaction<ByteBuffer> transaction, final long expirationTime) {
+            this.transaction = transaction;
+            this.expirationTime = expirationTime;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expirationTime;
+        }
+    }
+}
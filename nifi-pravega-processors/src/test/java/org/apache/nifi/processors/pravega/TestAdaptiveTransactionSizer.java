@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestAdaptiveTransactionSizer {
+
+    @Test
+    public void testStartsAtMaximum() {
+        final AdaptiveTransactionSizer sizer = new AdaptiveTransactionSizer(100, 1000, 50);
+        assertEquals(100, sizer.getMaxFlowFiles());
+        assertEquals(1000, sizer.getMaxBytes());
+    }
+
+    @Test
+    public void testSlowCommitHalves() {
+        final AdaptiveTransactionSizer sizer = new AdaptiveTransactionSizer(100, 1000, 50);
+        sizer.onCommitted(51);
+        assertEquals(50, sizer.getMaxFlowFiles());
+        assertEquals(500, sizer.getMaxBytes());
+        sizer.onFailed();
+        assertEquals(25, sizer.getMaxFlowFiles());
+        assertEquals(250, sizer.getMaxBytes());
+    }
+
+    @Test
+    public void testFastCommitIncreasesUpToMaximum() {
+        final AdaptiveTransactionSizer sizer = new AdaptiveTransactionSizer(100, 1000, 50);
+        sizer.onFailed();
+        sizer.onCommitted(50);
+        assertEquals(55, sizer.getMaxFlowFiles());
+        assertEquals(550, sizer.getMaxBytes());
+        for (int i = 0; i < 100; i++) {
+            sizer.onCommitted(0);
+        }
+        assertEquals(100, sizer.getMaxFlowFiles());
+        assertEquals(1000, sizer.getMaxBytes());
+    }
+
+    @Test
+    public void testDoesNotDecreaseBelowOneFlowFile() {
+        final AdaptiveTransactionSizer sizer = new AdaptiveTransactionSizer(100, 1000, 50);
+        for (int i = 0; i < 100; i++) {
+            sizer.onFailed();
+        }
+        assertEquals(1, sizer.getMaxFlowFiles());
+        assertEquals(10, sizer.getMaxBytes());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCheckpointBytes {
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] roundTrip(final Map<String, String> mapState) throws IOException {
+        return ConsumerPool.getCheckpointBytes(new CheckpointStore.SimpleStateMap(0, mapState));
+    }
+
+    @Test
+    public void testRoundTripInOneChunk() throws Exception {
+        final byte[] checkpointBytes = randomBytes(10000);
+        final Map<String, String> mapState = new HashMap<>();
+        ConsumerPool.putCheckpointBytes(mapState, checkpointBytes, 0);
+        assertEquals("1", mapState.get("reader.group.checkpoint.chunks"));
+        assertArrayEquals(checkpointBytes, roundTrip(mapState));
+    }
+
+    @Test
+    public void testRoundTripInManyChunks() throws Exception {
+        final byte[] checkpointBytes = randomBytes(10000);
+        final Map<String, String> mapState = new HashMap<>();
+        ConsumerPool.putCheckpointBytes(mapState, checkpointBytes, 1000);
+        final int chunks = Integer.parseInt(mapState.get("reader.group.checkpoint.chunks"));
+        assertTrue(chunks > 1);
+        for (int i = 0; i < chunks; i++) {
+            assertTrue(mapState.get("reader.group.checkpoint.gzip.base64." + i).length() <= 1000);
+        }
+        assertArrayEquals(checkpointBytes, roundTrip(mapState));
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        final byte[] checkpointBytes = new byte[100000];
+        final Map<String, String> mapState = new HashMap<>();
+        ConsumerPool.putCheckpointBytes(mapState, checkpointBytes, 0);
+        assertTrue(mapState.get("reader.group.checkpoint.gzip.base64.0").length() < checkpointBytes.length / 10);
+        assertArrayEquals(checkpointBytes, roundTrip(mapState));
+    }
+
+    @Test
+    public void testLegacyKey() throws Exception {
+        final byte[] checkpointBytes = randomBytes(1000);
+        final Map<String, String> mapState = new HashMap<>();
+        mapState.put("reader.group.checkpoint.base64", Base64.getEncoder().encodeToString(checkpointBytes));
+        assertArrayEquals(checkpointBytes, roundTrip(mapState));
+    }
+
+    @Test
+    public void testNoCheckpoint() throws Exception {
+        assertNull(roundTrip(new HashMap<>()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingChunk() throws Exception {
+        final Map<String, String> mapState = new HashMap<>();
+        ConsumerPool.putCheckpointBytes(mapState, randomBytes(10000), 1000);
+        mapState.remove("reader.group.checkpoint.gzip.base64.1");
+        roundTrip(mapState);
+    }
+}
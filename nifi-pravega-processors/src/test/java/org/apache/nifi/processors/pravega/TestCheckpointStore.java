@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.impl.JavaSerializer;
+import org.apache.nifi.components.state.StateMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCheckpointStore {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, String> values(final String key, final String value) {
+        return Collections.singletonMap(key, value);
+    }
+
+    @Test
+    public void testLocalFileStoreIsEmptyWithoutFile() throws Exception {
+        final CheckpointStore store = new CheckpointStore.LocalFileStore(new File(folder.getRoot(), "processor.checkpoint"));
+        assertEquals(-1, store.getState().getVersion());
+        assertTrue(store.getState().toMap().isEmpty());
+    }
+
+    @Test
+    public void testLocalFileStoreIsReloaded() throws Exception {
+        final File file = new File(folder.getRoot(), "processor.checkpoint");
+        new CheckpointStore.LocalFileStore(file).setState(values("reader.group.name", "group1"));
+        final StateMap state = new CheckpointStore.LocalFileStore(file).getState();
+        assertEquals(0, state.getVersion());
+        assertEquals("group1", state.get("reader.group.name"));
+    }
+
+    @Test
+    public void testLocalFileStoreReplace() throws Exception {
+        final CheckpointStore store = new CheckpointStore.LocalFileStore(new File(folder.getRoot(), "processor.checkpoint"));
+        store.setState(values("key", "1"));
+        final StateMap oldState = store.getState();
+        assertTrue(store.replace(oldState, values("key", "2")));
+        assertFalse(store.replace(oldState, values("key", "3")));
+        assertEquals("2", store.getState().get("key"));
+        assertEquals(oldState.getVersion() + 1, store.getState().getVersion());
+    }
+
+    /**
+     * The updates of a SynchronizerStore are written to the stream with Java serialization.
+     */
+    private static CheckpointStore.StoreUpdate roundTrip(final CheckpointStore.StoreUpdate update) {
+        final JavaSerializer<CheckpointStore.StoreUpdate> serializer = new JavaSerializer<>();
+        return serializer.deserialize(serializer.serialize(update));
+    }
+
+    @Test
+    public void testSynchronizerStateUpdateReplacesState() {
+        final CheckpointStore.StateUpdate update = (CheckpointStore.StateUpdate) roundTrip(
+                new CheckpointStore.StateUpdate(values("key", "1"), 4));
+        final StateMap state = update.create("scope/stream", null).toStateMap();
+        assertEquals(4, state.getVersion());
+        assertEquals(values("key", "1"), state.toMap());
+    }
+
+    @Test
+    public void testSynchronizerPutUpdateKeepsOtherEntries() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("reader.group.name", "group1");
+        values.put("key", "1");
+        final CheckpointStore.SynchronizedState oldState = new CheckpointStore.StateUpdate(values, 4).create("scope/stream", null);
+        final StateMap state = roundTrip(new CheckpointStore.PutUpdate("key", "2", 5)).applyTo(oldState, null).toStateMap();
+        assertEquals(5, state.getVersion());
+        assertEquals("group1", state.get("reader.group.name"));
+        assertEquals("2", state.get("key"));
+    }
+}
@@ -22,15 +22,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
+import java.time.format.DateTimeParseException;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
+import static org.junit.Assert.assertEquals;
+
 
 public class TestConsumePravega {
     private static Logger log = LoggerFactory.getLogger(TestConsumePravega.class);
 
+    @Test
+    public void testParseStartTime() {
+        assertEquals(1500000000000L, ConsumePravega.parseStartTime("1500000000000"));
+        assertEquals(1500000000000L, ConsumePravega.parseStartTime(" 1500000000000 "));
+        assertEquals(1500000000000L, ConsumePravega.parseStartTime("2017-07-14T02:40:00Z"));
+        assertEquals(1500000000123L, ConsumePravega.parseStartTime("2017-07-14T02:40:00.123Z"));
+    }
+
+    @Test(expected = DateTimeParseException.class)
+    public void testParseInvalidStartTime() {
+        ConsumePravega.parseStartTime("yesterday");
+    }
+
     @Test
     @Ignore()
     public void testProcessor() throws Exception {
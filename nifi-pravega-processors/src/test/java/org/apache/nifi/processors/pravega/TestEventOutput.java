@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.EventPointer;
+import io.pravega.client.stream.EventRead;
+import org.apache.nifi.util.MockComponentLog;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockProcessSession;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestEventOutput {
+
+    private static final URI CONTROLLER_URI = URI.create("tcp://localhost:9090");
+
+    private MockProcessSession session;
+
+    @Before
+    public void init() {
+        session = (MockProcessSession) TestRunners.newTestRunner(ConsumePravega.class).getProcessSessionFactory().createSession();
+    }
+
+    /**
+     * Returns an event read with the given content. Its event pointer is represented by the given string.
+     */
+    @SuppressWarnings("unchecked")
+    static EventRead<byte[]> eventRead(final String value, final String eventPointer) {
+        final EventPointer pointer = (EventPointer) Proxy.newProxyInstance(EventPointer.class.getClassLoader(),
+                new Class<?>[]{EventPointer.class}, (proxy, method, args) -> {
+                    if ("toString".equals(method.getName())) {
+                        return eventPointer;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        final byte[] event = value.getBytes(StandardCharsets.UTF_8);
+        return (EventRead<byte[]>) Proxy.newProxyInstance(EventRead.class.getClassLoader(),
+                new Class<?>[]{EventRead.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getEvent":
+                            return event;
+                        case "getEventPointer":
+                            return pointer;
+                        case "isCheckpoint":
+                            return false;
+                        case "toString":
+                            return "EventRead{" + eventPointer + "}";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static EventOutput.BatchOutput demarcated(final int maxEvents, final long maxBytes) {
+        return new EventOutput.BatchOutput(new MockComponentLog("TestEventOutput", new Object()), CONTROLLER_URI,
+                maxEvents, maxBytes, false, "\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<MockFlowFile> getOutput() {
+        return session.getFlowFilesForRelationship(ConsumePravega.REL_SUCCESS);
+    }
+
+    @Test
+    public void testDemarcatedBatch() {
+        final EventOutput output = demarcated(10, 1000);
+        output.write(session, eventRead("a", "p0"));
+        output.write(session, eventRead("bb", "p1"));
+        output.write(session, eventRead("", "p2"));
+        output.write(session, eventRead("ccc", "p3"));
+        assertEquals(0, getOutput().size());
+        output.flush(session);
+
+        assertEquals(1, getOutput().size());
+        final MockFlowFile flowFile = getOutput().get(0);
+        flowFile.assertContentEquals("a\nbb\n\nccc");
+        flowFile.assertAttributeEquals(ConsumePravega.ATTR_EVENT_POINTER, "p0");
+        flowFile.assertAttributeEquals(ConsumePravega.ATTR_EVENT_COUNT, "4");
+    }
+
+    @Test
+    public void testLengthPrefixedBatch() {
+        final EventOutput output = new EventOutput.BatchOutput(new MockComponentLog("TestEventOutput", new Object()),
+                CONTROLLER_URI, 10, 1000, true, null);
+        output.write(session, eventRead("ab", "p0"));
+        output.write(session, eventRead("", "p1"));
+        output.flush(session);
+
+        assertEquals(1, getOutput().size());
+        getOutput().get(0).assertContentEquals(new byte[]{0, 0, 0, 2, 'a', 'b', 0, 0, 0, 0});
+        getOutput().get(0).assertAttributeEquals(ConsumePravega.ATTR_EVENT_COUNT, "2");
+    }
+
+    @Test
+    public void testBatchIsWrittenAtMaxEvents() {
+        final EventOutput output = demarcated(2, 1000);
+        output.write(session, eventRead("a", "p0"));
+        output.write(session, eventRead("b", "p1"));
+        output.write(session, eventRead("c", "p2"));
+        assertEquals(1, getOutput().size());
+        output.flush(session);
+
+        assertEquals(2, getOutput().size());
+        getOutput().get(0).assertContentEquals("a\nb");
+        getOutput().get(1).assertContentEquals("c");
+        getOutput().get(1).assertAttributeEquals(ConsumePravega.ATTR_EVENT_POINTER, "p2");
+        getOutput().get(1).assertAttributeEquals(ConsumePravega.ATTR_EVENT_COUNT, "1");
+    }
+
+    @Test
+    public void testBatchIsWrittenBeforeExceedingMaxBytes() {
+        final EventOutput output = demarcated(10, 5);
+        output.write(session, eventRead("abc", "p0"));
+        // This event would make the batch larger than 5 bytes, so the batch is written first.
+        output.write(session, eventRead("def", "p1"));
+        output.flush(session);
+
+        assertEquals(2, getOutput().size());
+        getOutput().get(0).assertContentEquals("abc");
+        getOutput().get(1).assertContentEquals("def");
+    }
+
+    @Test
+    public void testLargeEventIsWrittenAlone() {
+        final EventOutput output = demarcated(10, 5);
+        output.write(session, eventRead("abcdefgh", "p0"));
+        assertEquals(1, getOutput().size());
+        getOutput().get(0).assertContentEquals("abcdefgh");
+    }
+
+    @Test
+    public void testResetDiscardsBufferedEvents() {
+        final EventOutput output = demarcated(10, 1000);
+        output.write(session, eventRead("a", "p0"));
+        output.reset();
+        output.write(session, eventRead("b", "p1"));
+        output.flush(session);
+
+        assertEquals(1, getOutput().size());
+        getOutput().get(0).assertContentEquals("b");
+        getOutput().get(0).assertAttributeEquals(ConsumePravega.ATTR_EVENT_POINTER, "p1");
+        getOutput().get(0).assertAttributeEquals(ConsumePravega.ATTR_EVENT_COUNT, "1");
+    }
+
+    @Test
+    public void testFlowFilePerEvent() {
+        final EventOutput output = new EventOutput.FlowFilePerEventOutput(new MockComponentLog("TestEventOutput", new Object()), CONTROLLER_URI);
+        output.write(session, eventRead("a", "p0"));
+        output.write(session, eventRead("b", "p1"));
+
+        assertEquals(2, getOutput().size());
+        getOutput().get(0).assertContentEquals("a");
+        getOutput().get(1).assertContentEquals("b");
+        getOutput().get(1).assertAttributeEquals(ConsumePravega.ATTR_EVENT_POINTER, "p1");
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.stream.EventRead;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.util.MockComponentLog;
+import org.apache.nifi.util.MockProcessSession;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the bytes allocated per event by FlowFilePerEventOutput and by the implementation it replaced.
+ * This uses the HotSpot specific ThreadMXBean and is skipped on JVMs that do not measure allocations.
+ */
+public class TestEventOutputAllocations {
+    private static final Logger log = LoggerFactory.getLogger(TestEventOutputAllocations.class);
+
+    private static final URI CONTROLLER_URI = URI.create("tcp://localhost:9090");
+    private static final int EVENTS = 20000;
+
+    private static long getThreadAllocatedBytes() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The per-event output before the allocations on the consume path were trimmed.
+     */
+    private static void writeLegacy(final ProcessSession session, final EventRead<byte[]> eventRead) {
+        final byte[] value = eventRead.getEvent();
+        FlowFile flowFile = session.create();
+        flowFile = session.write(flowFile, out -> out.write(value));
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(ConsumePravega.ATTR_EVENT_POINTER, eventRead.getEventPointer().toString());
+        flowFile = session.putAllAttributes(flowFile, attributes);
+        session.getProvenanceReporter().receive(flowFile, String.format("%s/%s", CONTROLLER_URI, eventRead.getEventPointer()));
+        session.transfer(flowFile, ConsumePravega.REL_SUCCESS);
+    }
+
+    /**
+     * @return the average number of bytes allocated per event, excluding the session commit
+     */
+    private static long measure(final BiConsumer<ProcessSession, EventRead<byte[]>> write, final EventRead<byte[]> eventRead) {
+        // Warm up so that the measured iterations run compiled code.
+        for (int round = 0; round < 2; round++) {
+            final MockProcessSession session = (MockProcessSession) TestRunners.newTestRunner(ConsumePravega.class)
+                    .getProcessSessionFactory().createSession();
+            final long start = getThreadAllocatedBytes();
+            for (int i = 0; i < EVENTS; i++) {
+                write.accept(session, eventRead);
+            }
+            final long bytesPerEvent = (getThreadAllocatedBytes() - start) / EVENTS;
+            if (round == 1) {
+                return bytesPerEvent;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    @Test
+    public void testAllocationsPerEvent() {
+        final EventRead<byte[]> eventRead = TestEventOutput.eventRead("0123456789", "EventPointer{segment=scope/stream/0.#epoch.0, offset=1024, length=18}");
+        final EventOutput output = new EventOutput.FlowFilePerEventOutput(new MockComponentLog("TestEventOutputAllocations", new Object()), CONTROLLER_URI);
+
+        final long legacyBytes = measure(TestEventOutputAllocations::writeLegacy, eventRead);
+        final long currentBytes = measure(output::write, eventRead);
+        log.info("Allocated bytes per event, including the mock session: before={}, after={}", legacyBytes, currentBytes);
+        assertTrue(currentBytes < legacyBytes);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestEventPointerLog {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final MockComponentLog logger = new MockComponentLog("TestEventPointerLog", new Object());
+
+    private File getFile() {
+        return new File(folder.getRoot(), "processor.pointers");
+    }
+
+    @Test
+    public void testCommittedPointersAreReplayedOnce() throws Exception {
+        try (final EventPointerLog log = new EventPointerLog(logger, getFile(), true)) {
+            log.append(Arrays.asList("p1", "p2"));
+        }
+        try (final EventPointerLog log = new EventPointerLog(logger, getFile(), true)) {
+            assertTrue(log.isReplayed("p1"));
+            assertTrue(log.isReplayed("p2"));
+            assertFalse(log.isReplayed("p1"));
+            assertFalse(log.isReplayed("p3"));
+        }
+    }
+
+    @Test
+    public void testTruncateKeepsPointersSincePreviousTruncate() throws Exception {
+        try (final EventPointerLog log = new EventPointerLog(logger, getFile(), true)) {
+            log.append(Arrays.asList("before-first"));
+            log.truncate();
+            log.append(Arrays.asList("before-second"));
+            log.truncate();
+            log.append(Arrays.asList("after-second"));
+        }
+        try (final EventPointerLog log = new EventPointerLog(logger, getFile(), true)) {
+            assertFalse(log.isReplayed("before-first"));
+            assertTrue(log.isReplayed("before-second"));
+            assertTrue(log.isReplayed("after-second"));
+        }
+    }
+
+    @Test
+    public void testNewReaderGroupDeletesPointers() throws Exception {
+        try (final EventPointerLog log = new EventPointerLog(logger, getFile(), true)) {
+            log.append(Arrays.asList("p1"));
+            log.truncate();
+            log.append(Arrays.asList("p2"));
+        }
+        try (final EventPointerLog log = new EventPointerLog(logger, getFile(), false)) {
+            assertFalse(log.isReplayed("p1"));
+            assertFalse(log.isReplayed("p2"));
+        }
+        try (final EventPointerLog log = new EventPointerLog(logger, getFile(), true)) {
+            assertFalse(log.isReplayed("p1"));
+            assertFalse(log.isReplayed("p2"));
+        }
+    }
+}
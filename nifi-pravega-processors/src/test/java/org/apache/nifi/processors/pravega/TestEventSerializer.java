@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestEventSerializer {
+
+    @Test
+    public void testSerializeDoesNotCopy() {
+        final byte[] content = new byte[]{1, 2, 3, 4};
+        final ByteBuffer serialized = new EventSerializer().serialize(ByteBuffer.wrap(content));
+        assertSame(content, serialized.array());
+        assertEquals(0, serialized.arrayOffset());
+        assertEquals(content.length, serialized.remaining());
+    }
+
+    @Test
+    public void testSerializeLeavesPositionOfEvent() {
+        final ByteBuffer event = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        event.position(1);
+        final ByteBuffer serialized = new EventSerializer().serialize(event);
+        serialized.get();
+        assertEquals(3, serialized.remaining());
+        assertEquals(2, serialized.get(0));
+        assertEquals(1, event.position());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.batch.SegmentIterator;
+import io.pravega.client.batch.SegmentRange;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestFetchPravegaSegmentRange {
+
+    /**
+     * Each event is stored after a header of this many bytes.
+     */
+    private static final int EVENT_HEADER_BYTES = 8;
+
+    private static final long START_OFFSET = 100;
+
+    private TestRunner testRunner;
+    private TestableFetchPravegaSegmentRange processor;
+
+    /**
+     * Reads the events from memory instead of a Pravega segment.
+     * If failAfter is not negative, reading fails after this many events.
+     */
+    private static class TestableFetchPravegaSegmentRange extends FetchPravegaSegmentRange {
+        private List<String> events;
+        private int failAfter = -1;
+
+        @Override
+        protected SegmentIterator<byte[]> readSegment(final ProcessContext context, final SegmentRange range) {
+            return new SegmentIterator<byte[]>() {
+                private int index = 0;
+                private long offset = range.getStartOffset();
+
+                @Override
+                public boolean hasNext() {
+                    return index < events.size();
+                }
+
+                @Override
+                public byte[] next() {
+                    if (index == failAfter) {
+                        throw new IllegalStateException("segment truncated");
+                    }
+                    final byte[] event = events.get(index++).getBytes(StandardCharsets.UTF_8);
+                    offset += EVENT_HEADER_BYTES + event.length;
+                    return event;
+                }
+
+                @Override
+                public long getOffset() {
+                    return offset;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    @Before
+    public void init() {
+        processor = new TestableFetchPravegaSegmentRange();
+        testRunner = TestRunners.newTestRunner(processor);
+        testRunner.setProperty(AbstractPravegaProcessor.PROP_CONTROLLER, "tcp://localhost:9090");
+    }
+
+    private long getReceiveEventCount() {
+        return testRunner.getProvenanceEvents().stream()
+                .filter(event -> event.getEventType() == ProvenanceEventType.RECEIVE)
+                .count();
+    }
+
+    private static Map<String, String> rangeAttributes(final long endOffset) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(ListPravegaSegmentRanges.ATTR_SCOPE, "scope1");
+        attributes.put(ListPravegaSegmentRanges.ATTR_STREAM, "stream1");
+        attributes.put(ListPravegaSegmentRanges.ATTR_SEGMENT_ID, "0");
+        attributes.put(ListPravegaSegmentRanges.ATTR_START_OFFSET, Long.toString(START_OFFSET));
+        attributes.put(ListPravegaSegmentRanges.ATTR_END_OFFSET, Long.toString(endOffset));
+        return attributes;
+    }
+
+    @Test
+    public void testEventsAreSplitByMaxEvents() {
+        processor.events = Arrays.asList("a", "bb", "ccc", "dddd", "e");
+        testRunner.setProperty(ConsumePravega.PROP_MAX_EVENTS_PER_FLOWFILE, "2");
+        testRunner.enqueue(new byte[0], rangeAttributes(151));
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(FetchPravegaSegmentRange.REL_SUCCESS, 3);
+        final List<MockFlowFile> flowFiles = testRunner.getFlowFilesForRelationship(FetchPravegaSegmentRange.REL_SUCCESS);
+        flowFiles.get(0).assertContentEquals("a\nbb");
+        flowFiles.get(1).assertContentEquals("ccc\ndddd");
+        flowFiles.get(2).assertContentEquals("e");
+        flowFiles.get(0).assertAttributeEquals(ConsumePravega.ATTR_EVENT_COUNT, "2");
+        flowFiles.get(2).assertAttributeEquals(ConsumePravega.ATTR_EVENT_COUNT, "1");
+        // The offsets of consecutive FlowFiles are contiguous.
+        flowFiles.get(0).assertAttributeEquals(ListPravegaSegmentRanges.ATTR_START_OFFSET, "100");
+        flowFiles.get(0).assertAttributeEquals(ListPravegaSegmentRanges.ATTR_END_OFFSET, "119");
+        flowFiles.get(1).assertAttributeEquals(ListPravegaSegmentRanges.ATTR_START_OFFSET, "119");
+        flowFiles.get(1).assertAttributeEquals(ListPravegaSegmentRanges.ATTR_END_OFFSET, "142");
+        flowFiles.get(2).assertAttributeEquals(ListPravegaSegmentRanges.ATTR_START_OFFSET, "142");
+        flowFiles.get(2).assertAttributeEquals(ListPravegaSegmentRanges.ATTR_END_OFFSET, "151");
+        assertEquals(3, getReceiveEventCount());
+    }
+
+    @Test
+    public void testEventsAreSplitByMaxSize() {
+        processor.events = Arrays.asList("aa", "bb", "cc");
+        testRunner.setProperty(ConsumePravega.PROP_MAX_FLOWFILE_SIZE, "5 B");
+        testRunner.enqueue(new byte[0], rangeAttributes(130));
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(FetchPravegaSegmentRange.REL_SUCCESS, 2);
+        final List<MockFlowFile> flowFiles = testRunner.getFlowFilesForRelationship(FetchPravegaSegmentRange.REL_SUCCESS);
+        flowFiles.get(0).assertContentEquals("aa\nbb");
+        flowFiles.get(1).assertContentEquals("cc");
+        flowFiles.get(1).assertAttributeEquals(ListPravegaSegmentRanges.ATTR_START_OFFSET, "120");
+    }
+
+    @Test
+    public void testInvalidAttributesRouteToFailure() {
+        final Map<String, String> attributes = rangeAttributes(151);
+        attributes.put(ListPravegaSegmentRanges.ATTR_SEGMENT_ID, "not a number");
+        testRunner.enqueue(new byte[0], attributes);
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(FetchPravegaSegmentRange.REL_FAILURE, 1);
+        testRunner.getFlowFilesForRelationship(FetchPravegaSegmentRange.REL_FAILURE).get(0).assertAttributeEquals(
+                ListPravegaSegmentRanges.ATTR_SEGMENT_ID, "not a number");
+    }
+
+    @Test
+    public void testReadFailureRoutesRangeToFailure() {
+        processor.events = Arrays.asList("a", "bb", "ccc", "dddd", "e");
+        processor.failAfter = 3;
+        testRunner.setProperty(ConsumePravega.PROP_MAX_EVENTS_PER_FLOWFILE, "2");
+        testRunner.enqueue(new byte[0], rangeAttributes(151));
+        testRunner.run();
+
+        // The FlowFiles read before the failure are removed, including the one that was being written.
+        testRunner.assertAllFlowFilesTransferred(FetchPravegaSegmentRange.REL_FAILURE, 1);
+        testRunner.getFlowFilesForRelationship(FetchPravegaSegmentRange.REL_FAILURE).get(0).assertAttributeEquals(
+                ListPravegaSegmentRanges.ATTR_START_OFFSET, "100");
+        assertEquals(0, getReceiveEventCount());
+    }
+}
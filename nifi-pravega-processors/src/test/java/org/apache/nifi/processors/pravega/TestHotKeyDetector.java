@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestHotKeyDetector {
+
+    private static HotKeyDetector createDetector(final int fanOut) {
+        return createDetector(fanOut, 8);
+    }
+
+    private static HotKeyDetector createDetector(final int fanOut, final int segments) {
+        return new HotKeyDetector(new MockComponentLog("TestHotKeyDetector", new Object()), 2, fanOut, () -> segments);
+    }
+
+    /**
+     * Records one event with the key "hot" for every event with a distinct key.
+     */
+    private static void recordSkewedEvents(final HotKeyDetector detector, final long count) {
+        for (long i = 0; i < count; i++) {
+            detector.record(i % 2 == 0 ? "hot" : "cold-" + i);
+        }
+    }
+
+    @Test
+    public void testNoHotKeysBelowMinEvents() {
+        final HotKeyDetector detector = createDetector(1);
+        recordSkewedEvents(detector, HotKeyDetector.MIN_EVENTS - 1);
+        detector.evaluate();
+        assertTrue(detector.getHotKeys().isEmpty());
+    }
+
+    @Test
+    public void testHotKeyDetected() {
+        final HotKeyDetector detector = createDetector(1);
+        recordSkewedEvents(detector, 4 * HotKeyDetector.MIN_EVENTS);
+        detector.evaluate();
+        assertEquals(1, detector.getHotKeys().size());
+        assertTrue(detector.getHotKeys().contains("hot"));
+        // Without salting, the key is not changed.
+        assertEquals("hot", detector.record("hot"));
+    }
+
+    @Test
+    public void testUniformKeysAreNotHot() {
+        final HotKeyDetector detector = createDetector(1);
+        for (long i = 0; i < 4 * HotKeyDetector.MIN_EVENTS; i++) {
+            detector.record("key-" + (i % 100));
+        }
+        detector.evaluate();
+        assertTrue(detector.getHotKeys().isEmpty());
+    }
+
+    @Test
+    public void testEvenSpreadOverFewKeysIsNotHot() {
+        // Each key has 20% of the events, which is its fair share even though the stream has many more segments.
+        final HotKeyDetector detector = createDetector(4, 100);
+        for (long i = 0; i < 4 * HotKeyDetector.MIN_EVENTS; i++) {
+            detector.record("key-" + (i % 5));
+        }
+        detector.evaluate();
+        assertTrue(detector.getHotKeys().isEmpty());
+        assertEquals("key-0", detector.record("key-0"));
+    }
+
+    @Test
+    public void testEvenSpreadOverFewSegmentsIsNotHot() {
+        // Each key has 10% of the events, which is less than twice the fair share of each of the 4 segments.
+        final HotKeyDetector detector = createDetector(1, 4);
+        for (long i = 0; i < 4 * HotKeyDetector.MIN_EVENTS; i++) {
+            detector.record("key-" + (i % 10));
+        }
+        detector.evaluate();
+        assertTrue(detector.getHotKeys().isEmpty());
+    }
+
+    @Test
+    public void testHotKeyIsSalted() {
+        final HotKeyDetector detector = createDetector(4);
+        recordSkewedEvents(detector, 4 * HotKeyDetector.MIN_EVENTS);
+        detector.evaluate();
+        final Set<String> saltedKeys = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            saltedKeys.add(detector.record("hot"));
+        }
+        assertEquals(4, saltedKeys.size());
+        for (final String key : saltedKeys) {
+            assertTrue(key.startsWith("hot#"));
+        }
+        assertEquals("cold", detector.record("cold"));
+    }
+
+    @Test
+    public void testSketchMerge() {
+        final HotKeyDetector.Sketch sketch = new HotKeyDetector.Sketch(0);
+        sketch.add("a", 10, 0);
+        final HotKeyDetector.Sketch other = new HotKeyDetector.Sketch(0);
+        other.add("a", 5, 0);
+        other.add("b", 3, 0);
+        other.buckets[7] = 8;
+        sketch.merge(other);
+        assertEquals(18, sketch.totalCount);
+        assertEquals(2, sketch.counters.size());
+        assertEquals(8, sketch.buckets[7]);
+        sketch.halve();
+        assertEquals(9, sketch.totalCount);
+        assertEquals(4, sketch.buckets[7]);
+    }
+
+    @Test
+    public void testSketchIsBounded() {
+        final HotKeyDetector.Sketch sketch = new HotKeyDetector.Sketch(0);
+        for (int i = 0; i < 2 * HotKeyDetector.SKETCH_CAPACITY; i++) {
+            sketch.add("key-" + i, 1, 0);
+        }
+        assertEquals(HotKeyDetector.SKETCH_CAPACITY, sketch.counters.size());
+        assertEquals(2 * HotKeyDetector.SKETCH_CAPACITY, sketch.totalCount);
+    }
+}
@@ -10,12 +10,16 @@
  */
 package org.apache.nifi.processors.pravega;
 
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TestPublishPravega {
 
@@ -32,4 +36,36 @@ public class TestPublishPravega {
         // TODO: write tests
     }
 
+    @Test
+    public void testLingersUntilTransactionLimit() {
+        testRunner.setProperty(AbstractPravegaPublisher.PROP_LINGER_TIME, "1 hour");
+        testRunner.setProperty(AbstractPravegaPublisher.PROP_MAX_FLOWFILES_PER_TRANSACTION, "3");
+        final PublishPravega processor = (PublishPravega) testRunner.getProcessor();
+        final ProcessContext context = testRunner.getProcessContext();
+        final ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+
+        assertFalse(processor.isLingering(context, session));
+        testRunner.enqueue("a");
+        assertTrue(processor.isLingering(context, session));
+        testRunner.enqueue("b");
+        assertTrue(processor.isLingering(context, session));
+        testRunner.enqueue("c");
+        assertFalse(processor.isLingering(context, session));
+    }
+
+    @Test
+    public void testLingerTimeEnds() throws Exception {
+        testRunner.setProperty(AbstractPravegaPublisher.PROP_LINGER_TIME, "10 ms");
+        final PublishPravega processor = (PublishPravega) testRunner.getProcessor();
+        final ProcessContext context = testRunner.getProcessContext();
+        final ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+
+        testRunner.enqueue("a");
+        assertTrue(processor.isLingering(context, session));
+        Thread.sleep(20);
+        assertFalse(processor.isLingering(context, session));
+        // The next partial transaction lingers again.
+        assertTrue(processor.isLingering(context, session));
+    }
+
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import io.pravega.client.segment.impl.Segment;
+import io.pravega.client.stream.impl.SegmentWithRange;
+import io.pravega.client.stream.impl.StreamSegments;
+import org.junit.Test;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pins RouterHash to the routing of the Pravega client, which maps a routing key to a segment with StreamSegments.
+ */
+public class TestRouterHash {
+
+    private static StreamSegments evenlySplit(final int segmentCount) {
+        final NavigableMap<Double, SegmentWithRange> segments = new TreeMap<>();
+        for (int i = 0; i < segmentCount; i++) {
+            final double low = (double) i / segmentCount;
+            final double high = (double) (i + 1) / segmentCount;
+            segments.put(high, new SegmentWithRange(new Segment("scope", "stream", i), low, high));
+        }
+        return new StreamSegments(segments);
+    }
+
+    @Test
+    public void testMatchesClientRouting() {
+        final int segmentCount = 16;
+        final StreamSegments segments = evenlySplit(segmentCount);
+        for (int i = 0; i < 10000; i++) {
+            final String routingKey = "key-" + i;
+            final int expectedSegment = (int) (RouterHash.hashToRange(routingKey) * segmentCount);
+            assertEquals(routingKey, expectedSegment, segments.getSegmentForKey(routingKey).getSegmentId());
+        }
+    }
+
+    @Test
+    public void testSegmentRoutingKeysMatchClientRouting() {
+        for (final int segmentCount : new int[]{1, 3, 8}) {
+            final StreamSegments segments = evenlySplit(segmentCount);
+            final String[] keys = RoutingKeyStrategy.findSegmentRoutingKeys(segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                assertEquals(i, segments.getSegmentForKey(keys[i]).getSegmentId());
+            }
+        }
+    }
+}
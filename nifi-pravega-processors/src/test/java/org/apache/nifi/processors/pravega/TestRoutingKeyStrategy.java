@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRoutingKeyStrategy {
+
+    private static ByteBuffer bytes(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFnv1a() {
+        // Reference values of the 64-bit FNV-1a hash.
+        assertEquals(0xcbf29ce484222325L, RoutingKeyStrategy.fnv1a(bytes("")));
+        assertEquals(0xaf63dc4c8601ec8cL, RoutingKeyStrategy.fnv1a(bytes("a")));
+        assertEquals(0x85944171f73967e8L, RoutingKeyStrategy.fnv1a(bytes("foobar")));
+    }
+
+    @Test
+    public void testFnv1aUsesRemainingBytesOnly() {
+        final ByteBuffer buffer = bytes("xxfoobarxx");
+        buffer.position(2);
+        buffer.limit(8);
+        assertEquals(RoutingKeyStrategy.fnv1a(bytes("foobar")), RoutingKeyStrategy.fnv1a(buffer));
+        assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void testFindSegmentRoutingKeys() {
+        for (final int segmentCount : new int[]{1, 2, 3, 8, 100}) {
+            final String[] keys = RoutingKeyStrategy.findSegmentRoutingKeys(segmentCount);
+            assertEquals(segmentCount, keys.length);
+            for (int i = 0; i < segmentCount; i++) {
+                final double hash = RouterHash.hashToRange(keys[i]);
+                assertTrue(hash >= (double) i / segmentCount);
+                assertTrue(hash < (double) (i + 1) / segmentCount);
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyStrategiesWithEventKeysAreTracked() {
+        assertTrue(RoutingKeyStrategy.usesEventKeys(RoutingKeyStrategy.ROUTING_STRATEGY_ATTRIBUTE.getValue()));
+        assertTrue(RoutingKeyStrategy.usesEventKeys(RoutingKeyStrategy.ROUTING_STRATEGY_RECORD_FIELD.getValue()));
+        assertFalse(RoutingKeyStrategy.usesEventKeys(RoutingKeyStrategy.ROUTING_STRATEGY_ROUND_ROBIN.getValue()));
+        assertFalse(RoutingKeyStrategy.usesEventKeys(RoutingKeyStrategy.ROUTING_STRATEGY_RANDOM.getValue()));
+        assertFalse(RoutingKeyStrategy.usesEventKeys(RoutingKeyStrategy.ROUTING_STRATEGY_STICKY.getValue()));
+        assertFalse(RoutingKeyStrategy.usesEventKeys(RoutingKeyStrategy.ROUTING_STRATEGY_CONTENT_HASH.getValue()));
+    }
+
+    @Test
+    public void testIsEvenlySplit() {
+        assertTrue(RoutingKeyStrategy.isEvenlySplit(Arrays.asList(0L, 1L, 2L)));
+        // Segments created by scaling have an epoch greater than 0 in the high 32 bits.
+        assertFalse(RoutingKeyStrategy.isEvenlySplit(Arrays.asList(0L, (1L << 32) | 3L)));
+        assertFalse(RoutingKeyStrategy.isEvenlySplit(Collections.singletonList((2L << 32) | 1L)));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package org.apache.nifi.processors.pravega;
+
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestStreamCutAcknowledgement {
+
+    private static final String GENERATION = "reader.group.stream.cuts.generation";
+    private static final String PENDING_BASE64 = "reader.group.stream.cuts.pending.base64";
+    private static final String PENDING_GENERATION = "reader.group.stream.cuts.pending.generation";
+    private static final String ACK_PREFIX = "reader.group.stream.cuts.ack.";
+
+    private static StateMap stateMap(final Map<String, String> values) {
+        return new CheckpointStore.SimpleStateMap(1, values);
+    }
+
+    private static Map<String, String> pendingState(final long generation, final long pendingGeneration) {
+        final Map<String, String> values = new HashMap<>();
+        values.put(GENERATION, Long.toString(generation));
+        values.put(PENDING_BASE64, "cuts");
+        values.put(PENDING_GENERATION, Long.toString(pendingGeneration));
+        return values;
+    }
+
+    @Test
+    public void testAcknowledgedByAllOnlineNodes() {
+        final Map<String, String> values = pendingState(1, 2);
+        values.put(ACK_PREFIX + "node1", "2");
+        values.put(ACK_PREFIX + "node2", "1");
+        final StateMap state = stateMap(values);
+        assertTrue(ConsumerPool.isAcknowledgedByAllNodes(state, new HashSet<>(Arrays.asList("node1")), 2));
+        assertFalse(ConsumerPool.isAcknowledgedByAllNodes(state, new HashSet<>(Arrays.asList("node1", "node2")), 2));
+        assertFalse(ConsumerPool.isAcknowledgedByAllNodes(state, new HashSet<>(Arrays.asList("node1", "node3")), 2));
+    }
+
+    @Test
+    public void testPendingStreamCuts() {
+        assertTrue(ConsumerPool.hasPendingStreamCuts(stateMap(pendingState(1, 2))));
+        assertFalse(ConsumerPool.hasPendingStreamCuts(stateMap(pendingState(2, 2))));
+        assertFalse(ConsumerPool.hasPendingStreamCuts(stateMap(new HashMap<>())));
+    }
+
+    @Test
+    public void testDiscardedGenerationIsNotReused() {
+        final Map<String, String> values = pendingState(1, 2);
+        values.putAll(ConsumerPool.discardPendingStreamCuts());
+        final StateMap state = stateMap(values);
+        assertFalse(ConsumerPool.hasPendingStreamCuts(state));
+        // A node may already have acknowledged generation 2.
+        assertEquals(3, ConsumerPool.getNextStreamCutGeneration(state));
+        assertEquals(1, ConsumerPool.getNextStreamCutGeneration(stateMap(new HashMap<>())));
+    }
+
+    @Test
+    public void testNodeIdIsStableAndUnique() throws Exception {
+        final StateManager stateManager = TestRunners.newTestRunner(ConsumePravega.class).getStateManager();
+        final String nodeId = ConsumePravega.getNodeId(stateManager);
+        assertEquals(nodeId, ConsumePravega.getNodeId(stateManager));
+        assertFalse(nodeId.contains("-"));
+        final StateManager otherStateManager = TestRunners.newTestRunner(ConsumePravega.class).getStateManager();
+        assertNotEquals(nodeId, ConsumePravega.getNodeId(otherStateManager));
+    }
+}